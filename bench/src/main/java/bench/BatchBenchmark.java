@@ -0,0 +1,85 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import main.BatchSolver;
+import main.Engine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the batch solver over a whole puzzle file, parsing and
+ * writing included. One operation is one pass over the file. A thread count
+ * of 0 means one thread per core.
+ *
+ * @author tobin
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BatchBenchmark
+{
+    @Param({"puzzles.txt", "hard_puzzles.txt"})
+    public String file;
+
+    @Param({"PROPAGATION", "DANCING_LINKS", "BIT_PARALLEL", "PARALLEL"})
+    public Engine engine;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private byte[] input;
+    private BatchSolver solver;
+    private final Sink sink = new Sink();
+
+    @Setup
+    public void load() throws IOException
+    {
+        input = Puzzles.bytes(file);
+        int n = threads == 0 ? Runtime.getRuntime().availableProcessors()
+                : threads;
+        solver = new BatchSolver(engine, false, n);
+    }
+
+    @Benchmark
+    public long batch() throws IOException
+    {
+        sink.written = 0;
+        solver.run(new ByteArrayInputStream(input), sink);
+        return sink.written;
+    }
+
+    /**
+     * Counts what is written to it and throws it away.
+     */
+    private static final class Sink extends OutputStream
+    {
+        long written;
+
+        @Override
+        public void write(int b)
+        {
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            written += len;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import main.Engine;
+import main.Puzzle;
+import main.SolutionCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the cache. A hit answers a puzzle the cache already holds. A
+ * miss goes through an empty cache, so it pays for the lookups and storing
+ * the solution on top of the solve, and solve is the same solve without a
+ * cache to compare it with.
+ *
+ * @author tobin
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CacheBenchmark
+{
+    @Param({"puzzles.txt", "hard_puzzles.txt"})
+    public String file;
+
+    private Puzzle[] puzzles;
+    private SolutionCache cache, empty;
+    private int next;
+    private Puzzle puzzle;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        puzzles = Puzzles.puzzles(file);
+        cache = new SolutionCache(puzzles.length);
+        empty = new SolutionCache(puzzles.length);
+        for (Puzzle original : puzzles)
+        {
+            cache.solve(original.deepCopy(), Engine.PROPAGATION);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copy()
+    {
+        puzzle = puzzles[next].deepCopy();
+        next = (next + 1) % puzzles.length;
+        empty.clear();
+    }
+
+    @Benchmark
+    public boolean hit()
+    {
+        return cache.solve(puzzle, Engine.PROPAGATION);
+    }
+
+    @Benchmark
+    public boolean miss()
+    {
+        return empty.solve(puzzle, Engine.PROPAGATION);
+    }
+
+    @Benchmark
+    public boolean solve()
+    {
+        return puzzle.solve(Engine.PROPAGATION);
+    }
+}
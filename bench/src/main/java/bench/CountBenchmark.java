@@ -0,0 +1,56 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import main.Puzzle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of checking that a puzzle has exactly one solution, cycling through
+ * every puzzle in the file. Counting leaves the puzzle as it was, so the same
+ * puzzles are reused without copying.
+ *
+ * @author tobin
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CountBenchmark
+{
+    @Param({"puzzles.txt", "hard_puzzles.txt"})
+    public String file;
+
+    @Param({"2"})
+    public int limit;
+
+    private Puzzle[] puzzles;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        puzzles = Puzzles.puzzles(file);
+    }
+
+    @Benchmark
+    public int count()
+    {
+        Puzzle puzzle = puzzles[next];
+        next = (next + 1) % puzzles.length;
+        return puzzle.countSolutions(limit);
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import main.Difficulty;
+import main.Generator;
+import main.Puzzle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of making puzzles on one thread. Each operation makes the next
+ * numbered puzzle, so the whole run sees different grids. A target of ANY
+ * takes whatever difficulty comes out.
+ *
+ * @author tobin
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class GenerateBenchmark
+{
+    @Param({"ANY", "EASY", "FIENDISH"})
+    public String target;
+
+    private Generator generator;
+    private Difficulty difficulty;
+    private long next;
+
+    @Setup
+    public void setup()
+    {
+        generator = new Generator(1);
+        difficulty = target.equals("ANY") ? null : Difficulty.valueOf(target);
+    }
+
+    @Benchmark
+    public Puzzle generate()
+    {
+        return generator.generate(next++, difficulty);
+    }
+}
@@ -0,0 +1,150 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simple load test for the solve server. Each client thread POSTs batches
+ * of puzzles from a file as fast as it can for a fixed time, backing off for
+ * a moment when the server says it is busy. At the end it prints the request
+ * rate, puzzles per second, how many requests were turned away, and the
+ * latency percentiles of the answered requests.
+ * <pre>
+ * java -cp target/benchmarks.jar bench.LoadClient url file [clients [batch [seconds]]]
+ * </pre>
+ * where url is the /solve address of a running server, such as
+ * http://localhost:8080/solve, and file is looked up like the benchmark
+ * files.
+ *
+ * @author tobin
+ */
+public class LoadClient
+{
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2)
+        {
+            System.err.println(
+                    "Usage: url file [clients [batch [seconds]]]");
+            return;
+        }
+        final URL url = new URL(args[0]);
+        final String[] lines = Puzzles.lines(args[1]);
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final int batch = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        final long end = System.nanoTime() + seconds * 1000000000L;
+
+        final AtomicLong busy = new AtomicLong(), puzzles = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++)
+        {
+            final int first = c;
+            results.add(pool.submit(new Callable<long[]>()
+            {
+                @Override
+                public long[] call() throws Exception
+                {
+                    long[] latencies = new long[1024];
+                    int count = 0, next = first * batch;
+                    while (System.nanoTime() < end)
+                    {
+                        StringBuilder body = new StringBuilder();
+                        for (int i = 0; i < batch; i++)
+                        {
+                            body.append(lines[next++ % lines.length])
+                                    .append('\n');
+                        }
+                        long start = System.nanoTime();
+                        int code = post(url, body.toString().getBytes("US-ASCII"));
+                        if (code == 503)
+                        {
+                            busy.incrementAndGet();
+                            Thread.sleep(10);
+                            continue;
+                        }
+                        if (code != 200)
+                        {
+                            throw new IOException("Server answered " + code);
+                        }
+                        if (count == latencies.length)
+                        {
+                            latencies = Arrays.copyOf(latencies, 2 * count);
+                        }
+                        latencies[count++] = System.nanoTime() - start;
+                        puzzles.addAndGet(batch);
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }
+            }));
+        }
+
+        long[] all = new long[0];
+        for (Future<long[]> result : results)
+        {
+            long[] latencies = result.get();
+            int at = all.length;
+            all = Arrays.copyOf(all, at + latencies.length);
+            System.arraycopy(latencies, 0, all, at, latencies.length);
+        }
+        pool.shutdown();
+        Arrays.sort(all);
+
+        System.out.println(all.length / (double) seconds + " requests/s, "
+                + puzzles.get() / (double) seconds + " puzzles/s, "
+                + busy.get() + " turned away");
+        if (all.length > 0)
+        {
+            System.out.println("latency ms: p50 " + percentile(all, 0.5)
+                    + ", p90 " + percentile(all, 0.9)
+                    + ", p99 " + percentile(all, 0.99)
+                    + ", max " + all[all.length - 1] / 1e6);
+        }
+    }
+
+    private static int post(URL url, byte[] body) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        OutputStream out = connection.getOutputStream();
+        out.write(body);
+        out.close();
+        int code = connection.getResponseCode();
+        InputStream in = code == 200 ? connection.getInputStream()
+                : connection.getErrorStream();
+        if (in != null)
+        {
+            // read the whole answer so the connection can be reused
+            ByteArrayOutputStream answer = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                answer.write(buffer, 0, read);
+            }
+            in.close();
+        }
+        return code;
+    }
+
+    private static double percentile(long[] sorted, double p)
+    {
+        int at = (int) Math.min(sorted.length - 1, Math.floor(p * sorted.length));
+        return sorted[at] / 1e6;
+    }
+}
@@ -0,0 +1,25 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, but with the gc
+ * profiler turned on unless some other profiler was asked for.
+ *
+ * @author tobin
+ */
+public class Main
+{
+    public static void main(String[] args) throws Exception
+    {
+        List<String> all = new ArrayList<>(Arrays.asList(args));
+        if (!all.contains("-prof"))
+        {
+            all.add(0, "-prof");
+            all.add(1, "gc");
+        }
+        org.openjdk.jmh.Main.main(all.toArray(new String[all.size()]));
+    }
+}
@@ -0,0 +1,60 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import main.Puzzle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The fixed costs around a solve: reading a puzzle from text and copying
+ * one.
+ *
+ * @author tobin
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PuzzleBenchmark
+{
+    private String[] lines;
+    private Puzzle[] puzzles;
+    private int next;
+
+    @Setup
+    public void load() throws IOException
+    {
+        lines = Puzzles.lines("puzzles.txt");
+        puzzles = Puzzles.puzzles("puzzles.txt");
+    }
+
+    private int next()
+    {
+        int i = next;
+        next = (next + 1) % lines.length;
+        return i;
+    }
+
+    @Benchmark
+    public Puzzle parse()
+    {
+        return Puzzle.parse(lines[next()], false);
+    }
+
+    @Benchmark
+    public Puzzle deepCopy()
+    {
+        return puzzles[next()].deepCopy();
+    }
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import main.Puzzle;
+
+/**
+ * Loads the puzzle files for the benchmarks. The files are looked up in the
+ * directory named by the sudoku.puzzles system property, which defaults to
+ * the parent of the bench directory.
+ *
+ * @author tobin
+ */
+final class Puzzles
+{
+    private Puzzles()
+    {
+    }
+
+    static Path path(String file)
+    {
+        return Paths.get(System.getProperty("sudoku.puzzles", ".."), file);
+    }
+
+    /**
+     * @param file The name of the puzzle file
+     * @return The raw contents of the file
+     * @throws IOException if the file can't be read
+     */
+    static byte[] bytes(String file) throws IOException
+    {
+        return Files.readAllBytes(path(file));
+    }
+
+    /**
+     * @param file The name of the puzzle file
+     * @return Each puzzle in the file as text
+     * @throws IOException if the file can't be read
+     */
+    static String[] lines(String file) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(path(file), StandardCharsets.US_ASCII))
+        {
+            if (!line.trim().isEmpty())
+            {
+                lines.add(line.trim());
+            }
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * @param file The name of the puzzle file
+     * @return Each puzzle in the file, unsolved
+     * @throws IOException if the file can't be read
+     */
+    static Puzzle[] puzzles(String file) throws IOException
+    {
+        String[] lines = lines(file);
+        Puzzle[] puzzles = new Puzzle[lines.length];
+        for (int i = 0; i < lines.length; i++)
+        {
+            puzzles[i] = Puzzle.parse(lines[i], false);
+        }
+        return puzzles;
+    }
+}
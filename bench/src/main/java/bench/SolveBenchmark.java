@@ -0,0 +1,74 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import main.Engine;
+import main.Puzzle;
+import main.Technique;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of solving one puzzle, cycling through every puzzle in the file so
+ * the percentiles cover the whole file rather than one lucky input. Each
+ * solve gets a fresh copy of its puzzle, made outside the measured call.
+ *
+ * @author tobin
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SolveBenchmark
+{
+    @Param({"puzzles.txt", "hard_puzzles.txt"})
+    public String file;
+
+    @Param({"PROPAGATION", "DANCING_LINKS", "BIT_PARALLEL", "PARALLEL"})
+    public Engine engine;
+
+    /**
+     * If every technique past singles is turned on
+     */
+    @Param({"false", "true"})
+    public boolean techniques;
+
+    private Puzzle[] puzzles;
+    private int next;
+    private Puzzle puzzle;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        puzzles = Puzzles.puzzles(file);
+    }
+
+    @Setup(Level.Invocation)
+    public void copy()
+    {
+        puzzle = puzzles[next].deepCopy();
+        for (Technique technique : Technique.values())
+        {
+            puzzle.setTechnique(technique, techniques);
+        }
+        next = (next + 1) % puzzles.length;
+    }
+
+    @Benchmark
+    public boolean solve()
+    {
+        return puzzle.solve(engine);
+    }
+}
@@ -0,0 +1,581 @@
+package main;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solves a stream of puzzles without a window. Each input line holds the cells
+ * of a puzzle in reading order (81 for a normal puzzle), with 0 or . for an
+ * unknown cell and letters for numbers past 9. Spaces, tabs and carriage
+ * returns are ignored, and blank lines are skipped. Every puzzle in a stream
+ * has the same size.
+ *
+ * Every other line produces one output line in the same order: the cells of
+ * the solution, {@value #UNSOLVABLE} if the puzzle has no solution, or
+ * {@value #INVALID} if the line is not a puzzle or repeats a number in a unit,
+ * or {@value #EXCEEDED} if a budget is set and the puzzle ran out of it.
+ *
+ * The input is read through a fixed size buffer and parsed a byte at a time
+ * into chunks of puzzles. With more than one thread the chunks are solved on a
+ * fork join pool, each worker reusing its own puzzle, and written back in
+ * input order. Only a few chunks per thread are in flight at once and
+ * finished chunks are reused, so memory use does not depend on how big the
+ * input is or how long its lines are.
+ *
+ * Puzzles can also come from a binary {@link PuzzleFile}, which skips the
+ * parsing. A batch solver can only run one stream at a time.
+ *
+ * @author tobin
+ */
+public class BatchSolver
+{
+    public static final String UNSOLVABLE = "unsolvable", INVALID = "invalid",
+            EXCEEDED = "exceeded";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * The number of puzzles given to a worker at once
+     */
+    private static final int CHUNK_SIZE = 512;
+    /**
+     * The number of chunks each thread may have waiting to be written
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final byte[] UNSOLVABLE_LINE = (UNSOLVABLE + "\n").getBytes(),
+            INVALID_LINE = (INVALID + "\n").getBytes(),
+            EXCEEDED_LINE = (EXCEEDED + "\n").getBytes();
+
+    private final Engine engine;
+    private final Geometry geometry;
+    private final boolean diag;
+    private final int threads;
+    /**
+     * The deductions past singles each puzzle uses
+     */
+    private final EnumSet<Technique> techniques =
+            EnumSet.noneOf(Technique.class);
+    /**
+     * Where solutions are looked up first, or null to always solve
+     */
+    private SolutionCache cache;
+    /**
+     * Solutions worked out ahead of time, looked up before the cache, or null
+     */
+    private SolutionStore store;
+    /**
+     * The limits on each puzzle, 0 for none
+     */
+    private long timeout, nodes;
+    /**
+     * The puzzle each thread solves into
+     */
+    private final ThreadLocal<Puzzle> puzzles = new ThreadLocal<Puzzle>()
+    {
+        @Override
+        protected Puzzle initialValue()
+        {
+            return new Puzzle(geometry.boxSize, diag);
+        }
+    };
+
+    private final byte[] in = new byte[BUFFER_SIZE];
+    /**
+     * Chunks that have been submitted, oldest first
+     */
+    private final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+    /**
+     * Chunks that have been written and can be filled again
+     */
+    private final ArrayDeque<Chunk> free = new ArrayDeque<>();
+    private ForkJoinPool pool;
+    private OutputStream output;
+    /**
+     * The chunk being read into
+     */
+    private Chunk chunk;
+    /**
+     * The number of cells read on this line, or -1 if the line is bad
+     */
+    private int count;
+    /**
+     * If anything other than white space has been read on this line
+     */
+    private boolean content;
+
+    private long solved, unsolvable, invalid, exceeded;
+
+    /**
+     * Makes a batch solver for plain puzzles that runs on one thread.
+     *
+     * @param engine The engine to solve each puzzle with
+     */
+    public BatchSolver(Engine engine)
+    {
+        this(engine, false, 1);
+    }
+
+    /**
+     * Makes a batch solver for normal sized puzzles.
+     *
+     * @param engine The engine to solve each puzzle with
+     * @param diag If the puzzles have diagonal constraints
+     * @param threads The number of threads to solve on
+     */
+    public BatchSolver(Engine engine, boolean diag, int threads)
+    {
+        this(engine, Puzzle.DEFAULT_BOX_SIZE, diag, threads);
+    }
+
+    /**
+     * @param engine The engine to solve each puzzle with
+     * @param boxSize The box size of the puzzles, 3 for normal puzzles
+     * @param diag If the puzzles have diagonal constraints
+     * @param threads The number of threads to solve on
+     */
+    public BatchSolver(Engine engine, int boxSize, boolean diag, int threads)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Need at least one thread: " + threads);
+        }
+        this.engine = engine;
+        geometry = Geometry.of(boxSize);
+        this.diag = diag;
+        this.threads = threads;
+    }
+
+    /**
+     * Turns one of the deductions past singles on or off for every puzzle.
+     * This must not be called while a stream is running.
+     *
+     * @param technique The deduction
+     * @param use If it should be run when the singles stall
+     */
+    public void setTechnique(Technique technique, boolean use)
+    {
+        if (use)
+        {
+            techniques.add(technique);
+        }
+        else
+        {
+            techniques.remove(technique);
+        }
+    }
+
+    /**
+     * Looks every puzzle up in a cache before solving it, and keeps its
+     * solution there. This must not be called while a stream is running.
+     *
+     * @param cache The cache to use, or null to always solve
+     */
+    public void setCache(SolutionCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Looks every puzzle up in a store of known solutions before solving it.
+     * This must not be called while a stream is running.
+     *
+     * @param store The store to use, or null to always solve
+     */
+    public void setStore(SolutionStore store)
+    {
+        this.store = store;
+    }
+
+    /**
+     * Limits how long each puzzle may take. A puzzle that runs out is
+     * reported as {@value #EXCEEDED} and the stream goes on. This must not be
+     * called while a stream is running.
+     *
+     * @param timeout How long each puzzle may take, or 0 for no limit
+     * @param unit The unit of the timeout
+     * @param nodes The most search nodes each puzzle may try, or 0 for no
+     * limit
+     */
+    public void setBudget(long timeout, TimeUnit unit, long nodes)
+    {
+        if (timeout < 0 || nodes < 0)
+        {
+            throw new IllegalArgumentException("Limits can't be negative: "
+                    + timeout + ", " + nodes);
+        }
+        this.timeout = unit.toNanos(timeout);
+        this.nodes = nodes;
+    }
+
+    /**
+     * Solves every puzzle in the input. Neither stream is closed.
+     *
+     * @param input The puzzles to solve
+     * @param output Where the solutions are written
+     * @throws IOException if either stream fails
+     */
+    public void run(InputStream input, OutputStream output) throws IOException
+    {
+        begin(output);
+        try
+        {
+            int read;
+            while ((read = input.read(in)) != -1)
+            {
+                for (int i = 0; i < read; i++)
+                {
+                    byte b = in[i];
+                    if (b == '\n')
+                    {
+                        endLine();
+                    }
+                    else
+                    {
+                        accept(b);
+                    }
+                }
+            }
+            // the last line might not have a newline
+            endLine();
+            finish();
+        }
+        finally
+        {
+            end();
+        }
+    }
+
+    /**
+     * Solves every puzzle in a binary puzzle file. The records are copied
+     * straight into the chunks, so there is no text to parse. The output is
+     * the same as for the same puzzles as text, and is not closed.
+     *
+     * @param input The puzzles to solve, of the same shape as this solver
+     * @param output Where the solutions are written
+     * @throws IOException if the file can't be read or the output fails
+     */
+    public void run(PuzzleFile input, OutputStream output) throws IOException
+    {
+        if (input.getBoxSize() != geometry.boxSize
+                || input.isDiagonal() != diag)
+        {
+            throw new IllegalArgumentException(
+                    "Puzzle file is not the shape of this solver");
+        }
+        begin(output);
+        try
+        {
+            for (int i = 0; i < input.size(); i++)
+            {
+                chunk.valid[chunk.size] = input.read(i, chunk.cells,
+                        chunk.size * geometry.cells);
+                if (++chunk.size == CHUNK_SIZE)
+                {
+                    dispatch();
+                    chunk = nextChunk();
+                }
+            }
+            finish();
+        }
+        finally
+        {
+            end();
+        }
+    }
+
+    private void begin(OutputStream output)
+    {
+        this.output = output;
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        chunk = nextChunk();
+        count = 0;
+        content = false;
+    }
+
+    /**
+     * Solves the last chunk and waits for every chunk to be written.
+     */
+    private void finish() throws IOException
+    {
+        if (chunk.size > 0)
+        {
+            dispatch();
+        }
+        while (!pending.isEmpty())
+        {
+            writeOldest();
+        }
+        output.flush();
+    }
+
+    private void end()
+    {
+        if (pool != null)
+        {
+            pool.shutdownNow();
+            pool = null;
+        }
+        pending.clear();
+        this.output = null;
+    }
+
+    private void accept(byte b)
+    {
+        if (b == ' ' || b == '\t' || b == '\r')
+        {
+            return;
+        }
+        content = true;
+        if (count < 0)
+        {
+            // already bad, wait for the end of the line
+            return;
+        }
+
+        int at = chunk.size * geometry.cells + count;
+        int n = Geometry.value(b);
+        if (count == geometry.cells || n == 0 || n > geometry.size)
+        {
+            // too long, or not a number
+            count = -1;
+        }
+        else
+        {
+            chunk.cells[at] = (byte) (n == -1 ? 0 : n);
+            count++;
+        }
+    }
+
+    private void endLine() throws IOException
+    {
+        if (content)
+        {
+            chunk.valid[chunk.size++] = count == geometry.cells;
+            if (chunk.size == CHUNK_SIZE)
+            {
+                dispatch();
+                chunk = nextChunk();
+            }
+        }
+        count = 0;
+        content = false;
+    }
+
+    private Chunk nextChunk()
+    {
+        Chunk next = free.poll();
+        return next == null ? new Chunk() : next;
+    }
+
+    /**
+     * Solves the current chunk, on the pool if there is one.
+     */
+    private void dispatch() throws IOException
+    {
+        final Chunk full = chunk;
+        if (pool == null)
+        {
+            solve(full);
+            write(full);
+            return;
+        }
+
+        pending.add(pool.submit(new Callable<Chunk>()
+        {
+            @Override
+            public Chunk call()
+            {
+                solve(full);
+                return full;
+            }
+        }));
+        if (pending.size() >= threads * CHUNKS_PER_THREAD)
+        {
+            writeOldest();
+        }
+    }
+
+    /**
+     * Waits for the oldest submitted chunk and writes it out.
+     */
+    private void writeOldest() throws IOException
+    {
+        try
+        {
+            write(pending.poll().get());
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while solving");
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void write(Chunk done) throws IOException
+    {
+        output.write(done.out, 0, done.outSize);
+        solved += done.solved;
+        unsolvable += done.unsolvable;
+        invalid += done.invalid;
+        exceeded += done.exceeded;
+
+        done.size = done.outSize = 0;
+        done.solved = done.unsolvable = done.invalid = done.exceeded = 0;
+        free.add(done);
+    }
+
+    /**
+     * Solves every puzzle in a chunk, filling in its output. This runs on the
+     * worker threads, so it only touches the chunk and this thread's puzzle.
+     *
+     * @param work The chunk to solve
+     */
+    private void solve(Chunk work)
+    {
+        Puzzle puzzle = puzzles.get();
+        for (Technique technique : Technique.values())
+        {
+            puzzle.setTechnique(technique, techniques.contains(technique));
+        }
+        for (int i = 0; i < work.size; i++)
+        {
+            if (!work.valid[i])
+            {
+                invalid(work);
+                continue;
+            }
+
+            puzzle.load(work.cells, i * geometry.cells);
+            if (!puzzle.isConsistent())
+            {
+                invalid(work);
+                continue;
+            }
+
+            if (store == null || !store.find(puzzle))
+            {
+                Budget budget = timeout == 0 && nodes == 0 ? null
+                        : new Budget(timeout, TimeUnit.NANOSECONDS, nodes);
+                SolveResult result = cache == null
+                        ? puzzle.trySolve(engine, budget)
+                        : cache.trySolve(puzzle, engine, budget);
+                if (result.getStatus() == SolveResult.Status.EXCEEDED)
+                {
+                    work.exceeded++;
+                    work.add(EXCEEDED_LINE);
+                    continue;
+                }
+                if (!result.isSolved())
+                {
+                    // unsolvable, or unfinished without search
+                    work.unsolvable++;
+                    work.add(UNSOLVABLE_LINE);
+                    continue;
+                }
+            }
+
+            work.solved++;
+            for (int cell = 0; cell < geometry.cells; cell++)
+            {
+                work.out[work.outSize++] =
+                        (byte) Geometry.symbol(puzzle.getCell(cell));
+            }
+            work.out[work.outSize++] = '\n';
+        }
+    }
+
+    /**
+     * Answers a puzzle that is not solved because it is not valid.
+     */
+    private static void invalid(Chunk work)
+    {
+        work.invalid++;
+        work.add(INVALID_LINE);
+        if (Metrics.isEnabled())
+        {
+            Metrics.recordInvalid();
+        }
+    }
+
+    /**
+     * @return The number of puzzles solved so far
+     */
+    public long getSolved()
+    {
+        return solved;
+    }
+
+    /**
+     * @return The number of puzzles found to have no solution so far
+     */
+    public long getUnsolvable()
+    {
+        return unsolvable;
+    }
+
+    /**
+     * @return The number of lines that were not valid puzzles so far
+     */
+    public long getInvalid()
+    {
+        return invalid;
+    }
+
+    /**
+     * @return The number of puzzles that ran out of budget so far
+     */
+    public long getExceeded()
+    {
+        return exceeded;
+    }
+
+    /**
+     * A block of puzzles and the output for them.
+     */
+    private final class Chunk
+    {
+        /**
+         * The cells of each puzzle, 0 if unknown
+         */
+        final byte[] cells = new byte[CHUNK_SIZE * geometry.cells];
+        /**
+         * If each line had the right number of cells
+         */
+        final boolean[] valid = new boolean[CHUNK_SIZE];
+        /**
+         * Every output line is at most a solution and a newline
+         */
+        final byte[] out = new byte[CHUNK_SIZE
+                * Math.max(geometry.cells + 1, UNSOLVABLE_LINE.length)];
+        int size, outSize;
+        long solved, unsolvable, invalid, exceeded;
+
+        void add(byte[] line)
+        {
+            System.arraycopy(line, 0, out, outSize, line.length);
+            outSize += line.length;
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * Solves a puzzle with bitboards, working on 64 cells at once with plain long
+ * operations. There is one board per number holding the cells it can still
+ * go in, and one holding the cells that are still open. Placing a number
+ * clears its board across every unit of the cell with a few masks, and the
+ * naked singles of the whole grid come out of a bit sliced count of the
+ * boards rather than a cell by cell scan. Hidden singles are a mask and a
+ * bit count per number and unit. When that stalls, the cell with the fewest
+ * candidates is searched.
+ *
+ * The whole state is one long array, so a guess is saved and undone with an
+ * array copy. An instance can be reused for any number of puzzles with the
+ * same shape and diagonal setting.
+ *
+ * @author tobin
+ */
+final class BitParallel
+{
+    private final Geometry geometry;
+    private final boolean diag;
+    /**
+     * The longs needed for one board
+     */
+    private final int words;
+    /**
+     * The board of each unit
+     */
+    private final long[] unitMasks;
+    private final int units;
+    /**
+     * The board of each number, then the open cells, then for each number
+     * the units it has been placed in
+     */
+    private final long[] state;
+    private final int open, placed, unitWords;
+    /**
+     * Snapshots of the state for each level of the search
+     */
+    private final long[][] frames;
+    /**
+     * Scratch space for the bit sliced counts: the cells with at least one,
+     * two and three candidates
+     */
+    private final long[] one, two, three;
+    /**
+     * What changed since the last look for hidden singles: the numbers whose
+     * boards lost cells across whole units, and the units that had a cell
+     * filled. Only those need looking at again.
+     */
+    private long dirtyDigits;
+    private final long[] dirtyUnits, scan;
+    private long nodes, backtracks, nakedSingles, hiddenSingles;
+    private int depth;
+    /**
+     * The limits on the solve going on, or null, and if they ran out
+     */
+    private Budget budget;
+    private boolean stopped;
+
+    /**
+     * Builds the unit masks for a puzzle.
+     *
+     * @param geometry The shape of the puzzle
+     * @param diag If the diagonals are constrained
+     */
+    BitParallel(Geometry geometry, boolean diag)
+    {
+        this.geometry = geometry;
+        this.diag = diag;
+        words = (geometry.cells + 63) >>> 6;
+        units = geometry.unitCount(diag);
+        unitMasks = new long[units * words];
+        for (int unit = 0; unit < units; unit++)
+        {
+            for (int cell : geometry.unitCells(unit))
+            {
+                unitMasks[unit * words + (cell >>> 6)] |= 1L << cell;
+            }
+        }
+        open = geometry.size * words;
+        placed = open + words;
+        unitWords = (units + 63) >>> 6;
+        state = new long[placed + geometry.size * unitWords];
+        frames = new long[geometry.cells][];
+        one = new long[words];
+        two = new long[words];
+        three = new long[words];
+        dirtyUnits = new long[unitWords];
+        scan = new long[dirtyUnits.length];
+    }
+
+    /**
+     * @return If the diagonals are constrained
+     */
+    boolean isDiagonal()
+    {
+        return diag;
+    }
+
+    /**
+     * @return The number of guesses made by the last solve
+     */
+    long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * @return The number of guesses the last solve had to undo
+     */
+    long getBacktracks()
+    {
+        return backtracks;
+    }
+
+    /**
+     * @return The number of cells the last solve filled because only one
+     * number could go there
+     */
+    long getNakedSingles()
+    {
+        return nakedSingles;
+    }
+
+    /**
+     * @return The number of cells the last solve filled because a number
+     * could only go there
+     */
+    long getHiddenSingles()
+    {
+        return hiddenSingles;
+    }
+
+    /**
+     * @return The most guesses the last solve had made at once
+     */
+    int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return If the last solve ran out of budget
+     */
+    boolean wasStopped()
+    {
+        return stopped;
+    }
+
+    /**
+     * Fills in the grid. The grid must not already contain conflicting values.
+     *
+     * @param grid The grid to solve
+     * @param budget The limits on the solve, or null for none. If they run out
+     * the search unwinds and returns false.
+     * @return If a solution was found. If not the grid is left unchanged.
+     */
+    boolean solve(CandidateGrid grid, Budget budget)
+    {
+        nodes = backtracks = nakedSingles = hiddenSingles = 0;
+        depth = 0;
+        this.budget = budget;
+        stopped = false;
+        dirtyDigits = 0;
+        Arrays.fill(dirtyUnits, 0);
+
+        // every number can go anywhere until the givens are placed
+        long[] s = state;
+        for (int w = 0; w < words; w++)
+        {
+            long cells = w == words - 1 && (geometry.cells & 63) != 0
+                    ? (1L << geometry.cells) - 1 : -1L;
+            for (int d = 0; d <= geometry.size; d++)
+            {
+                s[d * words + w] = cells;
+            }
+        }
+        Arrays.fill(s, placed, s.length, 0);
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            int value = grid.get(cell);
+            if (value != -1)
+            {
+                place(cell, value - 1);
+            }
+        }
+
+        boolean found = propagate() && search(0);
+        this.budget = null;
+        if (found)
+        {
+            for (int cell = 0; cell < geometry.cells; cell++)
+            {
+                if (grid.get(cell) == -1)
+                {
+                    grid.set(cell, digit(cell) + 1);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Puts a number in a cell, taking it out of the rest of the cell's units
+     * and taking every other number out of the cell.
+     *
+     * @param cell The cell
+     * @param d The number, from 0
+     */
+    private void place(int cell, int d)
+    {
+        long[] s = state;
+        int base = d * words;
+        dirtyDigits |= 1L << d;
+        int done = placed + d * unitWords;
+        for (int unit : geometry.unitsOf(cell, diag))
+        {
+            dirtyUnits[unit >>> 6] |= 1L << unit;
+            s[done + (unit >>> 6)] |= 1L << unit;
+            int mask = unit * words;
+            for (int w = 0; w < words; w++)
+            {
+                s[base + w] &= ~unitMasks[mask + w];
+            }
+        }
+        int word = cell >>> 6;
+        long bit = 1L << cell;
+        for (int other = word; other < open; other += words)
+        {
+            s[other] &= ~bit;
+        }
+        s[base + word] |= bit;
+        s[open + word] &= ~bit;
+    }
+
+    /**
+     * @param cell A cell with at least one candidate
+     * @return Its first candidate, from 0, or -1 if it has none
+     */
+    private int digit(int cell)
+    {
+        int word = cell >>> 6;
+        long bit = 1L << cell;
+        for (int d = 0; d < geometry.size; d++)
+        {
+            if ((state[d * words + word] & bit) != 0)
+            {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Counts the candidates of every open cell at once, saturating at three.
+     */
+    private void count()
+    {
+        long[] s = state;
+        for (int w = 0; w < words; w++)
+        {
+            long a1 = 0, a2 = 0, a3 = 0;
+            for (int i = w; i < open; i += words)
+            {
+                long b = s[i];
+                a3 |= a2 & b;
+                a2 |= a1 & b;
+                a1 |= b;
+            }
+            long cells = s[open + w];
+            one[w] = a1 & cells;
+            two[w] = a2 & cells;
+            three[w] = a3 & cells;
+        }
+    }
+
+    /**
+     * Fills in naked and hidden singles until there are none left.
+     *
+     * @return false if the puzzle was found to be unsolvable, or the budget
+     * ran out
+     */
+    private boolean propagate()
+    {
+        long[] s = state;
+        boolean changed = true;
+        while (changed)
+        {
+            if (budget != null && budget.exceeded(nodes))
+            {
+                stopped = true;
+                return false;
+            }
+            changed = false;
+
+            count();
+            for (int w = 0; w < words; w++)
+            {
+                if ((s[open + w] & ~one[w]) != 0)
+                {
+                    // an open cell with no candidates
+                    return false;
+                }
+                long singles = one[w] & ~two[w];
+                if (singles == 0)
+                {
+                    continue;
+                }
+                // each number's board picks out the singles it fills
+                for (int d = 0; d < geometry.size; d++)
+                {
+                    int board = d * words + w;
+                    for (long hits = s[board] & singles; hits != 0;
+                            hits &= hits - 1)
+                    {
+                        long bit = hits & -hits;
+                        if ((s[board] & bit) == 0)
+                        {
+                            // an earlier single took its last candidate
+                            return false;
+                        }
+                        place((w << 6) + Long.numberOfTrailingZeros(bit), d);
+                        nakedSingles++;
+                        changed = true;
+                    }
+                }
+            }
+            if (changed)
+            {
+                continue;
+            }
+
+            // a number's board only changes across whole units when it is
+            // placed, otherwise it just loses the cells that were filled
+            long digits = dirtyDigits;
+            dirtyDigits = 0;
+            System.arraycopy(dirtyUnits, 0, scan, 0, scan.length);
+            Arrays.fill(dirtyUnits, 0);
+            for (int d = 0; d < geometry.size; d++)
+            {
+                // units the number is already in have nothing to find
+                boolean all = (digits >>> d & 1) != 0;
+                int done = placed + d * unitWords;
+                for (int i = 0; i < unitWords; i++)
+                {
+                    long todo = (all ? -1L : scan[i]) & ~s[done + i];
+                    if (all && i == unitWords - 1 && (units & 63) != 0)
+                    {
+                        todo &= (1L << units) - 1;
+                    }
+                    for (long m = todo; m != 0; m &= m - 1)
+                    {
+                        int found = hidden(d,
+                                (i << 6) + Long.numberOfTrailingZeros(m));
+                        if (found < 0)
+                        {
+                            return false;
+                        }
+                        changed |= found > 0;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills in a number if it can only go in one place in a unit.
+     *
+     * @param d The number, from 0
+     * @param unit The unit
+     * @return 1 if the number was filled in, 0 if not, or -1 if it can't go
+     * anywhere in the unit
+     */
+    private int hidden(int d, int unit)
+    {
+        long[] s = state;
+        int base = d * words, mask = unit * words, places = 0, word = 0;
+        for (int w = 0; w < words && places < 2; w++)
+        {
+            long m = s[base + w] & unitMasks[mask + w];
+            if (m != 0)
+            {
+                places += Long.bitCount(m);
+                word = w;
+            }
+        }
+        if (places != 1)
+        {
+            return places == 0 ? -1 : 0;
+        }
+        long only = s[base + word] & unitMasks[mask + word];
+        if ((s[open + word] & only) == 0)
+        {
+            // placed by an earlier single in the same pass
+            return 0;
+        }
+        place((word << 6) + Long.numberOfTrailingZeros(only), d);
+        hiddenSingles++;
+        return 1;
+    }
+
+    /**
+     * Uses the counts from the last pass of {@link #propagate()}, which
+     * changed nothing.
+     *
+     * @return The open cell with the fewest candidates, or -1 if every cell
+     * is filled
+     */
+    private int mostConstrained()
+    {
+        for (int w = 0; w < words; w++)
+        {
+            long pairs = two[w] & ~three[w];
+            if (pairs != 0)
+            {
+                // can't do better than a binary choice
+                return (w << 6) + Long.numberOfTrailingZeros(pairs);
+            }
+        }
+
+        int best = -1, bestCount = Integer.MAX_VALUE;
+        for (int w = 0; w < words; w++)
+        {
+            for (long cells = state[open + w]; cells != 0; cells &= cells - 1)
+            {
+                int cell = (w << 6) + Long.numberOfTrailingZeros(cells);
+                long bit = 1L << cell;
+                int n = 0;
+                for (int i = w; i < open && n < bestCount; i += words)
+                {
+                    if ((state[i] & bit) != 0)
+                    {
+                        n++;
+                    }
+                }
+                if (n < bestCount)
+                {
+                    best = cell;
+                    bestCount = n;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Depth first search over the cell with the fewest candidates.
+     *
+     * @param depth The number of guesses already made
+     * @return If a solution was found
+     */
+    private boolean search(int depth)
+    {
+        int cell = mostConstrained();
+        if (cell == -1)
+        {
+            return true;
+        }
+
+        long[] saved = frames[depth];
+        if (saved == null)
+        {
+            saved = frames[depth] = new long[state.length];
+        }
+        System.arraycopy(state, 0, saved, 0, state.length);
+
+        int word = cell >>> 6;
+        long bit = 1L << cell;
+        for (int d = 0; d < geometry.size; d++)
+        {
+            if ((saved[d * words + word] & bit) == 0)
+            {
+                continue;
+            }
+            nodes++;
+            if (budget != null && budget.exceeded(nodes))
+            {
+                stopped = true;
+                return false;
+            }
+            this.depth = Math.max(this.depth, depth + 1);
+            place(cell, d);
+            if (propagate() && search(depth + 1))
+            {
+                return true;
+            }
+            if (stopped)
+            {
+                return false;
+            }
+            backtracks++;
+            System.arraycopy(saved, 0, state, 0, state.length);
+            // the saved state had nothing left to propagate
+            dirtyDigits = 0;
+            Arrays.fill(dirtyUnits, 0);
+        }
+        return false;
+    }
+}
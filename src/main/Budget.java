@@ -0,0 +1,160 @@
+package main;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how much work a solve may do: a deadline, a number of search nodes,
+ * or both, and a flag another thread can set to stop it. The solver checks
+ * the budget at every search node and every round of propagation. Nodes and
+ * the flag are checked every time, and the clock every
+ * {@value #CLOCK_EVERY} checks so reading it stays cheap. A solve that runs
+ * out ends as {@link SolveResult.Status#EXCEEDED} from
+ * {@link Puzzle#trySolve(Engine, Budget)}, and only
+ * {@link Puzzle#solve(Engine, Budget)} and {@link SolveResult#orThrow()}
+ * throw a {@link BudgetExceededException}.
+ *
+ * The deadline is fixed when the budget is made, so a budget covers
+ * everything it is used for from then on. Make a new one for each solve to
+ * limit each solve on its own.
+ *
+ * @author tobin
+ */
+public final class Budget
+{
+    private static final int CLOCK_EVERY = 64;
+
+    private final long deadline;
+    private final boolean timed;
+    private final long nodes;
+    /**
+     * A budget this one is part of, or null
+     */
+    private final Budget parent;
+    /**
+     * The nodes used by every thread sharing this budget, or null if it is
+     * not shared
+     */
+    private final AtomicLong shared;
+    /**
+     * The nodes already added to the parent's total
+     */
+    private long reported;
+    private volatile boolean cancelled;
+    private int untilClock = CLOCK_EVERY;
+
+    /**
+     * @param timeout How long the solve may take, or 0 for no limit
+     * @param unit The unit of the timeout
+     * @param nodes The most search nodes the solve may try, or 0 for no limit
+     */
+    public Budget(long timeout, TimeUnit unit, long nodes)
+    {
+        if (timeout < 0 || nodes < 0)
+        {
+            throw new IllegalArgumentException("Limits can't be negative: "
+                    + timeout + ", " + nodes);
+        }
+        timed = timeout > 0;
+        deadline = System.nanoTime() + unit.toNanos(timeout);
+        this.nodes = nodes > 0 ? nodes : Long.MAX_VALUE;
+        parent = null;
+        shared = null;
+    }
+
+    /**
+     * Makes a budget for a solve split up between threads. It has the
+     * parent's limits and runs out when the parent is cancelled, but can
+     * also be cancelled on its own. Each thread uses its own budget from
+     * {@link #share()}, and the nodes they use all count against one total.
+     *
+     * @param parent The budget to stay inside of, or null for none
+     * @param used The nodes the solve used before it was split up
+     */
+    Budget(Budget parent, long used)
+    {
+        timed = parent != null && parent.timed;
+        deadline = parent != null ? parent.deadline : 0;
+        nodes = parent != null ? parent.nodes : Long.MAX_VALUE;
+        this.parent = parent;
+        shared = new AtomicLong(used);
+    }
+
+    /**
+     * Makes one thread's part of a shared budget.
+     */
+    private Budget(Budget parent)
+    {
+        timed = parent.timed;
+        deadline = parent.deadline;
+        nodes = parent.nodes;
+        this.parent = parent;
+        shared = null;
+    }
+
+    /**
+     * Makes a budget with no limits, that only stops when it is cancelled.
+     */
+    public Budget()
+    {
+        this(0, TimeUnit.NANOSECONDS, 0);
+    }
+
+    /**
+     * Stops every solve using this budget at its next check.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * @return If the budget, or one it is part of, has been cancelled
+     */
+    public boolean isCancelled()
+    {
+        return cancelled || parent != null && parent.isCancelled();
+    }
+
+    /**
+     * @return A budget for one more thread to use in a solve split up with
+     * this budget. Only that thread may use it.
+     */
+    Budget share()
+    {
+        if (shared == null)
+        {
+            throw new IllegalStateException("The budget is not shared");
+        }
+        return new Budget(this);
+    }
+
+    /**
+     * Only the thread using the budget calls this. A budget it is part of is
+     * only read, so many threads can check against the same one.
+     *
+     * @param used The search nodes used so far
+     * @return If the solve should stop
+     */
+    boolean exceeded(long used)
+    {
+        if (parent != null && parent.shared != null)
+        {
+            // this thread's nodes count against the total of all of them
+            long total = used == reported ? parent.shared.get()
+                    : parent.shared.addAndGet(used - reported);
+            reported = used;
+            used = total;
+        }
+        if (used > nodes || isCancelled())
+        {
+            return true;
+        }
+        if (!timed || --untilClock > 0)
+        {
+            return false;
+        }
+        untilClock = CLOCK_EVERY;
+        return System.nanoTime() - deadline > 0;
+    }
+}
@@ -0,0 +1,31 @@
+package main;
+
+/**
+ * Thrown when a solve runs out of its {@link Budget}, or the budget is
+ * cancelled. The puzzle is left as it was before the solve.
+ *
+ * @author tobin
+ */
+public class BudgetExceededException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final long nodes;
+
+    /**
+     * @param nodes The search nodes tried before stopping
+     */
+    public BudgetExceededException(long nodes)
+    {
+        super("Solve budget exceeded after " + nodes + " nodes");
+        this.nodes = nodes;
+    }
+
+    /**
+     * @return The search nodes tried before stopping
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+}
@@ -0,0 +1,556 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * The bitmask state behind a puzzle. Every row, column, box (and diagonal)
+ * keeps a mask of the digits placed in it, and every cell keeps a mask of the
+ * digits that could still go there. Both are updated incrementally whenever a
+ * cell is set, so checking if a digit is legal is a single AND and counting
+ * the options for a cell is a bit count. Masks are longs, so puzzles can have
+ * up to 64 numbers. Candidates can also be taken away by the deductions in
+ * {@link Deductions}; clearing a cell works the candidates out again from the
+ * units, which forgets those eliminations.
+ *
+ * The grid also counts how many cells of each unit could still hold each
+ * digit, and keeps a list of the cells down to one candidate or none and the
+ * units where some digit is down to one place or none. The singles only have
+ * to look at what is on the lists, so the work follows the number of changes
+ * rather than the size of the grid. The lists are not part of a snapshot:
+ * restoring one empties them, since a snapshot is taken once nothing more can
+ * be deduced, and {@link #markAll()} puts everything on them when starting
+ * from scratch.
+ *
+ * The whole state lives in one flat long array: the value of each cell, then
+ * the candidates of each cell, then the mask of each unit, then the counts
+ * for each unit and digit. Taking a snapshot or restoring one is a single
+ * array copy. None of the accessors check their arguments; that is up to
+ * {@link Puzzle}.
+ *
+ * Digit n is stored in bit (n - 1). Cells and units are numbered as in
+ * {@link Geometry}.
+ *
+ * @author tobin
+ */
+final class CandidateGrid
+{
+    private final Geometry geometry;
+    private final boolean diag;
+    private final int cells;
+    /**
+     * Where each part of the state starts
+     */
+    private final int candidates, masks, places;
+    /**
+     * The value in each cell (-1 if it is empty), the digits that can still
+     * go in each cell (none once it is filled), the digits placed in each
+     * unit, and the number of cells each digit could go in for each unit
+     */
+    private final long[] state;
+    /**
+     * The cells and units waiting to be looked at
+     */
+    private final WorkList cellWork, unitWork;
+
+    /**
+     * Makes a new empty grid.
+     *
+     * @param geometry The shape of the puzzle
+     * @param diag If the diagonals are constrained
+     */
+    CandidateGrid(Geometry geometry, boolean diag)
+    {
+        this.geometry = geometry;
+        this.diag = diag;
+        cells = geometry.cells;
+        candidates = cells;
+        masks = 2 * cells;
+        places = masks + geometry.units;
+        state = new long[places + geometry.units * geometry.size];
+        cellWork = new WorkList(cells);
+        unitWork = new WorkList(geometry.units);
+        clear();
+    }
+
+    /**
+     * Makes a grid with the same values as the given one, but with the
+     * diagonals constrained or not.
+     *
+     * @param other The grid to copy the values of
+     * @param diag If the diagonals are constrained
+     */
+    CandidateGrid(CandidateGrid other, boolean diag)
+    {
+        this(other.geometry, diag);
+        for (int cell = 0; cell < cells; cell++)
+        {
+            if (other.get(cell) != -1)
+            {
+                set(cell, other.get(cell));
+            }
+        }
+    }
+
+    /**
+     * Makes an exact copy of the given grid.
+     *
+     * @param other The grid to copy
+     */
+    CandidateGrid(CandidateGrid other)
+    {
+        geometry = other.geometry;
+        diag = other.diag;
+        cells = other.cells;
+        candidates = other.candidates;
+        masks = other.masks;
+        places = other.places;
+        state = other.state.clone();
+        cellWork = new WorkList(other.cellWork);
+        unitWork = new WorkList(other.unitWork);
+    }
+
+    /**
+     * Empties every cell.
+     */
+    void clear()
+    {
+        Arrays.fill(state, 0, candidates, -1);
+        Arrays.fill(state, candidates, masks, geometry.all);
+        Arrays.fill(state, masks, places, 0);
+        Arrays.fill(state, places, state.length, geometry.size);
+        markAll();
+    }
+
+    /**
+     * @return The length of a snapshot of this grid
+     */
+    int stateSize()
+    {
+        return state.length;
+    }
+
+    /**
+     * Copies the state into a snapshot.
+     *
+     * @param snapshot An array of at least {@link #stateSize()} longs
+     */
+    void save(long[] snapshot)
+    {
+        System.arraycopy(state, 0, snapshot, 0, state.length);
+    }
+
+    /**
+     * Puts back a state saved from this grid, or another grid with the same
+     * shape and diagonal setting.
+     *
+     * @param snapshot The saved state
+     */
+    void restore(long[] snapshot)
+    {
+        System.arraycopy(snapshot, 0, state, 0, state.length);
+        clearWork();
+    }
+
+    /**
+     * Puts every cell and unit on the lists to be looked at.
+     */
+    void markAll()
+    {
+        clearWork();
+        for (int cell = 0; cell < cells; cell++)
+        {
+            cellWork.add(cell);
+        }
+        for (int u = 0; u < unitCount(); u++)
+        {
+            unitWork.add(u);
+        }
+    }
+
+    /**
+     * Empties the lists of cells and units to be looked at.
+     */
+    void clearWork()
+    {
+        cellWork.clear();
+        unitWork.clear();
+    }
+
+    /**
+     * @return A cell whose candidates have changed, taking it off the list,
+     * or -1 if there are none
+     */
+    int nextCell()
+    {
+        return cellWork.poll();
+    }
+
+    /**
+     * @return A unit where some cell's candidates have changed, taking it off
+     * the list, or -1 if there are none
+     */
+    int nextUnit()
+    {
+        return unitWork.poll();
+    }
+
+    /**
+     * Takes a cell out of the counts for some digits it could hold. A unit
+     * goes on the list if one of them is down to one place or none.
+     *
+     * @param cell The cell
+     * @param digits The digits it can no longer hold
+     */
+    private void removed(int cell, long digits)
+    {
+        int size = geometry.size;
+        for (int u : unitsOf(cell))
+        {
+            int base = places + u * size;
+            for (long left = digits; left != 0; left &= left - 1)
+            {
+                if (--state[base + Long.numberOfTrailingZeros(left)] <= 1)
+                {
+                    unitWork.add(u);
+                }
+            }
+        }
+    }
+
+    static long bit(int n)
+    {
+        return 1L << (n - 1);
+    }
+
+    static int digit(long bit)
+    {
+        return Long.numberOfTrailingZeros(bit) + 1;
+    }
+
+    Geometry geometry()
+    {
+        return geometry;
+    }
+
+    boolean isDiagonal()
+    {
+        return diag;
+    }
+
+    int get(int cell)
+    {
+        return (int) state[cell];
+    }
+
+    long candidates(int cell)
+    {
+        return state[candidates + cell];
+    }
+
+    int[] unitsOf(int cell)
+    {
+        return geometry.unitsOf(cell, diag);
+    }
+
+    int unitCount()
+    {
+        return geometry.unitCount(diag);
+    }
+
+    /**
+     * @param unit The unit to check
+     * @return The digits placed in the unit
+     */
+    long placed(int unit)
+    {
+        return state[masks + unit];
+    }
+
+    /**
+     * @param unit The unit to check
+     * @param n The digit to look for
+     * @return The number of empty cells in the unit that could hold n
+     */
+    int places(int unit, int n)
+    {
+        return (int) state[places + unit * geometry.size + n - 1];
+    }
+
+    /**
+     * @return If some digit appears twice in a unit
+     */
+    boolean hasConflict()
+    {
+        for (int u = unitCount() - 1; u >= 0; u--)
+        {
+            long seen = 0;
+            for (int cell : geometry.unitCells(u))
+            {
+                int n = (int) state[cell];
+                if (n != -1)
+                {
+                    if ((seen & bit(n)) != 0)
+                    {
+                        return true;
+                    }
+                    seen |= bit(n);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests if the value in a cell is the only copy of that digit in each of
+     * the cell's units. This scans the units, so it is only meant for
+     * reporting a conflict that {@link #hasConflict()} found.
+     *
+     * @param cell The cell to check
+     * @return If the cell is empty or its value is not repeated
+     */
+    boolean isConsistent(int cell)
+    {
+        long n = state[cell];
+        if (n == -1)
+        {
+            return true;
+        }
+        for (int u : unitsOf(cell))
+        {
+            for (int other : geometry.unitCells(u))
+            {
+                if (other != cell && state[other] == n)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the value of a cell, updating the unit masks and the candidates of
+     * every peer.
+     *
+     * @param cell The cell to set
+     * @param n The new value, or -1 to clear the cell
+     */
+    void set(int cell, int n)
+    {
+        int old = (int) state[cell];
+        if (old == n)
+        {
+            return;
+        }
+        state[cell] = n;
+
+        if (old == -1)
+        {
+            // placing into an empty cell can only take candidates away. n
+            // has no more places in the cell's own units, and the cell is no
+            // longer a place for anything else.
+            long bit = bit(n);
+            int at = n - 1, size = geometry.size;
+            removed(cell, state[candidates + cell] & ~bit);
+            state[candidates + cell] = 0;
+            for (int u : unitsOf(cell))
+            {
+                state[masks + u] |= bit;
+                state[places + u * size + at] = 0;
+            }
+
+            // the peers lose n, which only needs counting in the units they
+            // don't share with the cell
+            int[] peers = geometry.peerCells(cell, diag);
+            int[] cross = geometry.crossUnits(cell, diag);
+            int stride = geometry.crossStride;
+            for (int k = 0; k < peers.length; k++)
+            {
+                int p = peers[k];
+                long possible = state[candidates + p];
+                if ((possible & bit) == 0)
+                {
+                    continue;
+                }
+                possible &= ~bit;
+                state[candidates + p] = possible;
+                if ((possible & (possible - 1)) == 0)
+                {
+                    cellWork.add(p);
+                }
+                for (int j = k * stride, end = j + stride; j < end; j++)
+                {
+                    int u = cross[j];
+                    if (u < 0)
+                    {
+                        break;
+                    }
+                    if (--state[places + u * size + at] <= 1)
+                    {
+                        unitWork.add(u);
+                    }
+                }
+            }
+        }
+        else
+        {
+            // a digit was removed, so the units may not have it any more (it
+            // could have been in there twice) and the neighbours may have
+            // gained it back. Anything else that was ruled out may have
+            // depended on it as well, so every cell is worked out again, but
+            // only the cells that changed are counted and listed.
+            for (int u : unitsOf(cell))
+            {
+                long placed = 0;
+                for (int other : geometry.unitCells(u))
+                {
+                    int value = (int) state[other];
+                    if (value != -1)
+                    {
+                        placed |= bit(value);
+                    }
+                }
+                state[masks + u] = placed;
+            }
+            for (int other = 0; other < cells; other++)
+            {
+                long before = state[candidates + other];
+                recompute(other);
+                long after = state[candidates + other];
+                if (after != before)
+                {
+                    removed(other, before & ~after);
+                    added(other, after & ~before);
+                    cellWork.add(other);
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts a cell back in the counts for some digits it can hold again, and
+     * its units on the list.
+     *
+     * @param cell The cell
+     * @param digits The digits it can hold again
+     */
+    private void added(int cell, long digits)
+    {
+        if (digits == 0)
+        {
+            return;
+        }
+        int size = geometry.size;
+        for (int u : unitsOf(cell))
+        {
+            int base = places + u * size;
+            for (long left = digits; left != 0; left &= left - 1)
+            {
+                state[base + Long.numberOfTrailingZeros(left)]++;
+            }
+            unitWork.add(u);
+        }
+    }
+
+    /**
+     * Rules some digits out of an empty cell.
+     *
+     * @param cell The cell
+     * @param digits The digits it can't hold
+     * @return If the cell lost any candidates
+     */
+    boolean eliminate(int cell, long digits)
+    {
+        long possible = state[candidates + cell];
+        if ((possible & digits) == 0)
+        {
+            return false;
+        }
+        long left = possible & ~digits;
+        state[candidates + cell] = left;
+        removed(cell, possible & digits);
+        if ((left & (left - 1)) == 0)
+        {
+            // down to one candidate, or none
+            cellWork.add(cell);
+        }
+        return true;
+    }
+
+    private void recompute(int cell)
+    {
+        if (state[cell] != -1)
+        {
+            state[candidates + cell] = 0;
+            return;
+        }
+        long used = 0;
+        for (int u : unitsOf(cell))
+        {
+            used |= state[masks + u];
+        }
+        state[candidates + cell] = geometry.all & ~used;
+    }
+
+    /**
+     * A first in first out queue of numbers below a fixed limit, where each
+     * number can only be waiting once. Adding one that is already waiting
+     * does nothing, so several changes to the same cell or unit are looked at
+     * together.
+     */
+    private static final class WorkList
+    {
+        private final int[] items;
+        private final boolean[] waiting;
+        private int head, count;
+
+        WorkList(int limit)
+        {
+            items = new int[limit];
+            waiting = new boolean[limit];
+        }
+
+        WorkList(WorkList other)
+        {
+            items = other.items.clone();
+            waiting = other.waiting.clone();
+            head = other.head;
+            count = other.count;
+        }
+
+        void add(int item)
+        {
+            if (!waiting[item])
+            {
+                waiting[item] = true;
+                int at = head + count++;
+                items[at < items.length ? at : at - items.length] = item;
+            }
+        }
+
+        /**
+         * @return The item that has been waiting longest, or -1 if there are
+         * none
+         */
+        int poll()
+        {
+            if (count == 0)
+            {
+                return -1;
+            }
+            int item = items[head];
+            waiting[item] = false;
+            head = head + 1 < items.length ? head + 1 : 0;
+            count--;
+            return item;
+        }
+
+        void clear()
+        {
+            while (count > 0)
+            {
+                poll();
+            }
+        }
+    }
+}
@@ -0,0 +1,638 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * The canonical form of a puzzle. Swapping bands (rows of boxes), swapping
+ * rows inside a band, doing the same to stacks and columns, transposing and
+ * relabelling the numbers all give a puzzle with the same solution moved the
+ * same way. Every puzzle that can be reached from another like that has the
+ * same canonical form, so a solution found for one can be handed out for all
+ * of them.
+ *
+ * The form is found in two steps. First the pattern of given cells is made as
+ * large as possible, read in row major order as bits with the given cells as
+ * ones. The rows are chosen one at a time, branching only when two rows tie,
+ * and the columns are never branched on: they are kept as an ordered
+ * partition that each chosen row refines, givens first, so the best
+ * arrangement of every row is known without trying them all. Then, out of
+ * the arrangements that give the best pattern, the one whose numbers are
+ * smallest when relabelled in order of first appearance is used.
+ *
+ * Puzzles with a lot of symmetry can tie many ways. The search gives up
+ * after {@value #NODE_LIMIT} rows and {@value #LEAF_LIMIT} arrangements, and
+ * then the form is still a correct transform of the puzzle, just not always
+ * the same one for every copy. Diagonal puzzles lose their diagonals under
+ * most of these moves, so only their numbers are relabelled.
+ *
+ * @author tobin
+ */
+final class Canonical
+{
+    private static final int NODE_LIMIT = 4096, LEAF_LIMIT = 256;
+
+    private final int size, boxSize;
+    /**
+     * The value of each cell in row major order, 0 if unknown
+     */
+    private final int[] givens;
+    /**
+     * The given cells of each row, as bits by column, for the puzzle and for
+     * its transpose
+     */
+    private final long[][] patterns;
+
+    /**
+     * The search state at each depth: the columns in their current order,
+     * where each cell of the partition starts, and where each group of
+     * interchangeable stacks starts
+     */
+    private final int[][] orders;
+    private final boolean[][] cuts, stackCuts;
+    private final int[] rows;
+    /**
+     * How large each row would be at each depth, for both views at the top
+     */
+    private final long[][] scores;
+    private final int[] signatures, ranked, positions;
+    private final int[] moved;
+    private final boolean[] movedCuts;
+    private int view;
+    private long usedRows;
+    /**
+     * The best pattern found so far, one row per entry, and how many of its
+     * rows are still valid
+     */
+    private final long[] best;
+    private int bestLength;
+    private int nodes, leaves;
+    private boolean gaveUp;
+
+    /**
+     * The best arrangement found so far and its relabelled givens
+     */
+    private int bestView;
+    private final int[] bestRows, bestOrder;
+    private int[] bestLabels;
+    private final int[] labels, map;
+
+    /**
+     * For each cell of the canonical form, the cell of the puzzle it came
+     * from, and the number relabelling both ways
+     */
+    private final int[] source;
+    private final int[] toLabel, fromLabel;
+    private final String key;
+
+    /**
+     * Works out the canonical form of a puzzle.
+     *
+     * @param geometry The shape of the puzzle
+     * @param diag If the diagonals are constrained
+     * @param values The value of each cell in row major order, -1 if unknown
+     */
+    Canonical(Geometry geometry, boolean diag, int[] values)
+    {
+        size = geometry.size;
+        boxSize = geometry.boxSize;
+        int n = size;
+        givens = new int[geometry.cells];
+        patterns = new long[2][n];
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            if (values[cell] > 0)
+            {
+                givens[cell] = values[cell];
+                patterns[0][cell / n] |= 1L << (cell % n);
+                patterns[1][cell % n] |= 1L << (cell / n);
+            }
+        }
+
+        orders = new int[n + 1][n];
+        cuts = new boolean[n + 1][n];
+        stackCuts = new boolean[n + 1][boxSize];
+        rows = new int[n];
+        scores = new long[n][2 * n];
+        signatures = new int[boxSize];
+        ranked = new int[boxSize];
+        positions = new int[boxSize];
+        moved = new int[n];
+        movedCuts = new boolean[n];
+        best = new long[n];
+        bestRows = new int[n];
+        bestOrder = new int[n];
+        labels = new int[geometry.cells];
+        map = new int[n + 1];
+        for (int i = 0; i < n; i++)
+        {
+            bestRows[i] = orders[0][i] = i;
+            cuts[0][i] = i % boxSize == 0;
+        }
+        System.arraycopy(orders[0], 0, bestOrder, 0, n);
+        stackCuts[0][0] = true;
+
+        if (!diag)
+        {
+            search(0);
+            if (gaveUp)
+            {
+                // fall back to the puzzle as it is
+                bestView = 0;
+                for (int i = 0; i < n; i++)
+                {
+                    bestRows[i] = bestOrder[i] = i;
+                }
+            }
+        }
+
+        source = new int[geometry.cells];
+        toLabel = new int[n + 1];
+        fromLabel = new int[n + 1];
+        char[] text = new char[geometry.cells + (diag ? 1 : 0)];
+        int next = 1, at = 0;
+        if (diag)
+        {
+            text[at++] = 'd';
+        }
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                int cell = bestView == 0 ? bestRows[i] * n + bestOrder[j]
+                        : bestOrder[j] * n + bestRows[i];
+                source[i * n + j] = cell;
+                int v = givens[cell];
+                if (v != 0 && toLabel[v] == 0)
+                {
+                    toLabel[v] = next++;
+                }
+                text[at++] = Geometry.symbol(v == 0 ? -1 : toLabel[v]);
+            }
+        }
+        // numbers that are never given can go either way
+        for (int v = 1; v <= n; v++)
+        {
+            if (toLabel[v] == 0)
+            {
+                toLabel[v] = next++;
+            }
+            fromLabel[toLabel[v]] = v;
+        }
+        key = new String(text);
+    }
+
+    /**
+     * @return The canonical puzzle as text, the same for every puzzle that
+     * can be moved onto it
+     */
+    String key()
+    {
+        return key;
+    }
+
+    /**
+     * @return The value of each cell of the canonical puzzle in row major
+     * order, 0 if unknown
+     */
+    int[] givens()
+    {
+        int[] moved = new int[source.length];
+        for (int cell = 0; cell < source.length; cell++)
+        {
+            int v = givens[source[cell]];
+            moved[cell] = v == 0 ? 0 : toLabel[v];
+        }
+        return moved;
+    }
+
+    /**
+     * Moves a solution of the puzzle into the canonical form.
+     *
+     * @param solution The value of each cell of the puzzle
+     * @return The value of each cell of the canonical form
+     */
+    int[] toCanonical(int[] solution)
+    {
+        int[] moved = new int[source.length];
+        for (int cell = 0; cell < source.length; cell++)
+        {
+            moved[cell] = toLabel[solution[source[cell]]];
+        }
+        return moved;
+    }
+
+    /**
+     * Moves a solution of the canonical form back onto the puzzle.
+     *
+     * @param solution The value of each cell of the canonical form
+     * @return The value of each cell of the puzzle
+     */
+    int[] fromCanonical(int[] solution)
+    {
+        int[] moved = new int[source.length];
+        for (int cell = 0; cell < source.length; cell++)
+        {
+            moved[source[cell]] = fromLabel[solution[cell]];
+        }
+        return moved;
+    }
+
+    /**
+     * Chooses the row at one depth, trying every row that gives the largest
+     * pattern.
+     *
+     * @param depth The number of rows chosen so far
+     */
+    private void search(int depth)
+    {
+        if (depth == size)
+        {
+            arrange(depth, 0, 0);
+            return;
+        }
+        if (++nodes > NODE_LIMIT)
+        {
+            gaveUp = true;
+            return;
+        }
+
+        // at the start of a band any unused band can come next, otherwise
+        // the rest of the current band
+        int first = 0, last = size;
+        if (depth % boxSize != 0)
+        {
+            first = rows[depth - 1] / boxSize * boxSize;
+            last = first + boxSize;
+        }
+        int views = depth == 0 ? 2 : 1;
+        long most = 0;
+        boolean any = false;
+        long[] values = scores[depth];
+        for (int v = 0; v < views; v++)
+        {
+            int t = depth == 0 ? v : view;
+            for (int row = first; row < last; row++)
+            {
+                if ((usedRows & 1L << row) != 0)
+                {
+                    continue;
+                }
+                long value = score(depth, patterns[t][row]);
+                values[v * size + row] = value;
+                if (!any || above(value, most))
+                {
+                    most = value;
+                    any = true;
+                }
+            }
+        }
+
+        if (depth < bestLength)
+        {
+            if (above(best[depth], most))
+            {
+                return;
+            }
+            if (above(most, best[depth]))
+            {
+                best[depth] = most;
+                bestLength = depth + 1;
+                bestLabels = null;
+                leaves = 0;
+            }
+        }
+        else
+        {
+            best[depth] = most;
+            bestLength = depth + 1;
+        }
+
+        for (int v = 0; v < views; v++)
+        {
+            if (depth == 0)
+            {
+                view = v;
+            }
+            for (int row = first; row < last; row++)
+            {
+                if ((usedRows & 1L << row) != 0
+                        || values[v * size + row] != most)
+                {
+                    continue;
+                }
+                refine(depth, patterns[view][row]);
+                rows[depth] = row;
+                usedRows |= 1L << row;
+                search(depth + 1);
+                usedRows &= ~(1L << row);
+                if (gaveUp)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out how large a row would be if it were chosen next, without
+     * refining the partition.
+     *
+     * @param depth The number of rows chosen so far
+     * @param row The given cells of the row, as bits by column
+     * @return The row as bits, the first column highest
+     */
+    private long score(int depth, long row)
+    {
+        int b = boxSize;
+        int[] order = orders[depth];
+        boolean[] cut = cuts[depth], stackCut = stackCuts[depth];
+        long value = 0;
+        for (int s = 0; s < b;)
+        {
+            int e = s + 1;
+            while (e < b && !stackCut[e])
+            {
+                e++;
+            }
+            for (int t = s; t < e; t++)
+            {
+                // every cell puts its givens first
+                int signature = 0, end = (t + 1) * b;
+                for (int j = t * b; j < end;)
+                {
+                    int k = j, ones = 0;
+                    do
+                    {
+                        ones += (int) (row >>> order[k++] & 1);
+                    }
+                    while (k < end && !cut[k]);
+                    int length = k - j;
+                    signature = signature << length
+                            | ((1 << ones) - 1) << (length - ones);
+                    j = k;
+                }
+                // and the group puts its largest stacks first
+                int at = t;
+                while (at > s && ranked[at - 1] < signature)
+                {
+                    ranked[at] = ranked[at - 1];
+                    at--;
+                }
+                ranked[at] = signature;
+            }
+            for (int t = s; t < e; t++)
+            {
+                value = value << b | ranked[t];
+            }
+            s = e;
+        }
+        return value;
+    }
+
+    /**
+     * Copies the column partition at one depth to the next and refines it by
+     * a row, so the row is as large as it can be.
+     *
+     * @param depth The depth to start from
+     * @param row The given cells of the row, as bits by column
+     * @return The row as bits, the first column highest
+     */
+    private long refine(int depth, long row)
+    {
+        int n = size, b = boxSize;
+        int[] order = orders[depth + 1];
+        boolean[] cut = cuts[depth + 1], stackCut = stackCuts[depth + 1];
+        System.arraycopy(orders[depth], 0, order, 0, n);
+        System.arraycopy(cuts[depth], 0, cut, 0, n);
+        System.arraycopy(stackCuts[depth], 0, stackCut, 0, b);
+
+        // split every cell of columns, givens first
+        for (int s = 0; s < b; s++)
+        {
+            int end = (s + 1) * b;
+            for (int j = s * b; j < end;)
+            {
+                int k = j + 1;
+                while (k < end && !cut[k])
+                {
+                    k++;
+                }
+                int ones = 0;
+                for (int c = j; c < k; c++)
+                {
+                    if ((row >>> order[c] & 1) != 0)
+                    {
+                        moved[j + ones++] = order[c];
+                    }
+                }
+                for (int c = j, zeros = ones; c < k; c++)
+                {
+                    if ((row >>> order[c] & 1) == 0)
+                    {
+                        moved[j + zeros++] = order[c];
+                    }
+                }
+                System.arraycopy(moved, j, order, j, k - j);
+                if (ones > 0 && ones < k - j)
+                {
+                    cut[j + ones] = true;
+                }
+                j = k;
+            }
+            int signature = 0;
+            for (int c = s * b; c < end; c++)
+            {
+                signature = signature << 1 | (int) (row >>> order[c] & 1);
+            }
+            signatures[s] = signature;
+        }
+
+        // sort the stacks inside each group, largest first
+        for (int s = 0; s < b;)
+        {
+            int e = s + 1;
+            while (e < b && !stackCut[e])
+            {
+                e++;
+            }
+            if (e - s > 1)
+            {
+                sortStacks(order, cut, stackCut, s, e);
+            }
+            s = e;
+        }
+
+        long value = 0;
+        for (int s = 0; s < b; s++)
+        {
+            value = value << b | signatures[s];
+        }
+        return value;
+    }
+
+    /**
+     * Sorts a group of interchangeable stacks by their signatures, largest
+     * first, and splits the group where the signatures differ.
+     */
+    private void sortStacks(int[] order, boolean[] cut, boolean[] stackCut,
+            int first, int end)
+    {
+        int b = boxSize;
+        System.arraycopy(order, first * b, moved, first * b, (end - first) * b);
+        System.arraycopy(cut, first * b, movedCuts, first * b,
+                (end - first) * b);
+        // a stable insertion sort of the stack positions
+        int count = end - first;
+        int[] position = positions;
+        for (int i = 0; i < count; i++)
+        {
+            int s = first + i, at = i;
+            while (at > 0 && signatures[position[at - 1]] < signatures[s])
+            {
+                position[at] = position[at - 1];
+                at--;
+            }
+            position[at] = s;
+        }
+        int[] sorted = ranked;
+        for (int i = 0; i < count; i++)
+        {
+            int from = position[i], to = first + i;
+            System.arraycopy(moved, from * b, order, to * b, b);
+            System.arraycopy(movedCuts, from * b, cut, to * b, b);
+            sorted[i] = signatures[from];
+        }
+        for (int i = 0; i < count; i++)
+        {
+            signatures[first + i] = sorted[i];
+            if (i > 0 && sorted[i] != sorted[i - 1])
+            {
+                stackCut[first + i] = true;
+            }
+        }
+    }
+
+    /**
+     * Tries every arrangement of the columns the partition still allows,
+     * interchangeable stacks first and then interchangeable columns.
+     *
+     * @param depth The depth holding the finished partition
+     * @param at The stack or column position to arrange next
+     * @param stage 0 while arranging stacks, 1 while arranging columns
+     */
+    private void arrange(int depth, int at, int stage)
+    {
+        int[] order = orders[depth];
+        int width = stage == 0 ? boxSize : 1;
+        int count = stage == 0 ? boxSize : size;
+        boolean[] starts = stage == 0 ? stackCuts[depth] : cuts[depth];
+        if (at == count)
+        {
+            if (stage == 0)
+            {
+                arrange(depth, 0, 1);
+            }
+            else if (leaves++ < LEAF_LIMIT)
+            {
+                relabel(order);
+            }
+            return;
+        }
+
+        int end = at + 1;
+        while (end < count && !starts[end])
+        {
+            end++;
+        }
+        if (end - at == 1)
+        {
+            arrange(depth, end, stage);
+            return;
+        }
+        permute(depth, at, end, at, width, stage);
+    }
+
+    private void permute(int depth, int first, int end, int k, int width,
+            int stage)
+    {
+        if (k == end - 1)
+        {
+            arrange(depth, end, stage);
+            return;
+        }
+        int[] order = orders[depth];
+        for (int i = k; i < end; i++)
+        {
+            swap(order, k * width, i * width, width);
+            permute(depth, first, end, k + 1, width, stage);
+            swap(order, k * width, i * width, width);
+        }
+    }
+
+    private static void swap(int[] order, int a, int b, int width)
+    {
+        for (int i = 0; i < width && a != b; i++)
+        {
+            int t = order[a + i];
+            order[a + i] = order[b + i];
+            order[b + i] = t;
+        }
+    }
+
+    /**
+     * Relabels the givens of one full arrangement in order of first
+     * appearance, and keeps the arrangement if they are the smallest yet.
+     *
+     * @param order The columns in order
+     */
+    private void relabel(int[] order)
+    {
+        int n = size;
+        Arrays.fill(map, 0);
+        int next = 1, k = 0;
+        boolean better = bestLabels == null;
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                int v = givens[view == 0 ? rows[i] * n + order[j]
+                        : order[j] * n + rows[i]];
+                if (v == 0)
+                {
+                    continue;
+                }
+                if (map[v] == 0)
+                {
+                    map[v] = next++;
+                }
+                int label = map[v];
+                if (!better)
+                {
+                    if (label > bestLabels[k])
+                    {
+                        return;
+                    }
+                    better = label < bestLabels[k];
+                }
+                labels[k++] = label;
+            }
+        }
+        if (!better)
+        {
+            return;
+        }
+        bestLabels = Arrays.copyOf(labels, k);
+        bestView = view;
+        System.arraycopy(rows, 0, bestRows, 0, n);
+        System.arraycopy(order, 0, bestOrder, 0, n);
+    }
+
+    /**
+     * Compares two rows as unsigned bits, since a 64 column row uses the sign
+     * bit.
+     */
+    private static boolean above(long a, long b)
+    {
+        return (a ^ Long.MIN_VALUE) > (b ^ Long.MIN_VALUE);
+    }
+}
@@ -0,0 +1,321 @@
+package main;
+
+/**
+ * Solves a puzzle as an exact cover problem using Knuth's Algorithm X with
+ * dancing links. Every (cell, number) pair is a row of the matrix, and there
+ * is a column for each cell and for each number in each unit, so the
+ * diagonals just add columns.
+ *
+ * The links are kept in flat int arrays rather than node objects. The matrix
+ * is built once and every solve puts it back the way it found it, so an
+ * instance can be reused for any number of puzzles with the same shape and
+ * diagonal setting.
+ *
+ * @author tobin
+ */
+final class DancingLinks
+{
+    private static final int ROOT = 0;
+
+    private final Geometry geometry;
+    private final boolean diag;
+    /**
+     * Links between nodes. Index 0 is the root, the column headers come next,
+     * and then the nodes of each matrix row.
+     */
+    private final int[] left, right, up, down;
+    /**
+     * The column header of each node
+     */
+    private final int[] column;
+    /**
+     * The matrix row of each node
+     */
+    private final int[] row;
+    /**
+     * The number of nodes left in each column, indexed by header
+     */
+    private final int[] size;
+    /**
+     * The first node of each matrix row
+     */
+    private final int[] rowStart;
+    /**
+     * The rows picked so far, givens first
+     */
+    private final int[] picked;
+    private long nodes, backtracks;
+    /**
+     * The limits on the solve going on, or null, and if they ran out
+     */
+    private Budget budget;
+    private boolean stopped;
+
+    /**
+     * Builds the exact cover matrix for a puzzle.
+     *
+     * @param geometry The shape of the puzzle
+     * @param diag If the diagonals are constrained
+     */
+    DancingLinks(Geometry geometry, boolean diag)
+    {
+        this.geometry = geometry;
+        this.diag = diag;
+        int n = geometry.size, cells = geometry.cells;
+        int columns = cells + geometry.unitCount(diag) * n;
+        int rows = cells * n;
+
+        int nodeCount = 1 + columns;
+        for (int cell = 0; cell < cells; cell++)
+        {
+            nodeCount += n * (1 + geometry.unitsOf(cell, diag).length);
+        }
+        picked = new int[cells];
+
+        left = new int[nodeCount];
+        right = new int[nodeCount];
+        up = new int[nodeCount];
+        down = new int[nodeCount];
+        column = new int[nodeCount];
+        row = new int[nodeCount];
+        size = new int[1 + columns];
+        rowStart = new int[rows];
+
+        // the headers are a circular list starting at the root
+        for (int h = 0; h <= columns; h++)
+        {
+            left[h] = h == 0 ? columns : h - 1;
+            right[h] = h == columns ? 0 : h + 1;
+            up[h] = down[h] = column[h] = h;
+        }
+
+        int node = 1 + columns;
+        for (int cell = 0; cell < cells; cell++)
+        {
+            int[] cellUnits = geometry.unitsOf(cell, diag);
+            for (int d = 0; d < n; d++)
+            {
+                int r = cell * n + d;
+                int first = node;
+                rowStart[r] = first;
+
+                link(node++, r, 1 + cell, first);
+                for (int u : cellUnits)
+                {
+                    link(node++, r, 1 + cells + u * n + d, first);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a node to the bottom of a column and the end of a row.
+     *
+     * @param node The node to add
+     * @param r The matrix row it is in
+     * @param header The column it is in
+     * @param first The first node of the row
+     */
+    private void link(int node, int r, int header, int first)
+    {
+        row[node] = r;
+        column[node] = header;
+
+        up[node] = up[header];
+        down[node] = header;
+        down[up[header]] = node;
+        up[header] = node;
+        size[header]++;
+
+        left[node] = node == first ? node : left[first];
+        right[node] = first;
+        right[left[node]] = node;
+        left[first] = node;
+    }
+
+    Geometry geometry()
+    {
+        return geometry;
+    }
+
+    boolean isDiagonal()
+    {
+        return diag;
+    }
+
+    /**
+     * @return The number of rows tried by the last solve
+     */
+    long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * @return The number of rows the last solve had to take back
+     */
+    long getBacktracks()
+    {
+        return backtracks;
+    }
+
+    /**
+     * @return If the last solve ran out of budget
+     */
+    boolean wasStopped()
+    {
+        return stopped;
+    }
+
+    /**
+     * Fills in the grid. The grid must not already contain conflicting values.
+     *
+     * @param grid The grid to solve
+     * @param budget The limits on the solve, or null for none. If they run out
+     * the search unwinds and returns false.
+     * @return If a solution was found. If not the grid is left unchanged.
+     */
+    boolean solve(CandidateGrid grid, Budget budget)
+    {
+        nodes = backtracks = 0;
+        this.budget = budget;
+        stopped = false;
+        int n = geometry.size;
+
+        // take the givens out of the matrix
+        int givens = 0;
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            int value = grid.get(cell);
+            if (value != -1)
+            {
+                int r = cell * n + value - 1;
+                select(rowStart[r]);
+                picked[givens++] = r;
+            }
+        }
+
+        boolean found = search(givens);
+        this.budget = null;
+        if (found)
+        {
+            for (int i = givens; i < geometry.cells; i++)
+            {
+                grid.set(picked[i] / n, picked[i] % n + 1);
+            }
+        }
+
+        // put the givens back so the matrix can be used again
+        for (int i = givens - 1; i >= 0; i--)
+        {
+            deselect(rowStart[picked[i]]);
+        }
+        return found;
+    }
+
+    /**
+     * Picks rows until every column is covered.
+     *
+     * @param depth The number of rows already picked
+     * @return If the matrix could be covered. Either way everything covered
+     * here is uncovered before returning.
+     */
+    private boolean search(int depth)
+    {
+        if (right[ROOT] == ROOT)
+        {
+            return true;
+        }
+
+        // the column with the fewest options
+        int c = right[ROOT];
+        for (int h = right[c]; h != ROOT && size[c] > 1; h = right[h])
+        {
+            if (size[h] < size[c])
+            {
+                c = h;
+            }
+        }
+        if (size[c] == 0)
+        {
+            return false;
+        }
+
+        boolean found = false;
+        cover(c);
+        for (int r = down[c]; r != c && !found && !stopped; r = down[r])
+        {
+            nodes++;
+            if (budget != null && budget.exceeded(nodes))
+            {
+                // uncover on the way out so the matrix can be used again
+                stopped = true;
+                break;
+            }
+            picked[depth] = row[r];
+            for (int j = right[r]; j != r; j = right[j])
+            {
+                cover(column[j]);
+            }
+            found = search(depth + 1);
+            for (int j = left[r]; j != r; j = left[j])
+            {
+                uncover(column[j]);
+            }
+            if (!found)
+            {
+                backtracks++;
+            }
+        }
+        uncover(c);
+        return found;
+    }
+
+    private void select(int node)
+    {
+        cover(column[node]);
+        for (int j = right[node]; j != node; j = right[j])
+        {
+            cover(column[j]);
+        }
+    }
+
+    private void deselect(int node)
+    {
+        for (int j = left[node]; j != node; j = left[j])
+        {
+            uncover(column[j]);
+        }
+        uncover(column[node]);
+    }
+
+    private void cover(int c)
+    {
+        right[left[c]] = right[c];
+        left[right[c]] = left[c];
+        for (int i = down[c]; i != c; i = down[i])
+        {
+            for (int j = right[i]; j != i; j = right[j])
+            {
+                down[up[j]] = down[j];
+                up[down[j]] = up[j];
+                size[column[j]]--;
+            }
+        }
+    }
+
+    private void uncover(int c)
+    {
+        for (int i = up[c]; i != c; i = up[i])
+        {
+            for (int j = left[i]; j != i; j = left[j])
+            {
+                size[column[j]]++;
+                down[up[j]] = j;
+                up[down[j]] = j;
+            }
+        }
+        right[left[c]] = c;
+        left[right[c]] = c;
+    }
+}
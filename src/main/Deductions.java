@@ -0,0 +1,393 @@
+package main;
+
+/**
+ * The deductions past singles, run on a candidate grid. Each one scans the
+ * whole grid, takes away every candidate it can, and reports how many times
+ * it found something to take away. They never place a number themselves;
+ * that is left to the singles.
+ *
+ * An instance keeps scratch space for one puzzle shape, so it should not be
+ * shared between threads.
+ *
+ * @author tobin
+ */
+final class Deductions
+{
+    private final Geometry geometry;
+    /**
+     * The masks that could form a pattern, and the cell, number or line each
+     * one came from
+     */
+    private final long[] masks;
+    private final int[] ids;
+    /**
+     * The combination of masks being tried, and how many are in it
+     */
+    private final int[] pick = new int[3];
+    private int picked;
+
+    Deductions(Geometry geometry)
+    {
+        this.geometry = geometry;
+        masks = new long[geometry.size];
+        ids = new int[geometry.size];
+    }
+
+    /**
+     * Runs a technique over the whole grid.
+     *
+     * @param technique The technique to run
+     * @param grid The grid to take candidates out of
+     * @return The number of patterns that took a candidate away
+     */
+    int apply(Technique technique, CandidateGrid grid)
+    {
+        switch (technique)
+        {
+            case NAKED_PAIRS:
+                return naked(grid, 2);
+            case HIDDEN_PAIRS:
+                return hidden(grid, 2);
+            case POINTING:
+                return intersections(grid, true);
+            case BOX_LINE:
+                return intersections(grid, false);
+            case NAKED_TRIPLES:
+                return naked(grid, 3);
+            case HIDDEN_TRIPLES:
+                return hidden(grid, 3);
+            case X_WING:
+                return fish(grid, 2);
+            case SWORDFISH:
+                return fish(grid, 3);
+            default:
+                throw new IllegalArgumentException(
+                        "Unrecognized technique: " + technique);
+        }
+    }
+
+    /**
+     * Finds k cells in a unit that can only hold k numbers between them, and
+     * takes those numbers out of the rest of the unit.
+     */
+    private int naked(CandidateGrid grid, int k)
+    {
+        int fired = 0;
+        for (int unit = 0; unit < grid.unitCount(); unit++)
+        {
+            int[] cells = geometry.unitCells(unit);
+            int count = 0;
+            for (int i = 0; i < cells.length; i++)
+            {
+                long possible = grid.candidates(cells[i]);
+                int options = Long.bitCount(possible);
+                if (options >= 2 && options <= k)
+                {
+                    masks[count] = possible;
+                    ids[count++] = i;
+                }
+            }
+
+            for (boolean more = first(k, count); more; more = next(k, count))
+            {
+                long digits = union();
+                if (Long.bitCount(digits) != k)
+                {
+                    continue;
+                }
+                long chosen = chosen();
+                boolean changed = false;
+                for (int i = 0; i < cells.length; i++)
+                {
+                    if ((chosen & (1L << i)) == 0)
+                    {
+                        changed |= grid.eliminate(cells[i], digits);
+                    }
+                }
+                if (changed)
+                {
+                    fired++;
+                }
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Finds k numbers that can only go in k cells of a unit between them, and
+     * takes everything else out of those cells.
+     */
+    private int hidden(CandidateGrid grid, int k)
+    {
+        int fired = 0;
+        for (int unit = 0; unit < grid.unitCount(); unit++)
+        {
+            int[] cells = geometry.unitCells(unit);
+            int count = 0;
+            long missing = geometry.all & ~grid.placed(unit);
+            while (missing != 0)
+            {
+                long bit = missing & -missing;
+                missing &= missing - 1;
+
+                long where = 0;
+                for (int i = 0; i < cells.length; i++)
+                {
+                    if ((grid.candidates(cells[i]) & bit) != 0)
+                    {
+                        where |= 1L << i;
+                    }
+                }
+                int places = Long.bitCount(where);
+                if (places >= 2 && places <= k)
+                {
+                    masks[count] = where;
+                    ids[count++] = CandidateGrid.digit(bit);
+                }
+            }
+
+            for (boolean more = first(k, count); more; more = next(k, count))
+            {
+                long where = union();
+                if (Long.bitCount(where) != k)
+                {
+                    continue;
+                }
+                long digits = 0;
+                for (int i = 0; i < k; i++)
+                {
+                    digits |= CandidateGrid.bit(ids[pick[i]]);
+                }
+                boolean changed = false;
+                for (int i = 0; i < cells.length; i++)
+                {
+                    if ((where & (1L << i)) != 0)
+                    {
+                        changed |= grid.eliminate(cells[i], ~digits);
+                    }
+                }
+                if (changed)
+                {
+                    fired++;
+                }
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Looks at where each box crosses a row or column. Pointing takes a
+     * number out of the rest of the line if in the box it can only go in the
+     * crossing, and box line reduction takes it out of the rest of the box if
+     * in the line it can only go in the crossing.
+     */
+    private int intersections(CandidateGrid grid, boolean pointing)
+    {
+        int fired = 0, size = geometry.size, b = geometry.boxSize;
+        for (int box = 0; box < size; box++)
+        {
+            int boxUnit = geometry.boxUnits + box;
+            int top = (box / b) * b, left = (box % b) * b;
+            for (int i = 0; i < 2 * b; i++)
+            {
+                int line = i < b ? geometry.rowUnits + top + i
+                        : geometry.colUnits + left + i - b;
+
+                long crossing = 0, boxOnly = 0, lineOnly = 0;
+                for (int cell : geometry.unitCells(boxUnit))
+                {
+                    if (inUnit(cell, line))
+                    {
+                        crossing |= grid.candidates(cell);
+                    }
+                    else
+                    {
+                        boxOnly |= grid.candidates(cell);
+                    }
+                }
+                for (int cell : geometry.unitCells(line))
+                {
+                    if (!inUnit(cell, boxUnit))
+                    {
+                        lineOnly |= grid.candidates(cell);
+                    }
+                }
+
+                long digits = crossing & ~(pointing ? boxOnly : lineOnly);
+                if (digits == 0)
+                {
+                    continue;
+                }
+                int from = pointing ? line : boxUnit;
+                int other = pointing ? boxUnit : line;
+                boolean changed = false;
+                for (int cell : geometry.unitCells(from))
+                {
+                    if (!inUnit(cell, other))
+                    {
+                        changed |= grid.eliminate(cell, digits);
+                    }
+                }
+                if (changed)
+                {
+                    fired++;
+                }
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Finds k rows where a number can only go in the same k columns between
+     * them, and takes it out of the rest of those columns. Then does the same
+     * with the rows and columns swapped.
+     */
+    private int fish(CandidateGrid grid, int k)
+    {
+        int fired = 0, size = geometry.size;
+        for (int n = 1; n <= size; n++)
+        {
+            long bit = CandidateGrid.bit(n);
+            for (int across = 0; across < 2; across++)
+            {
+                int lines = across == 0 ? geometry.rowUnits : geometry.colUnits;
+                int crosses = across == 0 ? geometry.colUnits
+                        : geometry.rowUnits;
+
+                int count = 0;
+                for (int i = 0; i < size; i++)
+                {
+                    if ((grid.placed(lines + i) & bit) != 0)
+                    {
+                        continue;
+                    }
+                    int[] cells = geometry.unitCells(lines + i);
+                    long where = 0;
+                    for (int j = 0; j < size; j++)
+                    {
+                        if ((grid.candidates(cells[j]) & bit) != 0)
+                        {
+                            where |= 1L << j;
+                        }
+                    }
+                    int places = Long.bitCount(where);
+                    if (places >= 2 && places <= k)
+                    {
+                        masks[count] = where;
+                        ids[count++] = i;
+                    }
+                }
+
+                for (boolean more = first(k, count); more;
+                        more = next(k, count))
+                {
+                    long where = union();
+                    if (Long.bitCount(where) != k)
+                    {
+                        continue;
+                    }
+                    long chosen = chosen();
+                    boolean changed = false;
+                    for (int j = 0; j < size; j++)
+                    {
+                        if ((where & (1L << j)) == 0)
+                        {
+                            continue;
+                        }
+                        // the j'th cell of line i is the i'th of cross j
+                        int[] cells = geometry.unitCells(crosses + j);
+                        for (int i = 0; i < size; i++)
+                        {
+                            if ((chosen & (1L << i)) == 0)
+                            {
+                                changed |= grid.eliminate(cells[i], bit);
+                            }
+                        }
+                    }
+                    if (changed)
+                    {
+                        fired++;
+                    }
+                }
+            }
+        }
+        return fired;
+    }
+
+    private boolean inUnit(int cell, int unit)
+    {
+        for (int u : geometry.unitsOf(cell, false))
+        {
+            if (u == unit)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts going through the combinations of k of the first count masks.
+     *
+     * @return If there are any
+     */
+    private boolean first(int k, int count)
+    {
+        picked = k;
+        for (int i = 0; i < k; i++)
+        {
+            pick[i] = i;
+        }
+        return count >= k;
+    }
+
+    /**
+     * Moves on to the next combination.
+     *
+     * @return If there was one
+     */
+    private boolean next(int k, int count)
+    {
+        int i = k - 1;
+        while (i >= 0 && pick[i] == count - k + i)
+        {
+            i--;
+        }
+        if (i < 0)
+        {
+            return false;
+        }
+        pick[i]++;
+        for (int j = i + 1; j < k; j++)
+        {
+            pick[j] = pick[j - 1] + 1;
+        }
+        return true;
+    }
+
+    /**
+     * @return The masks in the current combination put together
+     */
+    private long union()
+    {
+        long union = 0;
+        for (int i = 0; i < picked; i++)
+        {
+            union |= masks[pick[i]];
+        }
+        return union;
+    }
+
+    /**
+     * @return The ids in the current combination as a set of bits
+     */
+    private long chosen()
+    {
+        long chosen = 0;
+        for (int i = 0; i < picked; i++)
+        {
+            chosen |= 1L << ids[pick[i]];
+        }
+        return chosen;
+    }
+}
@@ -0,0 +1,54 @@
+package main;
+
+/**
+ * How hard a puzzle is, going by what the solver needed to prove it has one
+ * solution.
+ *
+ * @author tobin
+ */
+public enum Difficulty
+{
+    /**
+     * Every cell can be found by looking for the one place a number can go.
+     */
+    EASY,
+    /**
+     * Needs cells that can only hold one number as well.
+     */
+    MEDIUM,
+    /**
+     * Needs a single guess at a time.
+     */
+    HARD,
+    /**
+     * Needs guesses on top of guesses.
+     */
+    FIENDISH;
+
+    /**
+     * Rates a puzzle by what proving it has one solution needs. The
+     * solutions are counted to find out, and the puzzle is left as it was.
+     *
+     * @param puzzle The puzzle to rate
+     * @throws IllegalArgumentException if the puzzle does not have exactly
+     * one solution
+     * @return How hard the puzzle is
+     */
+    static Difficulty rate(Puzzle puzzle)
+    {
+        if (puzzle.countSolutions(2) != 1)
+        {
+            throw new IllegalArgumentException(
+                    "Only a puzzle with one solution can be rated");
+        }
+        if (puzzle.getDepth() > 1)
+        {
+            return FIENDISH;
+        }
+        if (puzzle.getDepth() == 1)
+        {
+            return HARD;
+        }
+        return puzzle.getNakedSingles() > 0 ? MEDIUM : EASY;
+    }
+}
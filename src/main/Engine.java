@@ -0,0 +1,36 @@
+package main;
+
+/**
+ * The ways a puzzle can be solved. Every engine gives the same answer, they
+ * just get there differently.
+ *
+ * @author tobin
+ */
+public enum Engine
+{
+    /**
+     * Fills in singles on the candidate grid, then searches whatever is left.
+     * This is what {@link Puzzle#solve()} uses.
+     */
+    PROPAGATION,
+    /**
+     * Treats the puzzle as an exact cover problem and solves it with dancing
+     * links. Slower on easy puzzles, but much steadier on nasty ones.
+     */
+    DANCING_LINKS,
+    /**
+     * Keeps a bitboard of cells per number and fills in singles across the
+     * whole grid with a few long operations, then searches. Like dancing
+     * links it always searches and skips the deductions past singles.
+     */
+    BIT_PARALLEL,
+    /**
+     * The same deductions and search as propagation, but a puzzle that takes
+     * more than about a thousand guesses has its search tree split into
+     * subtrees that are searched on several threads at once. Easy puzzles
+     * never leave the calling thread. A node limit in a {@link Budget}
+     * applies to each subtree on its own, so the threads don't have to share
+     * a counter.
+     */
+    PARALLEL
+}
@@ -0,0 +1,211 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Makes new puzzles with exactly one solution. A random full grid is made by
+ * solving an empty puzzle with the guesses in a random order, then clues are
+ * taken away in a random order as long as the puzzle still has one solution
+ * and is no harder than asked for. The result is rated by what the solver
+ * needed to prove its solution is unique; see {@link Difficulty}.
+ *
+ * Each puzzle is numbered, and the n'th puzzle only depends on the seed, its
+ * number and the settings. Generating in parallel gives exactly the same
+ * puzzles as generating on one thread.
+ *
+ * @author tobin
+ */
+public class Generator
+{
+    /**
+     * How many grids to try for each puzzle before giving up on the target
+     * difficulty
+     */
+    private static final int ATTEMPTS = 1000;
+
+    private final long seed;
+    private final int boxSize;
+    private final boolean diag;
+    private final int threads;
+    /**
+     * The puzzle each thread works in
+     */
+    private final ThreadLocal<Puzzle> puzzles = new ThreadLocal<Puzzle>()
+    {
+        @Override
+        protected Puzzle initialValue()
+        {
+            return new Puzzle(boxSize, diag);
+        }
+    };
+
+    /**
+     * Makes a generator for normal puzzles that runs on one thread.
+     *
+     * @param seed Where the randomness comes from
+     */
+    public Generator(long seed)
+    {
+        this(seed, Puzzle.DEFAULT_BOX_SIZE, false, 1);
+    }
+
+    /**
+     * @param seed Where the randomness comes from
+     * @param boxSize The box size of the puzzles, 3 for normal puzzles
+     * @param diag If the puzzles have diagonal constraints
+     * @param threads The number of threads to generate on
+     */
+    public Generator(long seed, int boxSize, boolean diag, int threads)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Need at least one thread: " + threads);
+        }
+        Geometry.of(boxSize);
+        this.seed = seed;
+        this.boxSize = boxSize;
+        this.diag = diag;
+        this.threads = threads;
+    }
+
+    /**
+     * Makes one puzzle.
+     *
+     * @param index The number of the puzzle
+     * @param target How hard the puzzle should be, or null for any difficulty
+     * @throws IllegalStateException if no puzzle of the target difficulty
+     * turned up
+     * @return A puzzle with exactly one solution
+     */
+    public Puzzle generate(long index, Difficulty target)
+    {
+        Random random = new Random(seed + index * 0x9E3779B97F4A7C15L);
+        Puzzle puzzle = puzzles.get();
+        int cells = puzzle.getCells();
+        int[] order = new int[cells];
+
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++)
+        {
+            // a random full grid
+            puzzle.clear();
+            puzzle.setRandom(random);
+            try
+            {
+                puzzle.solve();
+            }
+            finally
+            {
+                puzzle.setRandom(null);
+            }
+
+            // take away whatever clues aren't needed
+            int[] solution = new int[cells];
+            for (int cell = 0; cell < cells; cell++)
+            {
+                solution[cell] = puzzle.getCell(cell);
+            }
+            for (int i = 0; i < cells; i++)
+            {
+                int j = random.nextInt(i + 1);
+                order[i] = order[j];
+                order[j] = i;
+            }
+            for (int cell : order)
+            {
+                int n = puzzle.getCell(cell);
+                puzzle.setCell(cell, -1);
+                // the puzzle has a solution with n here, so it can only be
+                // rated if it has no other
+                if (puzzle.hasSolutionWithout(cell, n, solution)
+                        || (target != null
+                        && Difficulty.rate(puzzle).compareTo(target) > 0))
+                {
+                    puzzle.setCell(cell, n);
+                }
+            }
+
+            if (target == null || Difficulty.rate(puzzle) == target)
+            {
+                return puzzle.deepCopy();
+            }
+        }
+        throw new IllegalStateException("No " + target + " puzzle in "
+                + ATTEMPTS + " tries");
+    }
+
+    /**
+     * Makes a run of puzzles, on several threads if this generator has them.
+     *
+     * @param first The number of the first puzzle
+     * @param count How many puzzles to make
+     * @param target How hard the puzzles should be, or null for any difficulty
+     * @throws IllegalStateException if no puzzle of the target difficulty
+     * turned up for one of the numbers
+     * @return The puzzles, in order
+     */
+    public List<Puzzle> generate(long first, int count, final Difficulty target)
+    {
+        List<Puzzle> made = new ArrayList<>(count);
+        if (threads == 1)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                made.add(generate(first + i, target));
+            }
+            return made;
+        }
+
+        List<Callable<Puzzle>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            final long index = first + i;
+            tasks.add(new Callable<Puzzle>()
+            {
+                @Override
+                public Puzzle call()
+                {
+                    return generate(index, target);
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            for (Future<Puzzle> future : pool.invokeAll(tasks))
+            {
+                made.add(future.get());
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating");
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        return made;
+    }
+}
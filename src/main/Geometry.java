@@ -0,0 +1,341 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * The shape of a puzzle with a given box size: how many cells there are,
+ * which cells make up each row, column, box and diagonal, and which cells
+ * are the peers of each cell. A puzzle with boxes of size b has b * b rows
+ * and columns, and the numbers 1 to b * b.
+ *
+ * Everything is worked out once per box size and shared. Cells are numbered
+ * in row major order from 0, so (row, col) is cell (row - 1) * size +
+ * (col - 1). Units are numbered with the rows first, then the columns, then
+ * the boxes in reading order, then the forward and backward diagonals.
+ *
+ * @author tobin
+ */
+final class Geometry
+{
+    /**
+     * The box sizes that are supported. Numbers are written as one character
+     * each, 1 to 9 and then A to Z, so there can be at most 35 of them.
+     */
+    static final int MIN_BOX = 2, MAX_BOX = 5;
+
+    private static final Geometry[] CACHE = new Geometry[MAX_BOX + 1];
+
+    /**
+     * @param boxSize The size of the boxes
+     * @throws IllegalArgumentException if the box size is not supported
+     * @return The shape of puzzles with that box size
+     */
+    static synchronized Geometry of(int boxSize)
+    {
+        if (boxSize < MIN_BOX || boxSize > MAX_BOX)
+        {
+            throw new IllegalArgumentException(
+                    "Unsupported box size: " + boxSize);
+        }
+        if (CACHE[boxSize] == null)
+        {
+            CACHE[boxSize] = new Geometry(boxSize);
+        }
+        return CACHE[boxSize];
+    }
+
+    /**
+     * @param size The number of rows in the puzzle
+     * @throws IllegalArgumentException if the size is not a supported square
+     * @return The shape of puzzles with that many rows
+     */
+    static Geometry ofSize(int size)
+    {
+        int boxSize = (int) Math.round(Math.sqrt(size));
+        if (boxSize * boxSize != size)
+        {
+            throw new IllegalArgumentException(
+                    "Puzzle size must be a square: " + size);
+        }
+        return of(boxSize);
+    }
+
+    final int boxSize, size, cells;
+    final int rowUnits, colUnits, boxUnits, fdiagUnit, bdiagUnit, units;
+    /**
+     * Every candidate
+     */
+    final long all;
+
+    private final Position[] positions;
+    private final PositionSet[] unitSets;
+    /**
+     * The units each cell is in, without and with the diagonals
+     */
+    private final int[][] cellUnits, cellUnitsDiag;
+    /**
+     * The cells sharing a unit with each cell, without and with the diagonals
+     */
+    private final PositionSet[] peers, peersDiag;
+    /**
+     * For each cell, the units each of its peers is in that the cell is not,
+     * without and with the diagonals. Peer k's units start at k * stride,
+     * and a short list ends with -1.
+     */
+    private final int[][] crossUnits, crossUnitsDiag;
+    final int crossStride;
+
+    private Geometry(int boxSize)
+    {
+        int n = boxSize * boxSize, b = boxSize;
+        this.boxSize = boxSize;
+        size = n;
+        cells = n * n;
+        rowUnits = 0;
+        colUnits = rowUnits + n;
+        boxUnits = colUnits + n;
+        fdiagUnit = boxUnits + n;
+        bdiagUnit = fdiagUnit + 1;
+        units = bdiagUnit + 1;
+        all = n == Long.SIZE ? -1L : (1L << n) - 1;
+
+        positions = new Position[cells];
+        for (int cell = 0; cell < cells; cell++)
+        {
+            positions[cell] = new Position(cell / n + 1, cell % n + 1);
+        }
+
+        int[][] unitCells = new int[units][n];
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                unitCells[rowUnits + i][j] = i * n + j;
+                unitCells[colUnits + i][j] = j * n + i;
+                // boxes and the cells inside them are both in reading order
+                int row = (i / b) * b + j / b;
+                int col = (i % b) * b + j % b;
+                unitCells[boxUnits + i][j] = row * n + col;
+            }
+            unitCells[fdiagUnit][i] = i * n + i;
+            unitCells[bdiagUnit][i] = i * n + (n - 1 - i);
+        }
+        unitSets = new PositionSet[units];
+        for (int u = 0; u < units; u++)
+        {
+            unitSets[u] = new PositionSet(unitCells[u], positions);
+        }
+
+        cellUnits = new int[cells][];
+        cellUnitsDiag = new int[cells][];
+        for (int cell = 0; cell < cells; cell++)
+        {
+            int row = cell / n, col = cell % n;
+            int[] plain =
+            {
+                rowUnits + row, colUnits + col,
+                boxUnits + (row / b) * b + col / b
+            };
+            cellUnits[cell] = plain;
+
+            int extra = (row == col ? 1 : 0) + (row == n - 1 - col ? 1 : 0);
+            int[] diag = new int[plain.length + extra];
+            System.arraycopy(plain, 0, diag, 0, plain.length);
+            int k = plain.length;
+            if (row == col)
+            {
+                diag[k++] = fdiagUnit;
+            }
+            if (row == n - 1 - col)
+            {
+                diag[k] = bdiagUnit;
+            }
+            cellUnitsDiag[cell] = diag;
+        }
+
+        peers = new PositionSet[cells];
+        peersDiag = new PositionSet[cells];
+        for (int cell = 0; cell < cells; cell++)
+        {
+            peers[cell] = new PositionSet(peersOf(cell, cellUnits[cell]),
+                    positions);
+            peersDiag[cell] = new PositionSet(
+                    peersOf(cell, cellUnitsDiag[cell]), positions);
+        }
+
+        // a peer shares at least one unit, so it has at most this many more
+        crossStride = 4;
+        crossUnits = new int[cells][];
+        crossUnitsDiag = new int[cells][];
+        for (int cell = 0; cell < cells; cell++)
+        {
+            crossUnits[cell] = crossOf(cell, peers[cell].cells, cellUnits);
+            crossUnitsDiag[cell] = crossOf(cell, peersDiag[cell].cells,
+                    cellUnitsDiag);
+        }
+    }
+
+    private int[] crossOf(int cell, int[] peerCells, int[][] units)
+    {
+        int[] cross = new int[peerCells.length * crossStride];
+        Arrays.fill(cross, -1);
+        for (int k = 0; k < peerCells.length; k++)
+        {
+            int at = k * crossStride;
+            outer:
+            for (int u : units[peerCells[k]])
+            {
+                for (int shared : units[cell])
+                {
+                    if (u == shared)
+                    {
+                        continue outer;
+                    }
+                }
+                cross[at++] = u;
+            }
+        }
+        return cross;
+    }
+
+    private int[] peersOf(int cell, int[] units)
+    {
+        boolean[] seen = new boolean[cells];
+        int count = 0;
+        for (int u : units)
+        {
+            for (int other : unitSets[u].cells)
+            {
+                if (other != cell && !seen[other])
+                {
+                    seen[other] = true;
+                    count++;
+                }
+            }
+        }
+        int[] found = new int[count];
+        for (int other = 0, k = 0; other < cells; other++)
+        {
+            if (seen[other])
+            {
+                found[k++] = other;
+            }
+        }
+        return found;
+    }
+
+    int cell(int row, int col)
+    {
+        return (row - 1) * size + (col - 1);
+    }
+
+    Position position(int cell)
+    {
+        return positions[cell];
+    }
+
+    /**
+     * @param diag If the diagonals are constrained
+     * @return The number of units
+     */
+    int unitCount(boolean diag)
+    {
+        return diag ? units : fdiagUnit;
+    }
+
+    PositionSet unitSet(int unit)
+    {
+        return unitSets[unit];
+    }
+
+    PositionSet peerSet(int cell, boolean diag)
+    {
+        return diag ? peersDiag[cell] : peers[cell];
+    }
+
+    /**
+     * @param unit The unit number
+     * @return The cells in the unit. The array must not be changed.
+     */
+    int[] unitCells(int unit)
+    {
+        return unitSets[unit].cells;
+    }
+
+    /**
+     * @param cell The cell to look up
+     * @param diag If the diagonals are constrained
+     * @return The units the cell is in. The array must not be changed.
+     */
+    int[] unitsOf(int cell, boolean diag)
+    {
+        return diag ? cellUnitsDiag[cell] : cellUnits[cell];
+    }
+
+    /**
+     * @param cell The cell to look up
+     * @param diag If the diagonals are constrained
+     * @return The cells sharing a unit with the cell. The array must not be
+     * changed.
+     */
+    int[] peerCells(int cell, boolean diag)
+    {
+        return diag ? peersDiag[cell].cells : peers[cell].cells;
+    }
+
+    /**
+     * @param cell The cell to look up
+     * @param diag If the diagonals are constrained
+     * @return The units of each peer (in the order of
+     * {@link #peerCells(int, boolean)}) that the cell is not in, at a stride
+     * of {@link #crossStride}. The array must not be changed.
+     */
+    int[] crossUnits(int cell, boolean diag)
+    {
+        return diag ? crossUnitsDiag[cell] : crossUnits[cell];
+    }
+
+    /**
+     * Gets the character used for a number when a puzzle is written as text:
+     * 1 to 9, then A for 10, B for 11 and so on. Unknown cells are a dot.
+     *
+     * @param n The number, or -1 for unknown
+     * @return The character for it
+     */
+    static char symbol(int n)
+    {
+        if (n == -1)
+        {
+            return '.';
+        }
+        return n <= 9 ? (char) ('0' + n) : (char) ('A' + n - 10);
+    }
+
+    /**
+     * The reverse of {@link #symbol(int)}. Letters can be either case, and 0
+     * also means unknown.
+     *
+     * @param c The character
+     * @return The number, -1 for unknown, or 0 if it is not a number
+     */
+    static int value(int c)
+    {
+        if (c == '.' || c == '0')
+        {
+            return -1;
+        }
+        if (c >= '1' && c <= '9')
+        {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'Z')
+        {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'z')
+        {
+            return c - 'a' + 10;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,80 @@
+package main;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The next step the solver would take, without taking it: either a number
+ * that has to go in a cell, or a technique that rules candidates out of some
+ * cells.
+ *
+ * @author tobin
+ */
+public final class Hint
+{
+    private final String name;
+    private final int number;
+    private final List<Position> cells;
+    private final long[] removed;
+
+    /**
+     * @param name What the step is called, like "hidden single"
+     * @param number The number that goes in the cell, or -1 if candidates
+     * are only ruled out
+     * @param cells The cell the number goes in, or the cells that lose
+     * candidates
+     * @param removed The candidates each of the cells loses, or null if a
+     * number goes in
+     */
+    Hint(String name, int number, List<Position> cells, long[] removed)
+    {
+        this.name = name;
+        this.number = number;
+        this.cells = Collections.unmodifiableList(cells);
+        this.removed = removed;
+    }
+
+    /**
+     * @return What the step is called, like "naked single" or "x wing"
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return The number that has to go in the cell, or -1 if the step only
+     * rules candidates out
+     */
+    public int getNumber()
+    {
+        return number;
+    }
+
+    /**
+     * @return The cell the number goes in, or the cells that lose candidates
+     */
+    public List<Position> getCells()
+    {
+        return cells;
+    }
+
+    /**
+     * @param i Which of the cells
+     * @return A mask of the candidates that cell loses
+     */
+    long getRemoved(int i)
+    {
+        return removed[i];
+    }
+
+    @Override
+    public String toString()
+    {
+        if (number != -1)
+        {
+            return name + ": " + number + " goes at " + cells.get(0);
+        }
+        return name + " rules out candidates at " + cells;
+    }
+}
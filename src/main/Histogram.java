@@ -0,0 +1,151 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * Counts how often each value was seen, to within a few percent, like an HDR
+ * histogram. Values below 32 get a bucket each, and every power of two above
+ * that is split into 32 buckets, so a bucket is never wider than 1/32 of the
+ * values in it and the whole range of a long fits in 1920 counts.
+ *
+ * Histograms are not thread safe. Each thread records into its own, and they
+ * are added together to read them.
+ *
+ * @author tobin
+ */
+public final class Histogram
+{
+    private static final int SUB_BITS = 5, SUB = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(Long.SIZE - SUB_BITS + 1) * SUB];
+    private long total, sum, max;
+    private long min = Long.MAX_VALUE;
+
+    /**
+     * Counts a value.
+     *
+     * @param value The value, which must not be negative
+     */
+    public void record(long value)
+    {
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        max = Math.max(max, value);
+        min = Math.min(min, value);
+    }
+
+    /**
+     * Adds every value counted by another histogram to this one.
+     *
+     * @param other The histogram to add
+     */
+    public void add(Histogram other)
+    {
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+        min = Math.min(min, other.min);
+    }
+
+    /**
+     * Forgets every value.
+     */
+    public void clear()
+    {
+        Arrays.fill(counts, 0);
+        total = sum = max = 0;
+        min = Long.MAX_VALUE;
+    }
+
+    /**
+     * @return The number of values counted
+     */
+    public long count()
+    {
+        return total;
+    }
+
+    /**
+     * @return The smallest value counted, or 0 if there are none
+     */
+    public long min()
+    {
+        return total == 0 ? 0 : min;
+    }
+
+    /**
+     * @return The largest value counted, or 0 if there are none
+     */
+    public long max()
+    {
+        return max;
+    }
+
+    /**
+     * @return The mean of the values counted, or 0 if there are none
+     */
+    public double mean()
+    {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * Finds the value that a given fraction of the values are at or below.
+     * The answer is the top of the bucket it falls in, so it can be a few
+     * percent high, but never more than the largest value.
+     *
+     * @param fraction The fraction, from 0 to 1
+     * @return The value, or 0 if there are none
+     */
+    public long percentile(double fraction)
+    {
+        if (total == 0)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                long top = i + 1 < counts.length ? lowest(i + 1) - 1
+                        : Long.MAX_VALUE;
+                return Math.max(min, Math.min(top, max));
+            }
+        }
+        return max;
+    }
+
+    private static int index(long value)
+    {
+        if (value < SUB)
+        {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - SUB_BITS + 1) * SUB
+                + (int) (value >>> (exponent - SUB_BITS) & (SUB - 1));
+    }
+
+    /**
+     * The reverse of {@link #index(long)}.
+     *
+     * @return The smallest value in a bucket
+     */
+    private static long lowest(int index)
+    {
+        if (index < SUB)
+        {
+            return index;
+        }
+        int block = index / SUB;
+        return (long) (SUB + index % SUB) << (block - 1);
+    }
+}
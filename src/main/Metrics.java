@@ -0,0 +1,375 @@
+package main;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Counts what the solver does across every puzzle solved in the process:
+ * how many solves ended each way, including invalid puzzles and running out
+ * of budget, the singles and technique placements, the passes of each kind
+ * of single, and the search nodes and backtracks. The time of every solve
+ * goes in a histogram for its puzzle size and whether it has diagonal
+ * constraints.
+ *
+ * Metrics are off until {@link #setEnabled(boolean)} turns them on, and while
+ * they are off a solve only reads one flag. Each thread records into its own
+ * counters, which are added up when they are read, so solving threads never
+ * wait on each other. The counts of threads that have ended are kept.
+ *
+ * @author tobin
+ */
+public final class Metrics
+{
+    /**
+     * The names of the counters, followed by one per technique
+     */
+    private static final String[] COUNTERS =
+    {
+        "solved", "unsolvable", "invalid", "unfinished", "exceeded",
+        "nodes", "backtracks", "nakedSingles", "hiddenSingles", "sinkPasses",
+        "sourcePasses"
+    };
+    /**
+     * The first counters are one per {@link SolveResult.Status}, in order
+     */
+    private static final int NODES = 5, BACKTRACKS = 6, NAKED = 7,
+            HIDDEN = 8, SINK = 9, SOURCE = 10, TECHNIQUES = COUNTERS.length;
+    /**
+     * One histogram per box size, without and with the diagonals
+     */
+    private static final int VARIANTS = (Geometry.MAX_BOX + 1) * 2;
+
+    private static volatile boolean enabled;
+
+    /**
+     * Every thread's counters, and the counts of threads that have ended
+     */
+    private static final List<Recorder> recorders = new ArrayList<>();
+    private static final Recorder retired = new Recorder(null);
+    private static final ThreadLocal<Recorder> local =
+            new ThreadLocal<Recorder>()
+    {
+        @Override
+        protected Recorder initialValue()
+        {
+            Recorder recorder = new Recorder(Thread.currentThread());
+            synchronized (recorders)
+            {
+                retire();
+                recorders.add(recorder);
+            }
+            return recorder;
+        }
+    };
+
+    private Metrics()
+    {
+    }
+
+    /**
+     * Turns recording on or off. What has been recorded is kept either way.
+     *
+     * @param on If solves should be recorded
+     */
+    public static void setEnabled(boolean on)
+    {
+        enabled = on;
+    }
+
+    /**
+     * @return If solves are being recorded
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Records a finished solve.
+     *
+     * @param puzzle The puzzle, holding the counts for the solve
+     * @param nanos How long it took
+     * @param status How it ended
+     */
+    static void record(Puzzle puzzle, long nanos, SolveResult.Status status)
+    {
+        Recorder recorder = local.get();
+        synchronized (recorder)
+        {
+            long[] counts = recorder.counts;
+            counts[status.ordinal()]++;
+            counts[NODES] += puzzle.getNodes();
+            counts[BACKTRACKS] += puzzle.getBacktracks();
+            counts[NAKED] += puzzle.getNakedSingles();
+            counts[HIDDEN] += puzzle.getHiddenSingles();
+            counts[SINK] += puzzle.getSinkPasses();
+            counts[SOURCE] += puzzle.getSourcePasses();
+            for (Technique technique : Technique.values())
+            {
+                counts[TECHNIQUES + technique.ordinal()] +=
+                        puzzle.getFired(technique);
+            }
+            recorder.latency(puzzle.getBoxSize(), puzzle.isDiagonal())
+                    .record(nanos);
+        }
+    }
+
+    /**
+     * Records a puzzle turned away before it was solved, because its line was
+     * not a puzzle or it repeats a number. It has no counts or time.
+     */
+    static void recordInvalid()
+    {
+        Recorder recorder = local.get();
+        synchronized (recorder)
+        {
+            recorder.counts[SolveResult.Status.INVALID.ordinal()]++;
+        }
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public static void reset()
+    {
+        synchronized (recorders)
+        {
+            retire();
+            for (Recorder recorder : recorders)
+            {
+                recorder.clear();
+            }
+            retired.clear();
+        }
+    }
+
+    /**
+     * @param boxSize The box size
+     * @param diag If the puzzles had diagonal constraints
+     * @return The solve times in nanoseconds of puzzles of that kind, added
+     * up over every thread
+     */
+    public static Histogram latency(int boxSize, boolean diag)
+    {
+        return merge().latency(boxSize, diag);
+    }
+
+    /**
+     * @param name The name of a counter, as it appears in the dumps
+     * @throws IllegalArgumentException if there is no such counter
+     * @return Its total over every thread
+     */
+    public static long count(String name)
+    {
+        String[] names = names();
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equals(name))
+            {
+                return merge().counts[i];
+            }
+        }
+        throw new IllegalArgumentException("No such counter: " + name);
+    }
+
+    /**
+     * @return Everything recorded as a JSON object, with times in
+     * microseconds
+     */
+    public static String toJson()
+    {
+        Recorder total = merge();
+        String[] names = names();
+        StringBuilder json = new StringBuilder("{\"enabled\":")
+                .append(enabled).append(",\"counters\":{");
+        for (int i = 0; i < names.length; i++)
+        {
+            json.append(i == 0 ? "" : ",").append('"').append(names[i])
+                    .append("\":").append(total.counts[i]);
+        }
+        json.append("},\"latency\":{");
+        boolean first = true;
+        for (int v = 0; v < VARIANTS; v++)
+        {
+            Histogram h = total.latencies[v];
+            if (h == null || h.count() == 0)
+            {
+                continue;
+            }
+            json.append(first ? "" : ",").append('"').append(variant(v))
+                    .append("\":{\"count\":").append(h.count())
+                    .append(",\"mean\":").append(micros(h.mean()))
+                    .append(",\"min\":").append(micros(h.min()))
+                    .append(",\"p50\":").append(micros(h.percentile(0.5)))
+                    .append(",\"p90\":").append(micros(h.percentile(0.9)))
+                    .append(",\"p99\":").append(micros(h.percentile(0.99)))
+                    .append(",\"p999\":")
+                    .append(micros(h.percentile(0.999)))
+                    .append(",\"max\":").append(micros(h.max())).append('}');
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * @return Everything recorded as lines of text, with times in
+     * microseconds
+     */
+    public static String toText()
+    {
+        Recorder total = merge();
+        String[] names = names();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < names.length; i++)
+        {
+            text.append(names[i]).append(' ').append(total.counts[i])
+                    .append('\n');
+        }
+        for (int v = 0; v < VARIANTS; v++)
+        {
+            Histogram h = total.latencies[v];
+            if (h == null || h.count() == 0)
+            {
+                continue;
+            }
+            text.append("latency ").append(variant(v)).append(": ")
+                    .append(h.count()).append(" solves, mean ")
+                    .append(micros(h.mean())).append(" p50 ")
+                    .append(micros(h.percentile(0.5))).append(" p90 ")
+                    .append(micros(h.percentile(0.9))).append(" p99 ")
+                    .append(micros(h.percentile(0.99))).append(" max ")
+                    .append(micros(h.max())).append(" us\n");
+        }
+        return text.toString();
+    }
+
+    private static String[] names()
+    {
+        Technique[] techniques = Technique.values();
+        String[] names = new String[TECHNIQUES + techniques.length];
+        System.arraycopy(COUNTERS, 0, names, 0, TECHNIQUES);
+        for (Technique technique : techniques)
+        {
+            // NAKED_PAIRS becomes nakedPairs, like the other counters
+            StringBuilder name = new StringBuilder();
+            for (String word : technique.name().split("_"))
+            {
+                String lower = word.toLowerCase(Locale.ROOT);
+                name.append(name.length() == 0 ? lower
+                        : Character.toUpperCase(lower.charAt(0))
+                        + lower.substring(1));
+            }
+            names[TECHNIQUES + technique.ordinal()] = name.toString();
+        }
+        return names;
+    }
+
+    private static String variant(int index)
+    {
+        int size = index / 2 * (index / 2);
+        return size + "x" + size + (index % 2 == 1 ? " diagonal" : "");
+    }
+
+    private static String micros(double nanos)
+    {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000);
+    }
+
+    /**
+     * @return The sum of every thread's counters
+     */
+    private static Recorder merge()
+    {
+        Recorder total = new Recorder(null);
+        synchronized (recorders)
+        {
+            retire();
+            total.add(retired);
+            for (Recorder recorder : recorders)
+            {
+                total.add(recorder);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Folds the counters of threads that have ended into the retired ones.
+     * The caller must hold the lock on the recorders.
+     */
+    private static void retire()
+    {
+        for (Iterator<Recorder> i = recorders.iterator(); i.hasNext();)
+        {
+            Recorder recorder = i.next();
+            if (recorder.thread.get() == null
+                    || !recorder.thread.get().isAlive())
+            {
+                retired.add(recorder);
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * The counters of one thread.
+     */
+    private static final class Recorder
+    {
+        final WeakReference<Thread> thread;
+        final long[] counts = new long[TECHNIQUES + Technique.values().length];
+        /**
+         * Made the first time a puzzle of that kind is solved
+         */
+        final Histogram[] latencies = new Histogram[VARIANTS];
+
+        Recorder(Thread thread)
+        {
+            this.thread = new WeakReference<>(thread);
+        }
+
+        Histogram latency(int boxSize, boolean diag)
+        {
+            int v = boxSize * 2 + (diag ? 1 : 0);
+            if (latencies[v] == null)
+            {
+                latencies[v] = new Histogram();
+            }
+            return latencies[v];
+        }
+
+        synchronized void add(Recorder other)
+        {
+            synchronized (other)
+            {
+                for (int i = 0; i < counts.length; i++)
+                {
+                    counts[i] += other.counts[i];
+                }
+                for (int v = 0; v < VARIANTS; v++)
+                {
+                    if (other.latencies[v] != null)
+                    {
+                        latency(v / 2, v % 2 == 1).add(other.latencies[v]);
+                    }
+                }
+            }
+        }
+
+        synchronized void clear()
+        {
+            Arrays.fill(counts, 0);
+            for (Histogram h : latencies)
+            {
+                if (h != null)
+                {
+                    h.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Searches one puzzle on every thread of the common fork join pool, carrying
+ * on from where a search on one thread stopped. The rest of the search tree
+ * is cut into subtrees, and each subtree is a task with its own copy of the
+ * puzzle. A task only splits its subtree further
+ * while the thread running it has little queued work, so idle threads have
+ * something to steal and busy ones just search. The first task to find a
+ * solution cancels a budget that all of them share, which stops the rest at
+ * their next node. The nodes every task uses count against the same limit.
+ *
+ * @author tobin
+ */
+final class ParallelSearch
+{
+    /**
+     * Subtrees deeper than this are never split
+     */
+    private static final int SPLIT_DEPTH = 8;
+    /**
+     * A thread with this many tasks waiting searches instead of splitting
+     */
+    private static final int SURPLUS = 2;
+
+    /**
+     * The puzzle being solved, which each task copies its settings from
+     */
+    private final Puzzle puzzle;
+    /**
+     * Shared by every task, and cancelled once a solution is found. Each
+     * task checks it through its own part from {@link Budget#share()}.
+     */
+    private final Budget stop;
+    private final AtomicReference<long[]> solution = new AtomicReference<>();
+    private volatile boolean stopped;
+    private long nodes, backtracks, nakedSingles, hiddenSingles;
+    private int depth;
+
+    /**
+     * @param puzzle The puzzle to solve. Its grid is only read while the
+     * search runs.
+     * @param budget The limits on the whole search, or null for none
+     * @param used The nodes the search used before it was split up
+     */
+    ParallelSearch(Puzzle puzzle, Budget budget, long used)
+    {
+        this.puzzle = puzzle;
+        stop = new Budget(budget, used);
+    }
+
+    /**
+     * Searches what a stopped search had left to try. Level i of it was
+     * guessing cells[i] in the grid frames[i], and had options[i] of its
+     * candidates left.
+     *
+     * @param frames The grid at each level of the stopped search
+     * @param cells The cell being guessed at each level
+     * @param options The candidates left to try at each level
+     * @param levels The number of levels the search was inside of
+     * @return The state of the grid once it is solved, or null if there is no
+     * solution or the budget ran out
+     */
+    long[] solve(long[][] frames, int[] cells, long[] options, int levels)
+    {
+        List<Subtree> rest = new ArrayList<>();
+        // deepest first, so this thread carries on where the search was
+        for (int level = levels - 1; level >= 0; level--)
+        {
+            if (options[level] != 0)
+            {
+                rest.add(new Subtree(frames[level].clone(), level,
+                        cells[level], options[level]));
+            }
+        }
+        ForkJoinPool.commonPool().invoke(new Frontier(rest));
+        return solution.get();
+    }
+
+    /**
+     * @return If the budget ran out before a solution was found
+     */
+    boolean wasStopped()
+    {
+        return stopped && solution.get() == null;
+    }
+
+    synchronized long getNodes()
+    {
+        return nodes;
+    }
+
+    synchronized long getBacktracks()
+    {
+        return backtracks;
+    }
+
+    synchronized long getNakedSingles()
+    {
+        return nakedSingles;
+    }
+
+    synchronized long getHiddenSingles()
+    {
+        return hiddenSingles;
+    }
+
+    synchronized int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Adds the work one task did to the totals.
+     *
+     * @param worker The task's copy of the puzzle
+     * @param offset The guesses made before the task's subtree
+     */
+    private synchronized void record(Puzzle worker, int offset)
+    {
+        nodes += worker.getNodes();
+        backtracks += worker.getBacktracks();
+        nakedSingles += worker.getNakedSingles();
+        hiddenSingles += worker.getHiddenSingles();
+        depth = Math.max(depth, offset + worker.getDepth());
+    }
+
+    /**
+     * Runs the subtrees a stopped search had left.
+     */
+    private static final class Frontier extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Subtree> rest;
+
+        Frontier(List<Subtree> rest)
+        {
+            this.rest = rest;
+        }
+
+        @Override
+        protected void compute()
+        {
+            invokeAll(rest);
+        }
+    }
+
+    /**
+     * The part of the tree under one state of the grid, or under some of
+     * the guesses for one cell in it.
+     */
+    private final class Subtree extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] state;
+        private final int level;
+        /**
+         * The cell to guess first, or -1 to search the whole subtree
+         */
+        private final int cell;
+        /**
+         * The candidates of the cell to guess
+         */
+        private final long options;
+
+        Subtree(long[] state, int level)
+        {
+            this(state, level, -1, 0);
+        }
+
+        Subtree(long[] state, int level, int cell, long options)
+        {
+            this.state = state;
+            this.level = level;
+            this.cell = cell;
+            this.options = options;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (stop.isCancelled())
+            {
+                // someone else already found it
+                return;
+            }
+            Puzzle worker = puzzle.deepCopy();
+            worker.restore(state);
+            Budget budget = stop.share();
+            if (cell != -1)
+            {
+                // part of a level is left, so its guesses become subtrees
+                split(worker, budget, cell, options);
+                return;
+            }
+            int next = worker.mostConstrained();
+            if (next != -1 && level < SPLIT_DEPTH
+                    && getSurplusQueuedTaskCount() < SURPLUS)
+            {
+                split(worker, budget, next, worker.candidates(next));
+                return;
+            }
+
+            if (worker.searchWith(budget))
+            {
+                long[] solved = new long[state.length];
+                worker.save(solved);
+                if (solution.compareAndSet(null, solved))
+                {
+                    stop.cancel();
+                }
+            }
+            else if (worker.wasStopped())
+            {
+                stopped = true;
+            }
+            record(worker, level);
+        }
+
+        /**
+         * Makes a task for each of the candidates that survives the
+         * deductions, and runs them.
+         */
+        private void split(Puzzle worker, Budget budget, int cell,
+                long options)
+        {
+            List<Subtree> children = new ArrayList<>();
+            for (; options != 0; options &= options - 1)
+            {
+                worker.restore(state);
+                if (worker.guess(cell, CandidateGrid.digit(options & -options)))
+                {
+                    long[] child = new long[state.length];
+                    worker.save(child);
+                    children.add(new Subtree(child, level + 1));
+                }
+            }
+            record(worker, level);
+            if (budget.exceeded(worker.getNodes()))
+            {
+                stopped = true;
+                return;
+            }
+            invokeAll(children);
+        }
+    }
+}
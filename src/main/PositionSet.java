@@ -3,90 +3,75 @@ package main;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
+ * A fixed set of positions in the puzzle: a row, a column, a box, a diagonal,
+ * or the peers of a cell (every other cell sharing a unit with it).
+ *
+ * All of the sets for a box size are built once, as tables of cell indexes,
+ * and handed out by the factory methods. They never change, so they can be
+ * shared and iterated as many times as needed. Iterating a set hands out
+ * shared Position objects rather than making new ones, but each call to
+ * {@link #iterator()} still makes a small iterator, so that a set shared
+ * between threads can be iterated by all of them at once. Code that has to
+ * avoid allocating should loop over {@link #size()} and {@link #get(int)},
+ * and the solver reads the index tables directly.
  *
  * @author tobin
  */
 public class PositionSet implements Iterable<Position>
 {
-    private static final int ROW = 0, COL = 1, BOX = 2, FDIAG = 3, BDIAG = 4;
-    private int type;
-    private int row, col;
-    private final int boxSize;
-
     /**
-     * Convenience constructor if you are not making a box set. Calls this(type,
-     * row, col, -1)
-     *
-     * @param type The type of set to make
-     * @param row The starting row
-     * @param col The starting column
+     * The cells in this set, in row major order from 0. This is never
+     * changed.
      */
-    private PositionSet(int type, int row, int col)
-    {
-        this(type, row, col, -1);
-        if (type == BOX)
-        {
-            throw new IllegalArgumentException(
-                    "Box set requires a box size");
-        }
-        else
-        {
-            if ((type == FDIAG || type == BDIAG) && row != 1)
-            {
-                throw new IllegalArgumentException(
-                        "Diagonal set requires row to be 1");
-            }
-        }
-    }
+    final int[] cells;
+    /**
+     * The shared position of every cell in the puzzle
+     */
+    private final Position[] positions;
 
     /**
-     * Makes a new position set with the given starting row and column. The type
-     * of set determines how the iterator will advance. The box size is only
-     * needed if this is a BOX type set.
+     * Makes a set of the given cells.
      *
-     * @param type The type of set
-     * @param row The starting row
-     * @param col The starting column
-     * @param boxSize The size of the boxes for this puzzle
+     * @param cells The cells in the set, in iteration order
+     * @param positions The position of every cell in the puzzle
      */
-    private PositionSet(int type, int row, int col, int boxSize)
+    PositionSet(int[] cells, Position[] positions)
     {
-        this.boxSize = boxSize;
-        this.type = type;
-        this.row = row;
-        this.col = col;
+        this.cells = cells;
+        this.positions = positions;
     }
 
     /**
      * *** Factory Getters ****
      */
-    public static PositionSet rowSet(int row)
+    public static PositionSet rowSet(int row, int boxSize)
     {
-//                System.out.println("Rowset starting at " + row);
-        return new PositionSet(ROW, row, 1);
+        Geometry g = Geometry.of(boxSize);
+        return g.unitSet(g.rowUnits + row - 1);
     }
 
-    public static PositionSet colSet(int col)
+    public static PositionSet colSet(int col, int boxSize)
     {
-//                System.out.println("Colset starting at " + col);
-        return new PositionSet(COL, 1, col);
+        Geometry g = Geometry.of(boxSize);
+        return g.unitSet(g.colUnits + col - 1);
     }
 
     public static PositionSet boxSet(int row, int col, int boxSize)
     {
-        int rowStart = ((row - 1) / boxSize) * boxSize + 1;
-        int colStart = ((col - 1) / boxSize) * boxSize + 1;
-//                System.out.println("Boxset starting at " + rowStart + ", " + colStart);
-        return new PositionSet(BOX, rowStart, colStart, boxSize);
+        Geometry g = Geometry.of(boxSize);
+        int box = ((row - 1) / boxSize) * boxSize + (col - 1) / boxSize;
+        return g.unitSet(g.boxUnits + box);
     }
 
-    public static PositionSet fdiagSet(int row, int col)
+    public static PositionSet fdiagSet(int row, int col, int boxSize)
     {
         if (row == col)
         {
-            return new PositionSet(FDIAG, 1, 1);
+            Geometry g = Geometry.of(boxSize);
+            return g.unitSet(g.fdiagUnit);
         }
         else
         {
@@ -94,11 +79,12 @@ public class PositionSet implements Iterable<Position>
         }
     }
 
-    public static PositionSet bdiagSet(int row, int col)
+    public static PositionSet bdiagSet(int row, int col, int boxSize)
     {
-        if (row == 10 - col)
+        Geometry g = Geometry.of(boxSize);
+        if (row == g.size + 1 - col)
         {
-            return new PositionSet(BDIAG, 1, 9);
+            return g.unitSet(g.bdiagUnit);
         }
         else
         {
@@ -106,30 +92,49 @@ public class PositionSet implements Iterable<Position>
         }
     }
 
+    /**
+     * Gets the cells that share a row, column, box (or diagonal) with a
+     * position.
+     *
+     * @param row The row position
+     * @param col The column position
+     * @param boxSize The size of boxes for this puzzle
+     * @param diag If the diagonals count as sets
+     * @return The peers of the position, not including itself
+     */
+    public static PositionSet peerSet(int row, int col, int boxSize,
+            boolean diag)
+    {
+        Geometry g = Geometry.of(boxSize);
+        return g.peerSet(g.cell(row, col), diag);
+    }
+
     /**
      * Gets a list of all sets the given position is in.
      *
      * @param row The row position
      * @param col The column position
      * @param boxSize The size of boxes for this puzzle
+     * @param diag If the diagonals count as sets
      * @return A list of all sets the position is in
      */
-    public static List<PositionSet> getAllSets(int row, int col, int boxSize)
+    public static List<PositionSet> getAllSets(int row, int col, int boxSize,
+            boolean diag)
     {
         ArrayList<PositionSet> sets = new ArrayList<>(3);
-        sets.add(rowSet(row));
-        sets.add(colSet(col));
+        sets.add(rowSet(row, boxSize));
+        sets.add(colSet(col, boxSize));
         sets.add(boxSet(row, col, boxSize));
 
         // add the diagonal sets
-        if (Puzzle.diag)
+        if (diag)
         {
-            PositionSet tmp_diag = fdiagSet(row, col);
+            PositionSet tmp_diag = fdiagSet(row, col, boxSize);
             if (tmp_diag != null)
             {
                 sets.add(tmp_diag);
             }
-            tmp_diag = bdiagSet(row, col);
+            tmp_diag = bdiagSet(row, col, boxSize);
             if (tmp_diag != null)
             {
                 sets.add(tmp_diag);
@@ -138,72 +143,52 @@ public class PositionSet implements Iterable<Position>
         return sets;
     }
 
+    /**
+     * @return The number of positions in the set
+     */
+    public int size()
+    {
+        return cells.length;
+    }
+
+    /**
+     * Gets a position without going through an iterator.
+     *
+     * @param i The index of the position, from 0 to size() - 1
+     * @return The i'th position in iteration order
+     */
+    public Position get(int i)
+    {
+        return positions[cells[i]];
+    }
+
+    /**
+     * Makes a new iterator over the set. Use {@link #get(int)} to go through
+     * the set without allocating.
+     *
+     * @return An iterator over the positions in the set
+     */
     @Override
     public Iterator<Position> iterator()
     {
         return new Iterator<Position>()
         {
+            private int i = 0;
+
             @Override
             public boolean hasNext()
             {
-                switch (type)
-                {
-                    case ROW:
-                        return col <= Puzzle.cols;
-                    case COL:
-                        return row <= Puzzle.rows;
-                    case BOX:
-                        // get next will invalidate the data if it is
-                        // done
-                        return !(col == -1 || row == -1);
-                    case FDIAG:
-                    case BDIAG:
-                        return row <= Puzzle.rows;
-                    default:
-                        throw new IllegalArgumentException(
-                                "Unrecognized type: " + type);
-                }
+                return i < cells.length;
             }
 
             @Override
             public Position next()
             {
-                switch (type)
+                if (i >= cells.length)
                 {
-                    case ROW:
-                        return new Position(row, col++);
-                    case COL:
-                        return new Position(row++, col);
-                    case BOX:
-                        // traverse box like reading
-                        Position p = new Position(row, col);
-                        if ((col - 1) % boxSize == boxSize - 1)
-                        {
-                            if ((row - 1) % boxSize == boxSize - 1)
-                            {
-                                // we are now done, so invalidate the
-                                // position
-                                row = col = -1;
-                            }
-                            else
-                            {
-                                row++;
-                                col -= (boxSize - 1);
-                            }
-                        }
-                        else
-                        {
-                            col++;
-                        }
-                        return p;
-                    case FDIAG:
-                        return new Position(row++, col++);
-                    case BDIAG:
-                        return new Position(row++, col--);
-                    default:
-                        throw new IllegalArgumentException(
-                                "Unrecognized type: " + type);
+                    throw new NoSuchElementException();
                 }
+                return positions[cells[i++]];
             }
 
             @Override
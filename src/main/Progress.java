@@ -0,0 +1,19 @@
+package main;
+
+/**
+ * Hears about a solve while it is going on. It is called on the thread doing
+ * the solve, between steps, so it may read the puzzle but must not change it.
+ * It is called often, so it should be quick and decide for itself how often
+ * to do anything.
+ *
+ * @author tobin
+ */
+public interface Progress
+{
+    /**
+     * Called after each round of deductions and before each guess.
+     *
+     * @param puzzle The puzzle being solved, with the cells filled so far
+     */
+    void update(Puzzle puzzle);
+}
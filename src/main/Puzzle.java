@@ -1,207 +1,1492 @@
 package main;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
+ * A sudoku puzzle. The puzzle is made of boxes of boxSize by boxSize cells,
+ * and has boxSize * boxSize rows and columns, so a normal puzzle has a box
+ * size of 3. Box sizes from 2 (4 by 4) up to 5 (25 by 25) are supported.
  *
  * @author tobin
  */
 public class Puzzle
 {
-    public static final int rows = 9, cols = 9, boxSize = 3;
-    
-    public static boolean diag = false;
     /**
-     * The array that stores the state of the puzzle
+     * The size of a normal puzzle
+     */
+    public static final int DEFAULT_BOX_SIZE = 3;
+    /**
+     * The parallel engine searches this many nodes on one thread before it
+     * splits the search up
+     */
+    private static final long PARALLEL_CUTOFF = 1024;
+
+    /**
+     * The shape of the puzzle
+     */
+    private final Geometry geometry;
+    /**
+     * The values and candidate masks that make up the state of the puzzle
      */
-    private int[][] data;
+    private CandidateGrid grid;
     private boolean solved;
+    /**
+     * If the diagonals have to contain each number once as well
+     */
+    private boolean diag;
+    /**
+     * If the puzzle is searched once the deductions stall
+     */
+    private boolean search = true;
+    /**
+     * If solves read the clock to say how long they took
+     */
+    private boolean timed;
+    /**
+     * The deductions run once the singles stall, and the scratch space they
+     * use
+     */
+    private final EnumSet<Technique> techniques =
+            EnumSet.noneOf(Technique.class);
+    private Deductions deductions;
+    /**
+     * Set by the deductions when they find a cell or number with no options
+     */
+    private boolean contradiction;
+    /**
+     * Snapshots of the grid for each level of the search, reused between
+     * guesses
+     */
+    private long[][] frames;
+    /**
+     * The state before counting or a solve with a budget, so it can be put
+     * back afterwards
+     */
+    private long[] start;
+    /**
+     * A known solution whose numbers are tried first when counting, or null
+     * to try them in order
+     */
+    private int[] towards;
+    /**
+     * The exact cover matrix, built the first time it is needed
+     */
+    private DancingLinks dlx;
+    /**
+     * The bitboard solver, made the first time it is needed
+     */
+    private BitParallel bits;
+    private long nodes, backtracks;
+    /**
+     * What the last solve or count needed: the cells filled by each
+     * deduction, and the deepest guess
+     */
+    private long nakedSingles, hiddenSingles;
+    /**
+     * The number of times each kind of single was looked for
+     */
+    private long sinkPasses, sourcePasses;
+    private final long[] fired = new long[Technique.values().length];
+    private int depth;
+    /**
+     * If set, the search tries the candidates of a cell in a random order
+     */
+    private Random random;
+    /**
+     * The limits on the solve going on, or null
+     */
+    private Budget budget;
+    /**
+     * Set when the budget runs out, so the search unwinds like a dead end
+     */
+    private boolean stopped;
+    /**
+     * The most nodes the search may try before it stops as if the budget ran
+     * out, used to try a puzzle on one thread first
+     */
+    private long nodeLimit = Long.MAX_VALUE;
+    /**
+     * Where a search stopped by the node limit got to: the cell guessed at
+     * each level down to the last, and the candidates not yet tried there.
+     * Only kept by the parallel engine.
+     */
+    private int[] frontierCells;
+    private long[] frontierOptions;
+    private int frontier;
+    /**
+     * Told about the solve as it goes, or null
+     */
+    private Progress progress;
+
+    /**
+     * Constructs a new puzzle with the given data. A -1 signifies an unknown
+     * entry in the table. The array is indexed by column then row, and must be
+     * square with a square size (9 by 9 for a normal puzzle). All entries in
+     * the array should be -1 or between 1 and the size.
+     *
+     * @param data An array containing the state of the puzzle
+     */
+    public Puzzle(int[][] data)
+    {
+        this(data, false);
+    }
+
+    /**
+     * Constructs a new puzzle with the given data, and with or without the
+     * diagonal constraints.
+     *
+     * @param data An array containing the state of the puzzle
+     * @param diag If the diagonals have to contain each number once
+     */
+    public Puzzle(int[][] data, boolean diag)
+    {
+        this.diag = diag;
+        geometry = Geometry.ofSize(data.length);
+        grid = new CandidateGrid(geometry, diag);
+        /**
+         * check validity *
+         */
+        for (int i = 0; i < data.length; i++)
+        {
+            for (int j = 0; j < data[i].length; j++)
+            {
+                // check location
+                checkBounds(j + 1, i + 1);
+                // check the contents of the array
+                checkRange(data[i][j]);
+                grid.set(geometry.cell(j + 1, i + 1), data[i][j]);
+            }
+        }
+
+        solved = false;
+    }
+
+    /**
+     * Constructs an empty puzzle.
+     *
+     * @param boxSize The size of the boxes, 3 for a normal puzzle
+     * @param diag If the diagonals have to contain each number once
+     */
+    public Puzzle(int boxSize, boolean diag)
+    {
+        this.diag = diag;
+        geometry = Geometry.of(boxSize);
+        grid = new CandidateGrid(geometry, diag);
+        solved = false;
+    }
+
+    /**
+     * Reads a puzzle written as its cells in reading order, with 0 or . for an
+     * unknown cell. Numbers past 9 are letters, so A is 10, B is 11 and so on.
+     * The size of the puzzle comes from the number of cells (81 for a normal
+     * puzzle, 256 for 16 by 16). White space is ignored.
+     *
+     * @param text The puzzle as text
+     * @param diag If the diagonals have to contain each number once
+     * @throws IllegalArgumentException if the text is not a puzzle
+     * @return The puzzle
+     */
+    public static Puzzle parse(CharSequence text, boolean diag)
+    {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (!Character.isWhitespace(text.charAt(i)))
+            {
+                count++;
+            }
+        }
+        int size = (int) Math.round(Math.sqrt(count));
+        if (size * size != count)
+        {
+            throw new IllegalArgumentException(
+                    "Wrong number of cells (" + count + "): " + text);
+        }
+
+        Puzzle puzzle = new Puzzle(Geometry.ofSize(size).boxSize, diag);
+        int cell = 0;
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                continue;
+            }
+            int n = Geometry.value(c);
+            if (n == 0 || n > size)
+            {
+                throw new IllegalArgumentException(
+                        "Unexpected character '" + c + "': " + text);
+            }
+            if (n != -1)
+            {
+                puzzle.grid.set(cell, n);
+            }
+            cell++;
+        }
+        return puzzle;
+    }
+
+    /**
+     * Makes a puzzle around an existing grid.
+     *
+     * @param grid The state of the new puzzle
+     */
+    private Puzzle(CandidateGrid grid)
+    {
+        this.grid = grid;
+        geometry = grid.geometry();
+        diag = grid.isDiagonal();
+        solved = false;
+    }
+
+    /**
+     * Gets the contents of a cell in the puzzle.
+     *
+     * @param row The row to get
+     * @param col The column to get
+     * @throws IllegalArgumentException if the position is invalid
+     * @return The value in that cell. If the cell is not filled returns a -1.
+     */
+    public int get(int row, int col)
+    {
+        checkBounds(row, col);
+        return grid.get(geometry.cell(row, col));
+    }
+
+    /**
+     * Gets the contents of a cell in the puzzle.
+     *
+     * @param p The position to get the value of
+     * @throws IllegalArgumentException if the position is invalid
+     * @return The value in that cell. If the cell is not filled returns a -1.
+     */
+    public int get(Position p)
+    {
+        return get(p.row, p.col);
+    }
+
+    /**
+     * Gets the contents of a cell without checking the index.
+     *
+     * @param cell The cell in row major order, starting from 0
+     * @return The value in that cell, or -1 if it is not filled
+     */
+    int getCell(int cell)
+    {
+        return grid.get(cell);
+    }
+
+    /**
+     * Sets the contents of a cell without checking the index or value.
+     *
+     * @param cell The cell in row major order, starting from 0
+     * @param n The value to set it to, or -1 to clear it
+     */
+    void setCell(int cell, int n)
+    {
+        grid.set(cell, n);
+    }
+
+    /**
+     * Empties every cell.
+     */
+    void clear()
+    {
+        grid.clear();
+        solved = false;
+    }
+
+    /**
+     * Sets the entry at the given position to the given value.
+     *
+     * @param row The row of the entry to set
+     * @param col The column of the entry to set
+     * @param n The value to set the the entry to
+     * @throws IllegalArgumentException if the position is not valid, or if the
+     * value is not valid
+     */
+    public void set(int row, int col, int n)
+    {
+        checkBounds(row, col);
+        checkRange(n);
+        grid.set(geometry.cell(row, col), n);
+    }
+
+    /**
+     * Sets the entry at the given position to the given value.
+     *
+     * @param p The position to set the value of
+     * @param n The value to set the the entry to
+     * @throws IllegalArgumentException if the position is not valid, or if the
+     * value is not valid
+     */
+    public void set(Position p, int n)
+    {
+        set(p.row, p.col, n);
+    }
+
+    /**
+     * Replaces every entry in the puzzle. No checks are done, this is for
+     * reusing one puzzle over many inputs that are already known to be in
+     * range.
+     *
+     * @param cells The value of each cell in row major order, 0 if unknown
+     * @param offset Where the first cell is in the array
+     */
+    void load(byte[] cells, int offset)
+    {
+        grid.clear();
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            int n = cells[offset + cell];
+            if (n != 0)
+            {
+                grid.set(cell, n);
+            }
+        }
+        solved = false;
+    }
+
+    /**
+     * Fills in a solution that is already known, as if the puzzle had been
+     * solved. No checks are done.
+     *
+     * @param cells The value of every cell in row major order
+     */
+    void fill(int[] cells)
+    {
+        resetCounts();
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            if (grid.get(cell) != cells[cell])
+            {
+                grid.set(cell, cells[cell]);
+            }
+        }
+        solved = true;
+    }
+
+    /**
+     * Tests that no number is repeated in a row, column, box (or diagonal).
+     *
+     * @return If the entries filled in so far are consistent
+     */
+    public boolean isConsistent()
+    {
+        return !grid.hasConflict();
+    }
+
+    /**
+     * @return The number of rows (and columns, and numbers) in the puzzle
+     */
+    public int getSize()
+    {
+        return geometry.size;
+    }
+
+    /**
+     * @return The number of rows (and columns) in each box
+     */
+    public int getBoxSize()
+    {
+        return geometry.boxSize;
+    }
+
+    /**
+     * @return The number of cells in the puzzle
+     */
+    int getCells()
+    {
+        return geometry.cells;
+    }
+
+    /**
+     * @return If the puzzle is solved or not
+     */
+    public boolean isSolved()
+    {
+        return solved;
+    }
+
+    /**
+     * Solves the puzzle. Singles are filled in first, and if that stalls the
+     * rest of the puzzle is searched (unless search has been turned off).
+     *
+     * @throws IllegalStateException if the puzzle has no solution
+     * @return if the puzzle is solved successfully
+     */
+    public boolean solve()
+    {
+        return solve(Engine.PROPAGATION);
+    }
+
+    /**
+     * Solves the puzzle with the given engine. The dancing links and bit
+     * parallel engines always search, whether or not search is turned on.
+     *
+     * @param engine The engine to solve with
+     * @throws IllegalStateException if the puzzle has no solution
+     * @return if the puzzle is solved successfully
+     */
+    public boolean solve(Engine engine)
+    {
+        return solve(engine, null);
+    }
+
+    /**
+     * Solves the puzzle with the given engine, stopping if it runs out of
+     * budget.
+     *
+     * @param engine The engine to solve with
+     * @param budget The limits on the solve, or null for none
+     * @throws IllegalStateException if the puzzle has no solution
+     * @throws BudgetExceededException if the budget runs out first, in which
+     * case the puzzle is left as it was
+     * @return if the puzzle is solved successfully
+     */
+    public boolean solve(Engine engine, Budget budget)
+    {
+        return trySolve(engine, budget).orThrow();
+    }
+
+    /**
+     * Solves the puzzle with the given engine, reporting how it went rather
+     * than throwing.
+     *
+     * @param engine The engine to solve with
+     * @return How the solve ended, and what it took
+     */
+    public SolveResult trySolve(Engine engine)
+    {
+        return trySolve(engine, null);
+    }
+
+    /**
+     * Solves the puzzle with the given engine, stopping if it runs out of
+     * budget, and reports how it went rather than throwing. A puzzle whose
+     * givens repeat a number is not solved at all. If the budget runs out the
+     * puzzle is left as it was.
+     *
+     * @param engine The engine to solve with
+     * @param budget The limits on the solve, or null for none
+     * @return How the solve ended, and what it took
+     */
+    public SolveResult trySolve(Engine engine, Budget budget)
+    {
+        resetCounts();
+        // the clock is only read if someone is going to look at it
+        boolean clocked = isTimed();
+        long began = clocked ? System.nanoTime() : 0;
+        Position conflict = getConflict();
+        SolveResult.Status status;
+        if (conflict != null)
+        {
+            status = SolveResult.Status.INVALID;
+        }
+        else
+        {
+            this.budget = budget;
+            stopped = false;
+            if (budget != null)
+            {
+                if (start == null)
+                {
+                    start = new long[grid.stateSize()];
+                }
+                grid.save(start);
+            }
+            status = solveWith(engine);
+            this.budget = null;
+            if (status == SolveResult.Status.EXCEEDED)
+            {
+                grid.restore(start);
+            }
+        }
+
+        long nanos = clocked ? System.nanoTime() - began : 0;
+        if (Metrics.isEnabled())
+        {
+            Metrics.record(this, nanos, status);
+        }
+        return new SolveResult(status, this, nanos, conflict);
+    }
+
+    private SolveResult.Status solveWith(Engine engine)
+    {
+        switch (engine)
+        {
+            case PROPAGATION:
+                return solveByPropagation();
+            case DANCING_LINKS:
+                return solveByDancingLinks();
+            case BIT_PARALLEL:
+                return solveByBitParallel();
+            case PARALLEL:
+                return solveByParallelSearch();
+            default:
+                throw new IllegalArgumentException(
+                        "Unrecognized engine: " + engine);
+        }
+    }
+
+    private SolveResult.Status solveByPropagation()
+    {
+//            System.out.println(this);
+        grid.markAll();
+        if (!propagate())
+        {
+            return deadEnd();
+        }
+        
+        // we can deduce no more, so guess if we are allowed to
+        if (mostConstrained() != -1)
+        {
+            if (!search)
+            {
+                // the puzzle is not solved
+                return SolveResult.Status.UNFINISHED;
+            }
+            if (frames == null)
+            {
+                frames = new long[geometry.cells][];
+            }
+            if (!search(0))
+            {
+                return deadEnd();
+            }
+        }
+        // all boxes have valid entries
+        solved = true;
+        return SolveResult.Status.SOLVED;
+    }
+
+    /**
+     * @return Why the propagation or search found nothing
+     */
+    private SolveResult.Status deadEnd()
+    {
+        return stopped ? SolveResult.Status.EXCEEDED
+                : SolveResult.Status.UNSOLVABLE;
+    }
+
+    private SolveResult.Status solveByDancingLinks()
+    {
+        // the givens were checked for conflicts first, which the matrix
+        // can't hold
+        if (dlx == null)
+        {
+            dlx = new DancingLinks(geometry, diag);
+        }
+        boolean found = dlx.solve(grid, budget);
+        nodes = dlx.getNodes();
+        backtracks = dlx.getBacktracks();
+        if (dlx.wasStopped())
+        {
+            return SolveResult.Status.EXCEEDED;
+        }
+        if (!found)
+        {
+            return SolveResult.Status.UNSOLVABLE;
+        }
+        solved = true;
+        return SolveResult.Status.SOLVED;
+    }
+
+    private SolveResult.Status solveByBitParallel()
+    {
+        if (bits == null)
+        {
+            bits = new BitParallel(geometry, diag);
+        }
+        boolean found = bits.solve(grid, budget);
+        nodes = bits.getNodes();
+        backtracks = bits.getBacktracks();
+        nakedSingles = bits.getNakedSingles();
+        hiddenSingles = bits.getHiddenSingles();
+        depth = bits.getDepth();
+        if (bits.wasStopped())
+        {
+            return SolveResult.Status.EXCEEDED;
+        }
+        if (!found)
+        {
+            return SolveResult.Status.UNSOLVABLE;
+        }
+        solved = true;
+        return SolveResult.Status.SOLVED;
+    }
+
+    /**
+     * Lists every solution of the puzzle, finding each one only when it is
+     * asked for. The search keeps its own stack instead of recursing, so it
+     * holds one snapshot of the grid per guess it is inside and nothing
+     * else. The puzzle itself is copied when this is called, so it can be
+     * changed afterwards without affecting the stream.
+     *
+     * The stream can be made parallel, in which case the guesses that have
+     * not been tried yet are handed out to other threads, so each thread
+     * searches its own part of the tree. The solutions then come in no
+     * particular order. Use {@link Stream#limit(long)} to stop after the
+     * first few.
+     *
+     * @return The solutions, each as a new puzzle. A puzzle with a repeated
+     * number has none.
+     */
+    public Stream<Puzzle> solutions()
+    {
+        return StreamSupport.stream(new Solutions(this), false);
+    }
+
+    /**
+     * The same as {@link #solutions()}, as an iterator.
+     *
+     * @return The solutions, each as a new puzzle
+     */
+    public Iterator<Puzzle> solutionIterator()
+    {
+        return Spliterators.iterator(new Solutions(this));
+    }
+
+    private SolveResult.Status solveByParallelSearch()
+    {
+        grid.markAll();
+        if (!propagate())
+        {
+            return deadEnd();
+        }
+        if (mostConstrained() == -1)
+        {
+            solved = true;
+            return SolveResult.Status.SOLVED;
+        }
+        if (!search)
+        {
+            return SolveResult.Status.UNFINISHED;
+        }
+        if (frames == null)
+        {
+            frames = new long[geometry.cells][];
+        }
+        if (frontierCells == null)
+        {
+            frontierCells = new int[geometry.cells];
+            frontierOptions = new long[geometry.cells];
+        }
+
+        // easy puzzles are solved before they would be worth splitting up
+        nodeLimit = PARALLEL_CUTOFF;
+        frontier = 0;
+        boolean found = search(0);
+        nodeLimit = Long.MAX_VALUE;
+        if (!found)
+        {
+            if (!stopped || nodes <= PARALLEL_CUTOFF)
+            {
+                // the whole tree was tried, or the budget ran out
+                return deadEnd();
+            }
+            // the rest of the tree hangs off the frames the search stopped in
+            stopped = false;
+            ParallelSearch parallel = new ParallelSearch(this, budget, nodes);
+            long[] solution = parallel.solve(frames, frontierCells,
+                    frontierOptions, frontier);
+            nodes += parallel.getNodes();
+            backtracks += parallel.getBacktracks();
+            nakedSingles += parallel.getNakedSingles();
+            hiddenSingles += parallel.getHiddenSingles();
+            depth = Math.max(depth, parallel.getDepth());
+            if (solution == null)
+            {
+                grid.restore(frames[0]);
+                return parallel.wasStopped() ? SolveResult.Status.EXCEEDED
+                        : SolveResult.Status.UNSOLVABLE;
+            }
+            grid.restore(solution);
+        }
+        solved = true;
+        return SolveResult.Status.SOLVED;
+    }
+
+    /**
+     * Counts the solutions of the puzzle, stopping as soon as limit of them
+     * have been found. Use a limit of 2 to check that a puzzle has exactly one
+     * solution. This uses the same deductions and search as solving, but
+     * never throws for a puzzle without a solution, and the puzzle is left
+     * exactly as it was.
+     *
+     * @param limit The number of solutions to stop at
+     * @throws IllegalArgumentException if the limit is less than 1
+     * @return The number of solutions, or the limit if there are at least
+     * that many. A puzzle with a repeated number has no solutions.
+     */
+    public int countSolutions(int limit)
+    {
+        if (limit < 1)
+        {
+            throw new IllegalArgumentException(
+                    "The limit must be at least 1: " + limit);
+        }
+        resetCounts();
+        if (grid.hasConflict())
+        {
+            return 0;
+        }
+
+        if (frames == null)
+        {
+            frames = new long[geometry.cells][];
+        }
+        if (start == null)
+        {
+            start = new long[grid.stateSize()];
+        }
+        grid.save(start);
+        grid.markAll();
+        int found = propagate() ? count(0, limit) : 0;
+        grid.restore(start);
+        return found;
+    }
+
+    /**
+     * Tests if the puzzle has a solution with something other than n in an
+     * empty cell. If the puzzle is known to have a solution with n there,
+     * this is the same as asking if it has more than one solution, but it
+     * doesn't have to find the known one first. Other solutions tend to
+     * differ from the known one in only a few cells, so the search tries its
+     * numbers first. Like counting, this never throws and leaves the puzzle
+     * as it was.
+     *
+     * @param cell The empty cell, in row major order from 0
+     * @param n The number to rule out
+     * @param solution The value of each cell in a known solution
+     * @return If there is a solution without n in the cell
+     */
+    boolean hasSolutionWithout(int cell, int n, int[] solution)
+    {
+        resetCounts();
+        if (frames == null)
+        {
+            frames = new long[geometry.cells][];
+        }
+        if (start == null)
+        {
+            start = new long[grid.stateSize()];
+        }
+        grid.save(start);
+
+        // only the cell changes, so the deductions start from it alone
+        grid.eliminate(cell, CandidateGrid.bit(n));
+        towards = solution;
+        try
+        {
+            return propagate() && count(0, 1) == 1;
+        }
+        finally
+        {
+            towards = null;
+            grid.restore(start);
+        }
+    }
+
+    /**
+     * Runs the deductions over the whole grid, for a search driven from
+     * outside the puzzle like {@link Solutions}.
+     *
+     * @return false if the puzzle was found to be unsolvable
+     */
+    boolean propagateAll()
+    {
+        if (grid.hasConflict())
+        {
+            return false;
+        }
+        grid.markAll();
+        return propagate();
+    }
+
+    /**
+     * Puts a number in an empty cell and runs the deductions that follow.
+     *
+     * @param cell The cell, in row major order from 0
+     * @param n The number to put there
+     * @return false if that made the puzzle unsolvable
+     */
+    boolean guess(int cell, int n)
+    {
+        nodes++;
+        grid.set(cell, n);
+        return propagate();
+    }
+
+    /**
+     * Searches on from the grid as it is, for one part of a search that has
+     * been split up like {@link ParallelSearch}. The deductions must already
+     * have been run.
+     *
+     * @param budget The limits on the search, or null for none
+     * @return If a solution was found, in which case it is left in the grid
+     */
+    boolean searchWith(Budget budget)
+    {
+        this.budget = budget;
+        stopped = false;
+        if (frames == null)
+        {
+            frames = new long[geometry.cells][];
+        }
+        boolean found = mostConstrained() == -1 || search(0);
+        this.budget = null;
+        return found;
+    }
+
+    /**
+     * @return If the last search stopped because its budget ran out
+     */
+    boolean wasStopped()
+    {
+        return stopped;
+    }
+
+    /**
+     * @param cell The cell, in row major order from 0
+     * @return The mask of numbers that could go there
+     */
+    long candidates(int cell)
+    {
+        return grid.candidates(cell);
+    }
+
+    int stateSize()
+    {
+        return grid.stateSize();
+    }
+
+    void save(long[] snapshot)
+    {
+        grid.save(snapshot);
+    }
+
+    void restore(long[] snapshot)
+    {
+        grid.restore(snapshot);
+    }
+
+    /**
+     * @return A copy of the puzzle, which is known to be solved
+     */
+    Puzzle solution()
+    {
+        Puzzle copy = deepCopy();
+        copy.solved = true;
+        return copy;
+    }
+
+    /**
+     * The same as {@link #search(int)}, but keeps going after a solution
+     * until limit have been found.
+     *
+     * @param depth The number of guesses already made
+     * @param limit The most solutions to look for
+     * @return The number of solutions found, at most limit. The grid is left
+     * in an unknown state.
+     */
+    private int count(int depth, int limit)
+    {
+        int cell = mostConstrained();
+        if (cell == -1)
+        {
+            return 1;
+        }
+
+        long[] saved = frames[depth];
+        if (saved == null)
+        {
+            saved = frames[depth] = new long[grid.stateSize()];
+        }
+        grid.save(saved);
+
+        int found = 0;
+        long options = grid.candidates(cell);
+        long first = towards == null ? 0
+                : options & CandidateGrid.bit(towards[cell]);
+        while (options != 0)
+        {
+            long bit = first != 0 ? first : options & -options;
+            options &= ~bit;
+            first = 0;
+
+            nodes++;
+            this.depth = Math.max(this.depth, depth + 1);
+            grid.set(cell, CandidateGrid.digit(bit));
+            if (propagate())
+            {
+                found += count(depth + 1, limit - found);
+                if (found >= limit)
+                {
+                    // no need to look any further
+                    return found;
+                }
+            }
+            backtracks++;
+            grid.restore(saved);
+        }
+        return found;
+    }
+
+    /**
+     * Runs the deductions until none of them can do anything else. Only the
+     * cells and units the grid has marked as changed are looked at, so the
+     * work follows the number of changes rather than the size of the grid.
+     * Anything that has to be looked at from scratch must be marked first.
+     *
+     * @return false if the puzzle was found to be unsolvable
+     */
+    private boolean propagate()
+    {
+        contradiction = false;
+        while (!contradiction
+                && (solveBySource() || solveBySink() || solveByTechniques()))
+        {
+            // wheee!
+//                System.out.println(this);
+            if (budget != null && budget.exceeded(nodes))
+            {
+                stopped = contradiction = true;
+            }
+            if (progress != null)
+            {
+                progress.update(this);
+            }
+        }
+        return !contradiction;
+    }
+
+    /**
+     * Depth first search over the cell with the fewest candidates. The grid is
+     * saved into a preallocated snapshot before each guess and copied back if
+     * the guess fails, so backtracking is one array copy and never allocates.
+     *
+     * @param depth The number of guesses already made
+     * @return If a solution was found. If not the grid is left as it was,
+     * unless the budget ran out.
+     */
+    private boolean search(int depth)
+    {
+        int cell = mostConstrained();
+        if (cell == -1)
+        {
+            // nothing left to fill
+            return true;
+        }
+
+        long[] saved = frames[depth];
+        if (saved == null)
+        {
+            saved = frames[depth] = new long[grid.stateSize()];
+        }
+        grid.save(saved);
+
+        long options = grid.candidates(cell);
+        while (options != 0)
+        {
+            long bit = random == null ? options & -options : pick(options);
+            options &= ~bit;
+
+            nodes++;
+            if (nodes > nodeLimit
+                    || budget != null && budget.exceeded(nodes))
+            {
+                stopped = true;
+                keepFrontier(depth, cell, options | bit);
+                return false;
+            }
+            if (progress != null)
+            {
+                progress.update(this);
+            }
+            this.depth = Math.max(this.depth, depth + 1);
+            grid.set(cell, CandidateGrid.digit(bit));
+            if (propagate() && search(depth + 1))
+            {
+                return true;
+            }
+            if (stopped)
+            {
+                // out of budget, the caller puts the grid back
+                keepFrontier(depth, cell, options);
+                return false;
+            }
+            backtracks++;
+            grid.restore(saved);
+        }
+        return false;
+    }
+
+    /**
+     * Notes what was left to try at one level of a search that stopped, if
+     * the parallel engine wants to carry on from there.
+     *
+     * @param depth The level, whose grid is in the frame for it
+     * @param cell The cell being guessed at that level
+     * @param options The candidates of the cell not tried yet
+     */
+    private void keepFrontier(int depth, int cell, long options)
+    {
+        if (frontierCells != null && nodeLimit != Long.MAX_VALUE)
+        {
+            frontierCells[depth] = cell;
+            frontierOptions[depth] = options;
+            frontier = Math.max(frontier, depth + 1);
+        }
+    }
+
+    /**
+     * @param options Some candidates
+     * @return One of them, picked at random
+     */
+    private long pick(long options)
+    {
+        long bit = options;
+        for (int skip = random.nextInt(Long.bitCount(options)); skip > 0; skip--)
+        {
+            bit &= bit - 1;
+        }
+        return bit & -bit;
+    }
+
+    private void resetCounts()
+    {
+        nodes = backtracks = 0;
+        nakedSingles = hiddenSingles = 0;
+        sinkPasses = sourcePasses = 0;
+        Arrays.fill(fired, 0);
+        depth = 0;
+    }
 
     /**
-     * Constructs a new puzzle with the given data. A -1 signifies an unknown
-     * entry in the table. All entries in the array should be between -1 and 9
-     *
-     * @param data An array containing the state of the puzzle
+     * @return The empty cell with the fewest candidates, or -1 if every cell
+     * is filled
      */
-    public Puzzle(int[][] data)
+    int mostConstrained()
     {
-        /**
-         * check validity *
-         */
-        for (int i = 0; i < data.length; i++)
+        int best = -1, bestCount = Integer.MAX_VALUE;
+        for (int cell = 0; cell < geometry.cells; cell++)
         {
-            for (int j = 0; j < data[i].length; j++)
+            if (grid.get(cell) != -1)
             {
-                // check location
-                checkBounds(j + 1, i + 1);
-                // check the contents of the array
-                checkRange(data[i][j]);
+                continue;
+            }
+            int count = Long.bitCount(grid.candidates(cell));
+            if (count < bestCount)
+            {
+                best = cell;
+                bestCount = count;
+                if (count <= 2)
+                {
+                    // can't do better than a binary choice
+                    break;
+                }
             }
         }
+        return best;
+    }
 
-        this.data = data;
-        solved = false;
+    /**
+     * @return The number of guesses made by the last solve
+     */
+    public long getNodes()
+    {
+        return nodes;
     }
 
     /**
-     * Gets the contents of a cell in the puzzle.
+     * @return The number of guesses the last solve had to undo
+     */
+    public long getBacktracks()
+    {
+        return backtracks;
+    }
+
+    /**
+     * @return The number of cells the last solve or count filled because
+     * only one number could go there
+     */
+    public long getNakedSingles()
+    {
+        return nakedSingles;
+    }
+
+    /**
+     * @return The number of cells the last solve or count filled because a
+     * number could only go there
+     */
+    public long getHiddenSingles()
+    {
+        return hiddenSingles;
+    }
+
+    /**
+     * @return The number of passes looking for naked singles in the last
+     * solve or count
+     */
+    public long getSinkPasses()
+    {
+        return sinkPasses;
+    }
+
+    /**
+     * @return The number of passes looking for hidden singles in the last
+     * solve or count
+     */
+    public long getSourcePasses()
+    {
+        return sourcePasses;
+    }
+
+    /**
+     * @param technique One of the deductions
+     * @return The number of times it took candidates away in the last solve
+     * or count
+     */
+    public long getFired(Technique technique)
+    {
+        return fired[technique.ordinal()];
+    }
+
+    /**
+     * @return The most guesses the last solve or count had made at once, 0
+     * if it never had to guess
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Makes the search try the candidates of each cell in a random order, so
+     * solving an empty puzzle gives a random solution.
      *
-     * @param row The row to get
-     * @param col The column to get
-     * @throws IllegalArgumentException if the position is invalid
-     * @return The value in that cell. If the cell is not filled returns a -1.
+     * @param random Where the order comes from, or null for the usual order
      */
-    public int get(int row, int col)
+    void setRandom(Random random)
     {
-        checkBounds(row, col);
-        return data[col - 1][row - 1];
+        this.random = random;
     }
 
     /**
-     * Gets the contents of a cell in the puzzle.
+     * Sets what is told about a solve while it goes on. Only the propagation
+     * engine fills in cells as it goes, so the others never call it.
      *
-     * @param p The position to get the value of
-     * @throws IllegalArgumentException if the position is invalid
-     * @return The value in that cell. If the cell is not filled returns a -1.
+     * @param progress What to tell, or null for nothing
      */
-    public int get(Position p)
+    public void setProgress(Progress progress)
     {
-        return get(p.row, p.col);
+        this.progress = progress;
     }
 
     /**
-     * Sets the entry at the given position to the given value.
+     * Turns the diagonal constraints on or off. The entries are kept.
      *
-     * @param row The row of the entry to set
-     * @param col The column of the entry to set
-     * @param n The value to set the the entry to
-     * @throws IllegalArgumentException if the position is not valid, or if the
-     * value is not valid
+     * @param diag If the diagonals have to contain each number once
      */
-    public void set(int row, int col, int n)
+    public void setDiagonal(boolean diag)
     {
-        checkBounds(row, col);
-        checkRange(n);
-        data[col - 1][row - 1] = n;
+        if (diag != this.diag)
+        {
+            this.diag = diag;
+            grid = new CandidateGrid(grid, diag);
+            frames = null;
+            dlx = null;
+            bits = null;
+            solved = false;
+        }
     }
 
     /**
-     * Sets the entry at the given position to the given value.
+     * @return If the diagonals have to contain each number once
+     */
+    public boolean isDiagonal()
+    {
+        return diag;
+    }
+
+    /**
+     * Turns guessing on or off. Without it, solve gives up once the
+     * deductions stop making progress.
      *
-     * @param p The position to set the value of
-     * @param n The value to set the the entry to
-     * @throws IllegalArgumentException if the position is not valid, or if the
-     * value is not valid
+     * @param search If the puzzle should be searched when deductions stall
      */
-    public void set(Position p, int n)
+    public void setSearch(boolean search)
     {
-        set(p.row, p.col, n);
+        this.search = search;
     }
 
     /**
-     * @return If the puzzle is solved or not
+     * @return If the puzzle will be searched when deductions stall
      */
-    public boolean isSolved()
+    public boolean usesSearch()
     {
-        return solved;
+        return search;
     }
 
     /**
-     * Solves the puzzle.
+     * Turns timing of solves on or off. Solves are always timed while
+     * metrics are being recorded, and otherwise only if this is on.
      *
-     * @return if the puzzle is solved successfully
+     * @param timed If solves should say how long they took
      */
-    public boolean solve()
+    public void setTimed(boolean timed)
     {
-//            System.out.println(this);
-        while (solveBySource() || solveBySink())
+        this.timed = timed;
+    }
+
+    /**
+     * @return If solves say how long they took
+     */
+    public boolean isTimed()
+    {
+        return timed || Metrics.isEnabled();
+    }
+
+    /**
+     * Turns one of the deductions past singles on or off.
+     *
+     * @param technique The deduction
+     * @param use If it should be run when the singles stall
+     */
+    public void setTechnique(Technique technique, boolean use)
+    {
+        if (use)
         {
-            // wheee!
-//                System.out.println(this);
+            techniques.add(technique);
         }
-        
-        // veryfiy the solution is valid
-        verify();
-        
-        // we can solve no more, check the state
-        for (int row = 1; row <= rows; row++)
+        else
+        {
+            techniques.remove(technique);
+        }
+    }
+
+    /**
+     * @param technique One of the deductions
+     * @return If it is run when the singles stall
+     */
+    public boolean usesTechnique(Technique technique)
+    {
+        return techniques.contains(technique);
+    }
+    
+    /**
+     * Finds a cell to blame if the puzzle is not consistent. Solving checks
+     * this first, and user input can be checked with it before solving.
+     *
+     * @return The first cell in reading order that repeats a number in one of
+     * its units, or null if there is none
+     */
+    public Position getConflict()
+    {
+        if (!grid.hasConflict())
+        {
+            return null;
+        }
+        for (int row = 1; row <= geometry.size; row++)
         {
-            for (int col = 1; col <= cols; col++)
+            for (int col = 1; col <= geometry.size; col++)
             {
-                int n = get(row, col);
-                if (n == -1)
+                if (!grid.isConsistent(geometry.cell(row, col)))
                 {
-                    // the puzzle is not solved
-                    return false;
+                    return new Position(row, col);
                 }
             }
         }
-        // all boxes have valid entries
-        solved = true;
-        return true;
+        return null;
     }
-    
-    private void verify()
+
+    /**
+     * Finds every cell that repeats a number in one of its units. This only
+     * scans the cells when there is a conflict somewhere, so it is cheap to
+     * call after each change.
+     *
+     * @return The cells in reading order, empty if there are none
+     */
+    public List<Position> getConflicts()
     {
-        for (int row = 1; row <= rows; row++)
+        if (!grid.hasConflict())
+        {
+            return Collections.emptyList();
+        }
+        List<Position> conflicts = new ArrayList<>();
+        for (int cell = 0; cell < geometry.cells; cell++)
         {
-            for (int col = 1; col <= cols; col++)
+            if (!grid.isConsistent(cell))
             {
-                int n = get(row, col);
-                set(row, col, -1);
-                if(n != -1 && !isLegal(row, col, n))
-                {
-                    // the puzzle is invalid
-                    throw new IllegalStateException("("+row+", "+col+"):"+n+" invalid");
-                }
-                set(row, col, n);
+                conflicts.add(geometry.position(cell));
             }
         }
+        return conflicts;
     }
 
     /**
-     * Only one number can fill a location. TUNNEL OF LIGHTS!!!
+     * Gets the numbers that could still go in a cell. These are kept up to
+     * date as cells are set, so this never has to search.
      *
-     * @return if the puzzle has changed
+     * @param p The position of the cell
+     * @throws IllegalArgumentException if the position is invalid
+     * @return A mask with bit n - 1 set if n could go there, or 0 if the cell
+     * is filled
      */
-    private boolean solveBySink()
+    public long getCandidates(Position p)
     {
-//            System.out.println("TUNNEL OF LIGHTS");
-        boolean changed = false;
+        checkBounds(p.row, p.col);
+        return grid.candidates(geometry.cell(p.row, p.col));
+    }
 
-        // loop through each box and rule out entries
-        for (int row = 1; row <= rows; row++)
+    /**
+     * Finds the next step the solver would take, without changing the puzzle.
+     * Hidden singles are looked for first, then naked singles, then the
+     * techniques that are turned on, in order.
+     *
+     * @return The step, or null if the puzzle is solved, has a conflict, or
+     * needs a guess
+     */
+    public Hint getHint()
+    {
+        if (grid.hasConflict())
         {
-            for (int col = 1; col <= cols; col++)
+            return null;
+        }
+        for (int unit = 0; unit < grid.unitCount(); unit++)
+        {
+            long missing = geometry.all & ~grid.placed(unit);
+            for (; missing != 0; missing &= missing - 1)
             {
-                if (get(row, col) != -1)
+                long bit = missing & -missing;
+                int n = CandidateGrid.digit(bit);
+                if (grid.places(unit, n) != 1)
                 {
-                    // there is already something in this box
                     continue;
                 }
-
-                Set<Integer> possible = new HashSet<>((int) (rows / .75));
-                for (int n = 1; n <= rows; n++)
+                for (int cell : geometry.unitCells(unit))
                 {
-                    if (isLegal(row, col, n))
+                    if ((grid.candidates(cell) & bit) != 0)
                     {
-                        possible.add(n);
+                        return new Hint("hidden single", n,
+                                Collections.singletonList(
+                                        geometry.position(cell)), null);
                     }
                 }
-
-                if (possible.isEmpty())
+            }
+        }
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            long possible = grid.candidates(cell);
+            if (grid.get(cell) == -1 && Long.bitCount(possible) == 1)
+            {
+                return new Hint("naked single", CandidateGrid.digit(possible),
+                        Collections.singletonList(geometry.position(cell)),
+                        null);
+            }
+        }
+        if (techniques.isEmpty())
+        {
+            return null;
+        }
+        if (deductions == null)
+        {
+            deductions = new Deductions(geometry);
+        }
+        for (Technique technique : techniques)
+        {
+            // run it on a copy and see which cells lost something
+            CandidateGrid trial = new CandidateGrid(grid);
+            if (deductions.apply(technique, trial) == 0)
+            {
+                continue;
+            }
+            List<Position> cells = new ArrayList<>();
+            long[] removed = new long[geometry.cells];
+            for (int cell = 0; cell < geometry.cells; cell++)
+            {
+                long lost = grid.candidates(cell) & ~trial.candidates(cell);
+                if (lost != 0)
                 {
-                    throw new IllegalStateException(
-                            "Puzzle is now unsolvable!");
+                    removed[cells.size()] = lost;
+                    cells.add(geometry.position(cell));
                 }
-                else
+            }
+            return new Hint(technique.name().replace('_', ' ')
+                    .toLowerCase(Locale.ROOT), -1, cells,
+                    Arrays.copyOf(removed, cells.size()));
+        }
+        return null;
+    }
+
+    /**
+     * Takes a step found by {@link #getHint()}: puts its number in its cell,
+     * or rules its candidates out so the next hint can build on them.
+     * Candidates ruled out this way come back when a cell is cleared.
+     *
+     * @param hint A hint from this puzzle, with nothing changed since
+     */
+    public void apply(Hint hint)
+    {
+        List<Position> cells = hint.getCells();
+        if (hint.getNumber() != -1)
+        {
+            set(cells.get(0), hint.getNumber());
+            return;
+        }
+        for (int i = 0; i < cells.size(); i++)
+        {
+            Position p = cells.get(i);
+            grid.eliminate(geometry.cell(p.row, p.col), hint.getRemoved(i));
+        }
+    }
+
+    /**
+     * Only one number can fill a location. TUNNEL OF LIGHTS!!!
+     *
+     * @return if the puzzle has changed
+     */
+    private boolean solveBySink()
+    {
+//            System.out.println("TUNNEL OF LIGHTS");
+        sinkPasses++;
+        boolean changed = false;
+
+        // go through each box that has lost options
+        for (int cell = grid.nextCell(); cell != -1; cell = grid.nextCell())
+        {
+            if (grid.get(cell) != -1)
+            {
+                // there is already something in this box
+                continue;
+            }
+
+            long possible = grid.candidates(cell);
+            if (possible == 0)
+            {
+                // nothing can go here
+                contradiction = true;
+                return false;
+            }
+            else
+            {
+                if (Long.bitCount(possible) == 1)
                 {
-                    if (possible.size() == 1)
-                    {
-                        set(row, col, possible.iterator().next());
-                        changed = true;
-                    }
+                    grid.set(cell, CandidateGrid.digit(possible));
+                    nakedSingles++;
+                    changed = true;
                 }
             }
         }
@@ -212,45 +1497,45 @@ public class Puzzle
     /**
      * A specific number can only go in one location. CALM ENERGY!!!!
      *
-     * @return
+     * @return if the puzzle has changed
      */
     private boolean solveBySource()
     {
 //            System.out.println("CALM ENERGY");
+        sourcePasses++;
         boolean changed = false;
 
-        // loop through each position
-        for (int col = 1; col <= cols; col++)
+        // go through each set of positions where a number is running out of
+        // places
+        for (int unit = grid.nextUnit(); unit != -1; unit = grid.nextUnit())
         {
-            position:
-            for (int row = 1; row <= rows; row++)
+            long missing = geometry.all & ~grid.placed(unit);
+            while (missing != 0)
             {
-                if (get(row, col) != -1)
+                long bit = missing & -missing;
+                missing &= missing - 1;
+
+                int n = CandidateGrid.digit(bit);
+                int places = grid.places(unit, n);
+                if (places == 0)
+                {
+                    // the number has nowhere to go
+                    contradiction = true;
+                    return false;
+                }
+                if (places > 1)
                 {
-                    // we already know what is in this position
                     continue;
                 }
-                // check if each number can go anywhere else
-                for (int n = 1; n <= rows; n++)
+                for (int cell : geometry.unitCells(unit))
                 {
-                    if (!isLegal(row, col, n))
-                    {
-                        // we can't put this number here
-                        continue;
-                    }
-
-                    for (PositionSet set :
-                            PositionSet.getAllSets(row, col, boxSize))
+                    if ((grid.candidates(cell) & bit) != 0)
                     {
-                        Set<Position> possible = getPossible(n, set);
-                        if (possible.size() == 1)
-                        {
-                            // there is only one possible position for n
-                            set(possible.iterator().next(), n);
-                            changed = true;
-                            // go to the next posiiton
-                            continue position;
-                        }
+                        // there is only one possible position for n
+                        grid.set(cell, n);
+                        hiddenSingles++;
+                        changed = true;
+                        break;
                     }
                 }
             }
@@ -260,63 +1545,27 @@ public class Puzzle
     }
 
     /**
-     * Gets all possible positions of the given number in the set.
+     * Runs the turned on techniques in order, stopping at the first one that
+     * rules anything out so the cheaper deductions get another go first.
      *
-     * @param n The number to check
-     * @param set The set of positions to check
-     * @return The set of positions the given number can fill in the given set
+     * @return if the puzzle has changed
      */
-    private Set<Position> getPossible(int n, PositionSet set)
+    private boolean solveByTechniques()
     {
-        Set<Position> possible = new HashSet<>((int) (rows / .75));
-
-        for (Position p : set)
+        if (contradiction || techniques.isEmpty())
         {
-            if (get(p) == -1 && isLegal(p.row, p.col, n))
-            {
-                possible.add(p);
-            }
+            return false;
         }
-
-        return possible;
-    }
-
-    /**
-     * Tests if the given change to the puzzle is legal.
-     *
-     * @param row The row to change
-     * @param col The col to change
-     * @param n The number to change it to
-     * @return If the change is legal
-     */
-    private boolean isLegal(int row, int col, int n)
-    {
-        for (PositionSet set : PositionSet.getAllSets(row, col, boxSize))
+        if (deductions == null)
         {
-            if (contains(set, n))
-            {
-                return false;
-            }
+            deductions = new Deductions(geometry);
         }
-
-        return true;
-    }
-
-    /**
-     * Tests if the given number appears in the given set of positions.
-     *
-     * @param set The set of positions to check
-     * @param n The number to look for
-     * @return If the number appears in the set of positions
-     */
-    private boolean contains(PositionSet set, int n)
-    {
-//            System.out.println(">>> contains");
-        for (Position p : set)
+        for (Technique technique : techniques)
         {
-//                System.out.println(">>>> checking " + p);
-            if (get(p) == n)
+            int found = deductions.apply(technique, grid);
+            if (found > 0)
             {
+                fired[technique.ordinal()] += found;
                 return true;
             }
         }
@@ -333,11 +1582,11 @@ public class Puzzle
      */
     private void checkBounds(int row, int col)
     {
-        if (row <= 0 || row > rows)
+        if (row <= 0 || row > geometry.size)
         {
             throw new IllegalArgumentException("Illegal row number: " + row);
         }
-        if (col <= 0 || col > cols)
+        if (col <= 0 || col > geometry.size)
         {
             throw new IllegalArgumentException(
                     "Illegal column number:" + col);
@@ -352,48 +1601,68 @@ public class Puzzle
      */
     private void checkRange(int n)
     {
-        if (n != -1 && (n <= 0 || n > rows))
+        if (n != -1 && (n <= 0 || n > geometry.size))
         {
             throw new IllegalArgumentException("Entries must be -1, "
-                    + "or between 1 and " + rows + ": " + n);
+                    + "or between 1 and " + geometry.size + ": " + n);
         }
     }
 
     @Override
     public String toString()
     {
-        String rowSep = "+-------+-------+-------+\n";
-        String out = rowSep;
-        for (int row = 1; row <= rows; row++)
+        int size = geometry.size, boxSize = geometry.boxSize;
+        StringBuilder rowSep = new StringBuilder("+");
+        for (int box = 0; box < boxSize; box++)
+        {
+            for (int i = 0; i <= 2 * boxSize; i++)
+            {
+                rowSep.append('-');
+            }
+            rowSep.append('+');
+        }
+        rowSep.append('\n');
+
+        StringBuilder out = new StringBuilder(rowSep);
+        for (int row = 1; row <= size; row++)
         {
-            out += "|";
-            for (int col = 1; col <= cols; col++)
+            out.append('|');
+            for (int col = 1; col <= size; col++)
             {
                 int n = get(col, row);
 //                    System.out.println(n);
-                if (n == -1)
-                {
-                    out += " .";
-                }
-                else
-                {
-                    out += " " + n;
-                }
+                out.append(' ').append(Geometry.symbol(n));
                 if ((col - 1) % boxSize == boxSize - 1)
                 {
 //                        System.out.println("putting |");
-                    out += " |";
+                    out.append(" |");
                 }
             }
-            out += "\n";
+            out.append('\n');
             if ((row - 1) % boxSize == boxSize - 1)
             {
 //                    System.out.println("putting row break");
-                out += rowSep;
+                out.append(rowSep);
             }
         }
 
-        return out;
+        return out.toString();
+    }
+
+    /**
+     * Writes the puzzle the way {@link #parse(CharSequence, boolean)} reads
+     * it: every cell in reading order on one line, with . for unknown cells.
+     *
+     * @return The puzzle as text
+     */
+    public String toText()
+    {
+        StringBuilder out = new StringBuilder(geometry.cells);
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            out.append(Geometry.symbol(grid.get(cell)));
+        }
+        return out.toString();
     }
 
     /**
@@ -402,16 +1671,10 @@ public class Puzzle
      */
     public Puzzle deepCopy()
     {
-        // data must be square
-        int[][] newData = new int[data.length][data.length];
-        // manual arraycopy because I don't know if the built in handles the 2d arrays right
-        for (int i = 0; i < newData.length; i++)
-        {
-            for (int j = 0; j < newData.length; j++)
-            {
-                newData[i][j] = data[i][j];
-            }
-        }
-        return new Puzzle(newData);
+        Puzzle copy = new Puzzle(new CandidateGrid(grid));
+        copy.search = search;
+        copy.timed = timed;
+        copy.techniques.addAll(techniques);
+        return copy;
     }
 }
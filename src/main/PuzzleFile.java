@@ -0,0 +1,704 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * A binary file of puzzles, read through memory mapped windows so even files
+ * of many gigabytes are read without copying them onto the heap or parsing
+ * any text. Records are decoded straight into a puzzle's grid or a batch
+ * solver's chunk.
+ *
+ * The file starts with a header: a magic number, the version, the box size,
+ * 1 if the diagonals are constrained, 1 if each puzzle is followed by its
+ * solution, and the number of puzzles, each a big endian int. The records
+ * follow, each a puzzle and then its solution if the file has them, packed
+ * the same way as in a {@link SolutionStore}: one cell per nibble (two per
+ * byte, the first cell high) for puzzles of up to 15 numbers and one cell per
+ * byte for bigger ones, 0 for an unknown cell. A normal puzzle takes 41 bytes.
+ * A puzzle with no solution has a solution of all zeros.
+ *
+ * A file is written with a {@link Writer}, and converted from and to the text
+ * format batch mode reads with {@link #fromText(File, File, int, boolean,
+ * Engine)} and {@link #toText(File, OutputStream, boolean)}. Reading is not
+ * thread safe, since the file keeps the window it last mapped.
+ *
+ * @author tobin
+ */
+public class PuzzleFile implements Closeable
+{
+    private static final int MAGIC = 0x53444b50, VERSION = 1;
+    private static final int HEADER = 24;
+    /**
+     * Roughly how much of the file is mapped at once
+     */
+    private static final int WINDOW = 1 << 26;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Geometry geometry;
+    private final boolean diag, solutions;
+    private final int count, width, record, windowRecords;
+    /**
+     * The mapped part of the file, and the first record in it
+     */
+    private MappedByteBuffer window;
+    private long first = -1;
+
+    private PuzzleFile(RandomAccessFile file) throws IOException
+    {
+        this.file = file;
+        channel = file.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        if (file.length() < HEADER || channel.read(header, 0) != HEADER
+                || header.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a puzzle file");
+        }
+        if (header.getInt(4) != VERSION)
+        {
+            throw new IOException("Unsupported puzzle file version: "
+                    + header.getInt(4));
+        }
+        try
+        {
+            geometry = Geometry.of(header.getInt(8));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new IOException(ex.getMessage());
+        }
+        diag = header.getInt(12) != 0;
+        solutions = header.getInt(16) != 0;
+        count = header.getInt(20);
+        width = width(geometry);
+        record = solutions ? 2 * width : width;
+        windowRecords = Math.max(1, WINDOW / record);
+        if (count < 0 || HEADER + (long) count * record > file.length())
+        {
+            throw new IOException("Puzzle file is corrupt");
+        }
+    }
+
+    /**
+     * Opens a puzzle file for reading.
+     *
+     * @param puzzles The file
+     * @throws IOException if the file can't be read or is not a puzzle file
+     * @return The file
+     */
+    public static PuzzleFile open(File puzzles) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(puzzles, "r");
+        try
+        {
+            return new PuzzleFile(file);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @param file A file
+     * @throws IOException if the file can't be read
+     * @return If the file starts like a puzzle file, rather than text
+     */
+    public static boolean isPuzzleFile(File file) throws IOException
+    {
+        if (!file.isFile() || file.length() < HEADER)
+        {
+            return false;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try
+        {
+            return in.readInt() == MAGIC;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * @return The number of rows (and columns) in each box
+     */
+    public int getBoxSize()
+    {
+        return geometry.boxSize;
+    }
+
+    /**
+     * @return If the diagonals are constrained
+     */
+    public boolean isDiagonal()
+    {
+        return diag;
+    }
+
+    /**
+     * @return If each puzzle is stored with its solution
+     */
+    public boolean hasSolutions()
+    {
+        return solutions;
+    }
+
+    /**
+     * @return The number of puzzles in the file
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Replaces every entry of a puzzle with one from the file.
+     *
+     * @param index The puzzle to read, from 0
+     * @param puzzle The puzzle to read it into, of the same shape as the file
+     * @throws IOException if the file can't be read
+     * @return false if the record holds a number too big for the puzzle, in
+     * which case the puzzle is left partly filled
+     */
+    public boolean read(int index, Puzzle puzzle) throws IOException
+    {
+        return decode(at(index), puzzle);
+    }
+
+    /**
+     * Replaces every entry of a puzzle with the solution of one from the
+     * file.
+     *
+     * @param index The puzzle whose solution to read, from 0
+     * @param puzzle The puzzle to read it into, of the same shape as the file
+     * @return false if the file has no solutions, the puzzle has no solution,
+     * or the record holds a number too big for the puzzle
+     * @throws IOException if the file can't be read, or the solution is
+     * missing some cells
+     */
+    public boolean readSolution(int index, Puzzle puzzle) throws IOException
+    {
+        if (!solutions)
+        {
+            return false;
+        }
+        int at = at(index) + width;
+        if (blank(at))
+        {
+            // the puzzle has no solution
+            return false;
+        }
+        if (!decode(at, puzzle))
+        {
+            return false;
+        }
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            if (puzzle.getCell(cell) == -1)
+            {
+                throw new IOException("Solution " + index + " is corrupt");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param at Where a grid starts in the window
+     * @return If every cell of the grid is 0, which is how a puzzle with no
+     * solution is stored
+     */
+    private boolean blank(int at)
+    {
+        for (int i = 0; i < width; i++)
+        {
+            if (window.get(at + i) != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the cells of a puzzle into an array, one per byte, 0 if unknown.
+     *
+     * @param index The puzzle to read, from 0
+     * @param cells Where the cells go
+     * @param offset Where the first cell goes
+     * @throws IOException if the file can't be read
+     * @return false if the record holds a number too big for the puzzle
+     */
+    boolean read(int index, byte[] cells, int offset) throws IOException
+    {
+        return unpack(at(index), cells, offset);
+    }
+
+    private boolean unpack(int at, byte[] cells, int offset)
+    {
+        ByteBuffer b = window;
+        int bad = 0;
+        if (geometry.size < 16)
+        {
+            int cell = 0;
+            for (int i = 0; i < width; i++)
+            {
+                int pair = b.get(at + i);
+                int high = pair >> 4 & 0xf, low = pair & 0xf;
+                cells[offset + cell++] = (byte) high;
+                bad |= geometry.size - high;
+                if (cell < geometry.cells)
+                {
+                    cells[offset + cell++] = (byte) low;
+                    bad |= geometry.size - low;
+                }
+            }
+        }
+        else
+        {
+            for (int cell = 0; cell < geometry.cells; cell++)
+            {
+                int n = b.get(at + cell) & 0xff;
+                cells[offset + cell] = (byte) n;
+                bad |= geometry.size - n;
+            }
+        }
+        // any number past the size made the difference negative
+        return bad >= 0;
+    }
+
+    private boolean decode(int at, Puzzle puzzle)
+    {
+        if (puzzle.getBoxSize() != geometry.boxSize
+                || puzzle.isDiagonal() != diag)
+        {
+            throw new IllegalArgumentException("Puzzle is not the shape of "
+                    + "the file");
+        }
+        puzzle.clear();
+        ByteBuffer b = window;
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            int n = geometry.size < 16
+                    ? b.get(at + cell / 2) >> (cell % 2 == 0 ? 4 : 0) & 0xf
+                    : b.get(at + cell) & 0xff;
+            if (n > geometry.size)
+            {
+                return false;
+            }
+            if (n != 0)
+            {
+                puzzle.setCell(cell, n);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps the window holding a record.
+     *
+     * @return Where the record starts in the window
+     */
+    private int at(int index) throws IOException
+    {
+        if (index < 0 || index >= count)
+        {
+            throw new IndexOutOfBoundsException("No puzzle " + index + " in "
+                    + count);
+        }
+        if (first < 0 || index < first || index >= first + windowRecords)
+        {
+            first = index - index % windowRecords;
+            long records = Math.min(windowRecords, count - first);
+            window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER + first * record, records * record);
+        }
+        return (int) (index - first) * record;
+    }
+
+    /**
+     * Closes the file. The mapping itself goes away once the file is no
+     * longer used.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        window = null;
+        file.close();
+    }
+
+    /**
+     * Starts a new puzzle file, replacing anything already there.
+     *
+     * @param puzzles The file to write
+     * @param boxSize The box size of the puzzles
+     * @param diag If the diagonals are constrained
+     * @param solutions If each puzzle is written with its solution
+     * @throws IOException if the file can't be written
+     * @return A writer for the puzzles, which must be closed to finish the
+     * file
+     */
+    public static Writer create(File puzzles, int boxSize, boolean diag,
+            boolean solutions) throws IOException
+    {
+        return new Writer(puzzles, Geometry.of(boxSize), diag, solutions);
+    }
+
+    /**
+     * Converts a file of puzzles in the text format batch mode reads. The
+     * puzzles are written to a file next to the puzzle file, which only
+     * replaces it once every line has been converted, so a bad line leaves
+     * nothing behind.
+     *
+     * @param text The puzzles as text, one per line
+     * @param puzzles The puzzle file to write
+     * @param boxSize The box size of the puzzles
+     * @param diag If the diagonals are constrained
+     * @param engine The engine to solve each puzzle with so its solution is
+     * stored too, or null to store only the puzzles
+     * @throws IOException if a file can't be read or written, or a line is
+     * not a puzzle
+     * @return The number of puzzles written
+     */
+    public static int fromText(File text, File puzzles, int boxSize,
+            boolean diag, Engine engine) throws IOException
+    {
+        File partial = File.createTempFile(puzzles.getName(), ".part",
+                puzzles.getAbsoluteFile().getParentFile());
+        try
+        {
+            int count = convert(text, partial, boxSize, diag, engine);
+            Files.move(partial.toPath(), puzzles.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            return count;
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            partial.delete();
+            throw ex;
+        }
+    }
+
+    private static int convert(File text, File puzzles, int boxSize,
+            boolean diag, Engine engine) throws IOException
+    {
+        Geometry geometry = Geometry.of(boxSize);
+        Puzzle puzzle = new Puzzle(boxSize, diag);
+        BufferedReader in = new BufferedReader(new FileReader(text));
+        Writer out = create(puzzles, boxSize, diag, engine != null);
+        try
+        {
+            String line;
+            for (int number = 1; (line = in.readLine()) != null; number++)
+            {
+                line = SolutionStore.strip(line);
+                if (line.isEmpty())
+                {
+                    continue;
+                }
+                if (line.length() != geometry.cells)
+                {
+                    throw new IOException("Line " + number
+                            + " is not a puzzle: " + line);
+                }
+                puzzle.clear();
+                for (int cell = 0; cell < geometry.cells; cell++)
+                {
+                    int n = Geometry.value(line.charAt(cell));
+                    if (n == 0 || n > geometry.size)
+                    {
+                        throw new IOException("Line " + number
+                                + " is not a puzzle: " + line);
+                    }
+                    if (n != -1)
+                    {
+                        puzzle.setCell(cell, n);
+                    }
+                }
+                out.add(puzzle);
+                if (engine != null)
+                {
+                    out.addSolution(puzzle.trySolve(engine).isSolved()
+                            ? puzzle : null);
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+        return out.getCount();
+    }
+
+    /**
+     * Converts a puzzle file to the text format batch mode reads and writes.
+     * The stream is not closed.
+     *
+     * @param puzzles The puzzle file
+     * @param text Where the lines go
+     * @param solutions If each line should be the solution of the puzzle,
+     * {@value BatchSolver#UNSOLVABLE} if it has none, rather than the puzzle
+     * @throws IOException if the file can't be read or the text written, or
+     * the file has no solutions and they were asked for
+     * @return The number of lines written
+     */
+    public static int toText(File puzzles, OutputStream text,
+            boolean solutions) throws IOException
+    {
+        PuzzleFile in = open(puzzles);
+        try
+        {
+            if (solutions && !in.hasSolutions())
+            {
+                throw new IOException("The puzzle file has no solutions");
+            }
+            int cells = in.geometry.cells;
+            byte[] line = new byte[cells + 1];
+            line[cells] = '\n';
+            byte[] unsolvable = (BatchSolver.UNSOLVABLE + "\n").getBytes();
+            byte[] buffer = new byte[Math.max(1 << 16, line.length)];
+            int used = 0;
+            for (int i = 0; i < in.count; i++)
+            {
+                int at = in.at(i) + (solutions ? in.width : 0);
+                byte[] out = line;
+                if (solutions && in.blank(at))
+                {
+                    out = unsolvable;
+                }
+                else
+                {
+                    in.unpack(at, line, 0);
+                    for (int cell = 0; cell < cells; cell++)
+                    {
+                        if (solutions && line[cell] == 0)
+                        {
+                            throw new IOException("Solution " + i
+                                    + " is corrupt");
+                        }
+                        line[cell] = (byte) Geometry.symbol(
+                                line[cell] == 0 ? -1 : line[cell]);
+                    }
+                }
+                if (used + out.length > buffer.length)
+                {
+                    text.write(buffer, 0, used);
+                    used = 0;
+                }
+                System.arraycopy(out, 0, buffer, used, out.length);
+                used += out.length;
+            }
+            text.write(buffer, 0, used);
+            text.flush();
+            return in.count;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * @return The bytes in a packed grid
+     */
+    static int width(Geometry geometry)
+    {
+        return geometry.size < 16 ? (geometry.cells + 1) / 2 : geometry.cells;
+    }
+
+    /**
+     * Packs a grid into bytes, one cell per nibble or per byte.
+     *
+     * @param cells The value of each cell, 0 or -1 if unknown
+     * @param geometry The shape of the grid
+     * @param packed Where to put the packed cells, which must be zeroed
+     * @param offset Where the first byte goes
+     */
+    static void pack(int[] cells, Geometry geometry, byte[] packed,
+            int offset)
+    {
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            int n = Math.max(cells[cell], 0);
+            if (geometry.size < 16)
+            {
+                packed[offset + cell / 2] |= n << (cell % 2 == 0 ? 4 : 0);
+            }
+            else
+            {
+                packed[offset + cell] = (byte) n;
+            }
+        }
+    }
+
+    /**
+     * Writes puzzles to a new puzzle file through a direct buffer. The count
+     * in the header is filled in when the writer is closed.
+     */
+    public static final class Writer implements Closeable
+    {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final Geometry geometry;
+        private final boolean diag, solutions;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private final int[] cells;
+        private final byte[] packed;
+        private int count;
+        /**
+         * If the next record written should be a solution
+         */
+        private boolean solutionNext;
+
+        private Writer(File puzzles, Geometry geometry, boolean diag,
+                boolean solutions) throws IOException
+        {
+            this.geometry = geometry;
+            this.diag = diag;
+            this.solutions = solutions;
+            cells = new int[geometry.cells];
+            packed = new byte[width(geometry)];
+            file = new RandomAccessFile(puzzles, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            writeHeader();
+            channel.position(HEADER);
+        }
+
+        private void writeHeader() throws IOException
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(geometry.boxSize)
+                    .putInt(diag ? 1 : 0).putInt(solutions ? 1 : 0)
+                    .putInt(count).flip();
+            channel.write(header, 0);
+        }
+
+        /**
+         * Writes the current entries of a puzzle. If the file has solutions,
+         * {@link #addSolution(Puzzle)} must be called next.
+         *
+         * @param puzzle The puzzle, of the same shape as the file
+         * @throws IOException if the file can't be written
+         */
+        public void add(Puzzle puzzle) throws IOException
+        {
+            if (solutionNext)
+            {
+                throw new IllegalStateException("Expected a solution");
+            }
+            if (count == Integer.MAX_VALUE)
+            {
+                throw new IOException("Too many puzzles for one file");
+            }
+            put(puzzle);
+            count++;
+            solutionNext = solutions;
+        }
+
+        /**
+         * Writes the solution of the puzzle just added.
+         *
+         * @param solved The puzzle with its solution filled in, or null if it
+         * has none
+         * @throws IOException if the file can't be written
+         */
+        public void addSolution(Puzzle solved) throws IOException
+        {
+            if (!solutionNext)
+            {
+                throw new IllegalStateException("Not expecting a solution");
+            }
+            put(solved);
+            solutionNext = false;
+        }
+
+        private void put(Puzzle puzzle) throws IOException
+        {
+            if (puzzle == null)
+            {
+                Arrays.fill(cells, 0);
+            }
+            else
+            {
+                if (puzzle.getBoxSize() != geometry.boxSize
+                        || puzzle.isDiagonal() != diag)
+                {
+                    throw new IllegalArgumentException(
+                            "Puzzle is not the shape of the file");
+                }
+                for (int cell = 0; cell < cells.length; cell++)
+                {
+                    cells[cell] = puzzle.getCell(cell);
+                }
+            }
+            Arrays.fill(packed, (byte) 0);
+            pack(cells, geometry, packed, 0);
+            if (buffer.remaining() < packed.length)
+            {
+                flush();
+            }
+            buffer.put(packed);
+        }
+
+        private void flush() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * @return The number of puzzles written so far
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Writes what is left and fills in the header.
+         *
+         * @throws IOException if the file can't be written
+         */
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                if (solutionNext)
+                {
+                    // the last puzzle never got its solution
+                    put(null);
+                    solutionNext = false;
+                }
+                flush();
+                writeHeader();
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+    }
+}
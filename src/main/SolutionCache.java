@@ -0,0 +1,396 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the solutions of recent puzzles. Puzzles are looked up by their
+ * canonical form, so a puzzle that is a rotation, reflection, relabelling or
+ * shuffle of one seen before is answered from the cache as well, by moving
+ * the stored solution back onto it.
+ *
+ * Finding the canonical form costs about half as much as solving an easy
+ * puzzle, so it is put off for as long as possible. A puzzle is first looked
+ * up exactly as it is, and then by its shape: a hash of what none of the
+ * moves change, like how many givens each row, column and box has and how
+ * often each number is given. A puzzle whose shape matches nothing in the
+ * cache can't be a copy of anything in it, so it is solved and stored
+ * without ever working out its canonical form. That is only done, for both
+ * puzzles, once two puzzles in the cache share a shape.
+ *
+ * The cache holds at most a fixed number of solutions and drops the one used
+ * least recently to make room. Puzzles found to have no solution are
+ * remembered too. It can be shared between threads.
+ *
+ * @author tobin
+ */
+public class SolutionCache
+{
+    /**
+     * Stored for puzzles that have no solution
+     */
+    private static final int[] UNSOLVABLE = new int[0];
+
+    private final int capacity;
+    /**
+     * Every entry by its puzzle exactly as it was given
+     */
+    private final LinkedHashMap<String, Entry> entries;
+    /**
+     * The entries by their shape
+     */
+    private final HashMap<Long, List<Entry>> shapes = new HashMap<>();
+    private long hits, misses, evictions;
+
+    /**
+     * @param capacity The most solutions to hold
+     */
+    public SolutionCache(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException(
+                    "Cache must hold at least one solution: " + capacity);
+        }
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> e)
+            {
+                if (size() > SolutionCache.this.capacity)
+                {
+                    evictions++;
+                    forget(e.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    /**
+     * Solves a puzzle, from the cache if it or a copy of it has been solved
+     * before. Puzzles that are not searched are solved as usual, since the
+     * cache only holds full solutions.
+     *
+     * @param puzzle The puzzle to solve
+     * @param engine The engine to solve it with if it is not in the cache
+     * @throws IllegalStateException if the puzzle has no solution
+     * @return if the puzzle is solved successfully
+     */
+    public boolean solve(Puzzle puzzle, Engine engine)
+    {
+        return solve(puzzle, engine, null);
+    }
+
+    /**
+     * Solves a puzzle like {@link #solve(Puzzle, Engine)}, limiting the solve
+     * if it is not in the cache. Nothing is stored for a solve that runs out
+     * of budget.
+     *
+     * @param puzzle The puzzle to solve
+     * @param engine The engine to solve it with if it is not in the cache
+     * @param budget The limits on the solve, or null for none
+     * @throws IllegalStateException if the puzzle has no solution
+     * @throws BudgetExceededException if the budget runs out first
+     * @return if the puzzle is solved successfully
+     */
+    public boolean solve(Puzzle puzzle, Engine engine, Budget budget)
+    {
+        return trySolve(puzzle, engine, budget).orThrow();
+    }
+
+    /**
+     * Solves a puzzle like {@link #solve(Puzzle, Engine, Budget)}, reporting
+     * how it went rather than throwing. Invalid puzzles are never looked up
+     * or stored.
+     *
+     * @param puzzle The puzzle to solve
+     * @param engine The engine to solve it with if it is not in the cache
+     * @param budget The limits on the solve, or null for none
+     * @return How the solve ended. For an answer from the cache no work is
+     * counted.
+     */
+    public SolveResult trySolve(Puzzle puzzle, Engine engine, Budget budget)
+    {
+        if (!puzzle.usesSearch() && (engine == Engine.PROPAGATION
+                || engine == Engine.PARALLEL) || !puzzle.isConsistent())
+        {
+            return puzzle.trySolve(engine, budget);
+        }
+
+        boolean clocked = puzzle.isTimed();
+        long began = clocked ? System.nanoTime() : 0;
+
+        Geometry geometry = Geometry.of(puzzle.getBoxSize());
+        boolean diag = puzzle.isDiagonal();
+        int[] cells = new int[puzzle.getCells()];
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            cells[cell] = puzzle.getCell(cell);
+        }
+        String exact = exactKey(cells, diag);
+        long shape = shape(geometry, diag, cells);
+
+        int[] known = null;
+        List<Entry> similar = null;
+        synchronized (this)
+        {
+            Entry same = entries.get(exact);
+            if (same != null)
+            {
+                known = same.solution;
+            }
+            else if (shapes.containsKey(shape))
+            {
+                similar = new ArrayList<>(shapes.get(shape));
+            }
+        }
+
+        // only a puzzle that could be a copy of one held pays for its form
+        Canonical form = null;
+        if (similar != null)
+        {
+            form = new Canonical(geometry, diag, cells);
+            for (Entry other : similar)
+            {
+                if (other.form().key().equals(form.key()))
+                {
+                    int[] moved = other.canonicalSolution();
+                    known = moved == UNSOLVABLE ? UNSOLVABLE
+                            : form.fromCanonical(moved);
+                    break;
+                }
+            }
+        }
+        count(known != null);
+
+        if (known == UNSOLVABLE)
+        {
+            return new SolveResult(SolveResult.Status.UNSOLVABLE,
+                    clocked ? System.nanoTime() - began : 0);
+        }
+        if (known != null)
+        {
+            puzzle.fill(known);
+            return new SolveResult(SolveResult.Status.SOLVED,
+                    clocked ? System.nanoTime() - began : 0);
+        }
+
+        SolveResult result = puzzle.trySolve(engine, budget);
+        if (result.getStatus() == SolveResult.Status.UNSOLVABLE)
+        {
+            store(new Entry(exact, shape, geometry, diag, cells, UNSOLVABLE,
+                    form));
+        }
+        else if (result.isSolved())
+        {
+            int[] solution = new int[cells.length];
+            for (int cell = 0; cell < cells.length; cell++)
+            {
+                solution[cell] = puzzle.getCell(cell);
+            }
+            store(new Entry(exact, shape, geometry, diag, cells, solution,
+                    form));
+        }
+        return result;
+    }
+
+    /**
+     * @return The puzzle as text, one character per cell
+     */
+    private static String exactKey(int[] cells, boolean diag)
+    {
+        char[] text = new char[cells.length + 1];
+        text[0] = diag ? 'd' : '-';
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            // -1 for unknown becomes 0, so every value is one character
+            text[cell + 1] = (char) (cells[cell] + 1);
+        }
+        return new String(text);
+    }
+
+    /**
+     * Hashes what none of the moves of {@link Canonical} change: how many
+     * rows, columns and boxes have each number of givens, and how many
+     * numbers are given each number of times. Rows and columns swap places
+     * when the puzzle is transposed, so they are hashed together in an order
+     * that doesn't depend on which is which.
+     *
+     * @return The same hash for every copy of the puzzle
+     */
+    private static long shape(Geometry geometry, boolean diag, int[] cells)
+    {
+        int n = geometry.size, b = geometry.boxSize;
+        // the givens in each row, column, box and of each number
+        int[] counts = new int[4 * n];
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            int v = cells[cell];
+            if (v == -1)
+            {
+                continue;
+            }
+            int row = cell / n, col = cell % n;
+            counts[row]++;
+            counts[n + col]++;
+            counts[2 * n + row / b * b + col / b]++;
+            counts[3 * n + v - 1]++;
+        }
+        // how many of each kind have each count, which doesn't depend on
+        // their order
+        int[] spread = new int[4 * (n + 1)];
+        for (int i = 0; i < counts.length; i++)
+        {
+            spread[i / n * (n + 1) + counts[i]]++;
+        }
+        long rows = 1, cols = 1, boxes = 1, numbers = 1;
+        for (int k = 0; k <= n; k++)
+        {
+            rows = rows * 31 + spread[k];
+            cols = cols * 31 + spread[n + 1 + k];
+            boxes = boxes * 31 + spread[2 * (n + 1) + k];
+            numbers = numbers * 31 + spread[3 * (n + 1) + k];
+        }
+        long hash = Math.min(rows, cols) * 31 + Math.max(rows, cols);
+        hash = hash * 31 + boxes;
+        hash = hash * 31 + numbers;
+        return hash * 31 + n * 2 + (diag ? 1 : 0);
+    }
+
+    private synchronized void count(boolean hit)
+    {
+        if (hit)
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+        }
+    }
+
+    private synchronized void store(Entry entry)
+    {
+        Entry old = entries.put(entry.exact, entry);
+        if (old != null)
+        {
+            forget(old);
+        }
+        List<Entry> similar = shapes.get(entry.shape);
+        if (similar == null)
+        {
+            similar = new ArrayList<>(1);
+            shapes.put(entry.shape, similar);
+        }
+        similar.add(entry);
+    }
+
+    /**
+     * Takes an entry out of the shapes. The caller must hold the lock.
+     */
+    private void forget(Entry entry)
+    {
+        List<Entry> similar = shapes.get(entry.shape);
+        similar.remove(entry);
+        if (similar.isEmpty())
+        {
+            shapes.remove(entry.shape);
+        }
+    }
+
+    /**
+     * Forgets every solution. The counts are kept.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        shapes.clear();
+    }
+
+    /**
+     * @return The number of solutions held
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of puzzles answered from the cache
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return The number of puzzles that had to be solved
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return The number of solutions dropped to make room
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * A solved puzzle as it was given. Its canonical form is only worked out
+     * when a puzzle with the same shape comes along.
+     */
+    private static final class Entry
+    {
+        final String exact;
+        final long shape;
+        final Geometry geometry;
+        final boolean diag;
+        final int[] givens, solution;
+        private Canonical form;
+        private int[] moved;
+
+        Entry(String exact, long shape, Geometry geometry, boolean diag,
+                int[] givens, int[] solution, Canonical form)
+        {
+            this.exact = exact;
+            this.shape = shape;
+            this.geometry = geometry;
+            this.diag = diag;
+            this.givens = givens;
+            this.solution = solution;
+            this.form = form;
+        }
+
+        synchronized Canonical form()
+        {
+            if (form == null)
+            {
+                form = new Canonical(geometry, diag, givens);
+            }
+            return form;
+        }
+
+        /**
+         * @return The solution moved into the canonical form
+         */
+        synchronized int[] canonicalSolution()
+        {
+            if (moved == null)
+            {
+                moved = solution == UNSOLVABLE ? UNSOLVABLE
+                        : form().toCanonical(solution);
+            }
+            return moved;
+        }
+    }
+}
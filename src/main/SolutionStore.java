@@ -0,0 +1,453 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A file of solved puzzles that is mapped into memory, so a process can answer
+ * every puzzle in it as soon as it opens the file, without reading it onto
+ * the heap. Puzzles are stored by their canonical form, so shuffled and
+ * relabelled copies of a stored puzzle are found as well.
+ *
+ * The file starts with a header: a magic number, the version, the box size,
+ * 1 if the diagonals are constrained, the number of hash slots and the number
+ * of records, each a big endian int. Next come the slots, each 0 if empty or
+ * one more than the index of a record, found by hashing the key and probing
+ * forward. Last are the records, each a key and a solution of the same fixed
+ * width. The key is the canonical puzzle and the solution is the canonical
+ * solution, one cell per nibble (two per byte, the first cell high) for
+ * puzzles of up to 15 numbers and one cell per byte for bigger ones, 0 for an
+ * unknown cell.
+ *
+ * A store is built from a file of puzzles with
+ * {@link #build(File, File, int, boolean, int)}, which solves them with the
+ * batch solver. Lookups can come from any number of threads.
+ *
+ * @author tobin
+ */
+public class SolutionStore implements Closeable
+{
+    private static final int MAGIC = 0x53444b53, VERSION = 1;
+    private static final int HEADER = 24;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final Geometry geometry;
+    private final boolean diag;
+    private final int slots, count, width, records;
+    private final AtomicLong hits = new AtomicLong(),
+            misses = new AtomicLong();
+
+    private SolutionStore(RandomAccessFile file, MappedByteBuffer buffer)
+            throws IOException
+    {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a solution store");
+        }
+        if (buffer.getInt(4) != VERSION)
+        {
+            throw new IOException("Unsupported store version: "
+                    + buffer.getInt(4));
+        }
+        try
+        {
+            geometry = Geometry.of(buffer.getInt(8));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new IOException(ex.getMessage());
+        }
+        diag = buffer.getInt(12) != 0;
+        slots = buffer.getInt(16);
+        count = buffer.getInt(20);
+        width = width(geometry);
+        records = HEADER + slots * 4;
+        if (Integer.bitCount(slots) != 1 || count < 0 || count >= slots
+                || (long) records + (long) count * 2 * width
+                > buffer.capacity())
+        {
+            throw new IOException("Solution store is corrupt");
+        }
+    }
+
+    /**
+     * Opens a store and maps it into memory.
+     *
+     * @param store The file holding the store
+     * @throws IOException if the file can't be read or is not a store
+     * @return The store
+     */
+    public static SolutionStore open(File store) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(store, "r");
+        try
+        {
+            if (file.length() > Integer.MAX_VALUE)
+            {
+                throw new IOException("Solution store is too big to map: "
+                        + file.length());
+            }
+            MappedByteBuffer buffer = file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, file.length());
+            return new SolutionStore(file, buffer);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Looks a puzzle up, and fills in its solution if the store has it.
+     *
+     * @param puzzle The puzzle to look up
+     * @return If the puzzle was found
+     */
+    public boolean find(Puzzle puzzle)
+    {
+        if (puzzle.getBoxSize() != geometry.boxSize
+                || puzzle.isDiagonal() != diag)
+        {
+            misses.incrementAndGet();
+            return false;
+        }
+        int[] cells = new int[geometry.cells];
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            cells[cell] = puzzle.getCell(cell);
+        }
+        Canonical form = new Canonical(geometry, diag, cells);
+        byte[] key = pack(form.givens(), geometry);
+
+        // a table with no empty slot, or one pointing past the records,
+        // could only come from a damaged file and counts as a miss
+        for (int probe = 0, slot = hash(key) & (slots - 1); probe < slots;
+                probe++, slot = (slot + 1) & (slots - 1))
+        {
+            int entry = buffer.getInt(HEADER + slot * 4);
+            if (entry < 1 || entry > count)
+            {
+                break;
+            }
+            int at = records + (entry - 1) * 2 * width;
+            if (matches(key, at))
+            {
+                unpack(at + width, cells);
+                puzzle.fill(form.fromCanonical(cells));
+                hits.incrementAndGet();
+                return true;
+            }
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Solves a puzzle from the store if it is there, and with the given
+     * engine if it is not.
+     *
+     * @param puzzle The puzzle to solve
+     * @param engine The engine to use if the puzzle is not stored
+     * @throws IllegalStateException if the puzzle has no solution
+     * @return if the puzzle is solved successfully
+     */
+    public boolean solve(Puzzle puzzle, Engine engine)
+    {
+        return find(puzzle) || puzzle.solve(engine);
+    }
+
+    /**
+     * @return The number of solutions in the store
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return The number of puzzles found in the store
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of puzzles looked up that were not in the store
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Closes the file. The mapping itself goes away once the store is no
+     * longer used.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    private boolean matches(byte[] key, int at)
+    {
+        for (int i = 0; i < width; i++)
+        {
+            if (buffer.get(at + i) != key[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void unpack(int at, int[] cells)
+    {
+        if (geometry.size < 16)
+        {
+            for (int cell = 0; cell < cells.length; cell++)
+            {
+                int b = buffer.get(at + cell / 2);
+                cells[cell] = (cell % 2 == 0 ? b >> 4 : b) & 0xf;
+            }
+        }
+        else
+        {
+            for (int cell = 0; cell < cells.length; cell++)
+            {
+                cells[cell] = buffer.get(at + cell) & 0xff;
+            }
+        }
+    }
+
+    /**
+     * Solves every puzzle in a file with the batch solver and writes the ones
+     * that have a solution to a new store. Repeats, including shuffled
+     * copies, are only stored once.
+     *
+     * @param puzzles The puzzles, in the format the batch solver reads
+     * @param store The file to write the store to
+     * @param boxSize The box size of the puzzles
+     * @param diag If the diagonals are constrained
+     * @param threads The number of threads to solve on
+     * @throws IOException if a file can't be read or written
+     * @return The number of solutions stored
+     */
+    public static int build(File puzzles, File store, int boxSize,
+            boolean diag, int threads) throws IOException
+    {
+        Geometry geometry = Geometry.of(boxSize);
+        int width = width(geometry);
+
+        File solutions = File.createTempFile("solutions", ".txt");
+        File keys = File.createTempFile("records", ".bin");
+        try
+        {
+            // solve everything first, in input order
+            InputStream in = new FileInputStream(puzzles);
+            OutputStream out = new FileOutputStream(solutions);
+            try
+            {
+                new BatchSolver(Engine.PROPAGATION, boxSize, diag, threads)
+                        .run(in, out);
+            }
+            finally
+            {
+                in.close();
+                out.close();
+            }
+
+            // then pair each puzzle with its solution, in canonical form
+            int count = 0;
+            BufferedReader questions = new BufferedReader(
+                    new FileReader(puzzles));
+            BufferedReader answers = new BufferedReader(
+                    new FileReader(solutions));
+            OutputStream records = new FileOutputStream(keys);
+            try
+            {
+                int[] cells = new int[geometry.cells];
+                int[] solved = new int[geometry.cells];
+                String question;
+                while ((question = questions.readLine()) != null)
+                {
+                    String line = strip(question);
+                    if (line.isEmpty())
+                    {
+                        continue;
+                    }
+                    String answer = answers.readLine();
+                    if (answer == null)
+                    {
+                        throw new IOException("Missing solution for " + line);
+                    }
+                    if (answer.length() != geometry.cells)
+                    {
+                        // unsolvable or invalid
+                        continue;
+                    }
+                    for (int cell = 0; cell < cells.length; cell++)
+                    {
+                        cells[cell] = Geometry.value(line.charAt(cell));
+                        solved[cell] = Geometry.value(answer.charAt(cell));
+                    }
+                    Canonical form = new Canonical(geometry, diag, cells);
+                    records.write(pack(form.givens(), geometry));
+                    records.write(pack(form.toCanonical(solved), geometry));
+                    count++;
+                }
+            }
+            finally
+            {
+                questions.close();
+                answers.close();
+                records.close();
+            }
+
+            return write(keys, store, geometry, diag, width, count);
+        }
+        finally
+        {
+            solutions.delete();
+            keys.delete();
+        }
+    }
+
+    /**
+     * Indexes the records and writes the store, leaving out repeated keys.
+     */
+    private static int write(File keys, File store, Geometry geometry,
+            boolean diag, int width, int count) throws IOException
+    {
+        int slots = Integer.highestOneBit(Math.max(1, count) * 2 - 1) * 2;
+        if ((long) HEADER + slots * 4L + (long) count * 2 * width
+                > Integer.MAX_VALUE)
+        {
+            throw new IOException("Too many puzzles for one store: " + count);
+        }
+
+        RandomAccessFile in = new RandomAccessFile(keys, "r");
+        RandomAccessFile out = new RandomAccessFile(store, "rw");
+        try
+        {
+            ByteBuffer records = in.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, in.length());
+            int[] table = new int[slots];
+            byte[] key = new byte[width], other = new byte[width];
+            int kept = 0;
+            int[] keptFrom = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                records.position(i * 2 * width);
+                records.get(key);
+                int slot = hash(key) & (slots - 1);
+                boolean repeat = false;
+                for (; table[slot] != 0; slot = (slot + 1) & (slots - 1))
+                {
+                    records.position(keptFrom[table[slot] - 1] * 2 * width);
+                    records.get(other);
+                    if (Arrays.equals(key, other))
+                    {
+                        repeat = true;
+                        break;
+                    }
+                }
+                if (!repeat)
+                {
+                    keptFrom[kept++] = i;
+                    table[slot] = kept;
+                }
+            }
+
+            out.setLength(0);
+            long size = HEADER + slots * 4L + (long) kept * 2 * width;
+            ByteBuffer header = ByteBuffer.allocate(HEADER + slots * 4);
+            header.putInt(MAGIC).putInt(VERSION).putInt(geometry.boxSize)
+                    .putInt(diag ? 1 : 0).putInt(slots).putInt(kept);
+            header.asIntBuffer().put(table);
+            out.write(header.array());
+            byte[] record = new byte[2 * width];
+            for (int i = 0; i < kept; i++)
+            {
+                records.position(keptFrom[i] * 2 * width);
+                records.get(record);
+                out.write(record);
+            }
+            if (out.length() != size)
+            {
+                throw new IOException("Store was not written fully");
+            }
+            return kept;
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * @return The bytes in a packed grid
+     */
+    private static int width(Geometry geometry)
+    {
+        return PuzzleFile.width(geometry);
+    }
+
+    private static byte[] pack(int[] cells, Geometry geometry)
+    {
+        byte[] packed = new byte[width(geometry)];
+        PuzzleFile.pack(cells, geometry, packed, 0);
+        return packed;
+    }
+
+    /**
+     * The 32 bit FNV-1a hash of a key.
+     */
+    private static int hash(byte[] key)
+    {
+        int hash = 0x811c9dc5;
+        for (byte b : key)
+        {
+            hash = (hash ^ (b & 0xff)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    /**
+     * Takes out the characters batch mode ignores.
+     */
+    static String strip(String line)
+    {
+        StringBuilder kept = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r')
+            {
+                kept.append(c);
+            }
+        }
+        return kept.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package main;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Walks the search tree of a puzzle one solution at a time. The depth first
+ * search of {@link Puzzle} is turned inside out: each guess the walk is inside
+ * of is a frame on an explicit stack, holding the grid from before the guess
+ * and the candidates not yet tried, so the walk can stop after any solution
+ * and carry on from there later.
+ *
+ * Splitting hands half of the untried candidates of the shallowest frame that
+ * has any to a new walk over a copy of the puzzle. The two walks then cover
+ * disjoint parts of the tree, and the parts near the root are the big ones.
+ *
+ * @author tobin
+ */
+final class Solutions implements Spliterator<Puzzle>
+{
+    /**
+     * The copy being searched, whose grid is the state of the walk
+     */
+    private final Puzzle puzzle;
+    /**
+     * The stack of frames. The grid before each guess is kept so trying the
+     * next candidate is one array copy.
+     */
+    private final long[][] saved;
+    private final int[] cells;
+    private final long[] untried;
+    private int top;
+    /**
+     * Set until the deductions have been run on the givens
+     */
+    private boolean unstarted = true;
+    /**
+     * Set when the givens alone fill the grid, so there is one solution left
+     * to hand out that no frame stands for
+     */
+    private boolean pending;
+
+    /**
+     * @param puzzle The puzzle to solve, which is copied and left alone
+     */
+    Solutions(Puzzle puzzle)
+    {
+        this.puzzle = puzzle.deepCopy();
+        int depth = puzzle.getCells();
+        saved = new long[depth][];
+        cells = new int[depth];
+        untried = new long[depth];
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Puzzle> action)
+    {
+        start();
+        if (pending)
+        {
+            pending = false;
+            action.accept(puzzle.solution());
+            return true;
+        }
+        while (top > 0)
+        {
+            int f = top - 1;
+            if (untried[f] == 0)
+            {
+                // every candidate at this level has been tried
+                top--;
+                continue;
+            }
+            long bit = untried[f] & -untried[f];
+            untried[f] &= ~bit;
+            puzzle.restore(saved[f]);
+            if (!puzzle.guess(cells[f], CandidateGrid.digit(bit)))
+            {
+                continue;
+            }
+            int cell = puzzle.mostConstrained();
+            if (cell == -1)
+            {
+                action.accept(puzzle.solution());
+                return true;
+            }
+            push(cell);
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<Puzzle> trySplit()
+    {
+        start();
+        for (int f = 0; f < top; f++)
+        {
+            int left = Long.bitCount(untried[f]);
+            // the last frame's only candidate is what this walk does next
+            if (left == 0 || (left == 1 && f == top - 1))
+            {
+                continue;
+            }
+            // the high half goes, since this walk tries the low ones first
+            long given = untried[f];
+            for (int i = left / 2; i > 0; i--)
+            {
+                given &= given - 1;
+            }
+            untried[f] &= ~given;
+
+            Solutions split = new Solutions(puzzle);
+            split.unstarted = false;
+            split.puzzle.restore(saved[f]);
+            split.push(cells[f]);
+            split.untried[0] = given;
+            return split;
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return top == 0 && !unstarted && !pending ? 0 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return NONNULL;
+    }
+
+    /**
+     * Runs the deductions on the givens and makes the first frame, the first
+     * time the walk is used.
+     */
+    private void start()
+    {
+        if (!unstarted)
+        {
+            return;
+        }
+        unstarted = false;
+        if (!puzzle.propagateAll())
+        {
+            return;
+        }
+        int cell = puzzle.mostConstrained();
+        if (cell == -1)
+        {
+            pending = true;
+        }
+        else
+        {
+            push(cell);
+        }
+    }
+
+    /**
+     * Saves the grid and makes a frame for guessing the cell.
+     */
+    private void push(int cell)
+    {
+        if (saved[top] == null)
+        {
+            saved[top] = new long[puzzle.stateSize()];
+        }
+        puzzle.save(saved[top]);
+        cells[top] = cell;
+        untried[top] = puzzle.candidates(cell);
+        top++;
+    }
+}
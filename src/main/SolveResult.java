@@ -0,0 +1,188 @@
+package main;
+
+/**
+ * How a solve ended, and what it took to get there. A solve reports a dead
+ * end as a status rather than throwing, so asking for a result never throws
+ * for a bad or unsolvable puzzle.
+ *
+ * @author tobin
+ */
+public final class SolveResult
+{
+    /**
+     * The ways a solve can end.
+     */
+    public enum Status
+    {
+        /**
+         * Every cell is filled in
+         */
+        SOLVED,
+        /**
+         * The puzzle has no solution
+         */
+        UNSOLVABLE,
+        /**
+         * The givens repeat a number in a unit, so nothing was tried
+         */
+        INVALID,
+        /**
+         * The deductions stalled and search was turned off
+         */
+        UNFINISHED,
+        /**
+         * The budget ran out first
+         */
+        EXCEEDED
+    }
+
+    private final Status status;
+    private final long nodes, backtracks, nakedSingles, hiddenSingles;
+    private final int depth;
+    private final long nanos;
+    private final Position conflict;
+
+    /**
+     * Takes the counts of the solve from the puzzle.
+     *
+     * @param status How the solve ended
+     * @param puzzle The puzzle that was solved
+     * @param nanos How long it took
+     * @param conflict The first cell that repeats a number, for an invalid
+     * puzzle
+     */
+    SolveResult(Status status, Puzzle puzzle, long nanos, Position conflict)
+    {
+        this.status = status;
+        nodes = puzzle.getNodes();
+        backtracks = puzzle.getBacktracks();
+        nakedSingles = puzzle.getNakedSingles();
+        hiddenSingles = puzzle.getHiddenSingles();
+        depth = puzzle.getDepth();
+        this.nanos = nanos;
+        this.conflict = conflict;
+    }
+
+    /**
+     * Makes the result of a solve that was answered without any work, like
+     * one found in a cache.
+     *
+     * @param status How the solve ended
+     * @param nanos How long it took
+     */
+    SolveResult(Status status, long nanos)
+    {
+        this.status = status;
+        nodes = backtracks = nakedSingles = hiddenSingles = 0;
+        depth = 0;
+        this.nanos = nanos;
+        conflict = null;
+    }
+
+    /**
+     * @return How the solve ended
+     */
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return If every cell was filled in
+     */
+    public boolean isSolved()
+    {
+        return status == Status.SOLVED;
+    }
+
+    /**
+     * @return The number of guesses made
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * @return The number of guesses that had to be undone
+     */
+    public long getBacktracks()
+    {
+        return backtracks;
+    }
+
+    /**
+     * @return The number of cells filled because only one number could go
+     * there
+     */
+    public long getNakedSingles()
+    {
+        return nakedSingles;
+    }
+
+    /**
+     * @return The number of cells filled because a number could only go there
+     */
+    public long getHiddenSingles()
+    {
+        return hiddenSingles;
+    }
+
+    /**
+     * @return The most guesses made at once
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return How long the solve took in nanoseconds, or 0 if the puzzle was
+     * not timed
+     * @see Puzzle#setTimed(boolean)
+     */
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    /**
+     * @return The first cell, in reading order, that repeats a number in one
+     * of its units if the puzzle was invalid, otherwise null
+     */
+    public Position getConflict()
+    {
+        return conflict;
+    }
+
+    /**
+     * Turns the result into the answer {@link Puzzle#solve(Engine)} gives,
+     * for callers that want a dead end to throw.
+     *
+     * @throws IllegalStateException if the puzzle was invalid or has no
+     * solution
+     * @throws BudgetExceededException if the budget ran out
+     * @return If the puzzle was solved
+     */
+    boolean orThrow()
+    {
+        switch (status)
+        {
+            case UNSOLVABLE:
+                throw new IllegalStateException("Puzzle is now unsolvable!");
+            case INVALID:
+                throw new IllegalStateException(conflict + " invalid");
+            case EXCEEDED:
+                throw new BudgetExceededException(nodes);
+            default:
+                return status == Status.SOLVED;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return status + (conflict == null ? "" : " at " + conflict) + " after "
+                + nodes + " nodes and " + backtracks + " backtracks";
+    }
+}
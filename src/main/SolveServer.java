@@ -0,0 +1,476 @@
+package main;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solves puzzles over HTTP, without a window. A POST to /solve sends one
+ * puzzle or a batch of them, one per line in the format batch mode reads, and
+ * gets back one line per puzzle in the same order, the same as batch mode
+ * writes. The query can hold diag=true and size=n for puzzles that are not
+ * the server's default kind, and timeout=ms and nodes=n to limit each puzzle
+ * more tightly than the server does. A GET of /stats gives the request
+ * counts, and a GET of /metrics gives the solver {@link Metrics} as JSON.
+ *
+ * Only a fixed number of requests are solved at once, one per solver thread.
+ * A few more can wait for a solver, and past that the server answers 503
+ * with a Retry-After header straight away, so clients back off rather than
+ * piling up. If even the waiting handlers are all busy, new connections are
+ * handled on the thread that accepts them, which stops the server accepting
+ * until a handler is free.
+ *
+ * @author tobin
+ */
+public class SolveServer
+{
+    private static final int BAD_REQUEST = 400, BAD_METHOD = 405,
+            BUSY = 503;
+
+    private final Engine engine;
+    private final int boxSize;
+    private final boolean diag;
+    private final int threads, queue;
+    private final EnumSet<Technique> techniques =
+            EnumSet.noneOf(Technique.class);
+    private SolutionCache cache;
+    private SolutionStore store;
+    /**
+     * The limits on each puzzle, 0 for none
+     */
+    private long timeout, nodes;
+
+    /**
+     * A permit for each solver thread, and the requests holding or waiting
+     * for one
+     */
+    private final Semaphore solvers;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong served = new AtomicLong(),
+            rejected = new AtomicLong(), failed = new AtomicLong(),
+            puzzles = new AtomicLong(), exceeded = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    /**
+     * @param engine The engine to solve with
+     * @param boxSize The box size of puzzles that don't give a size
+     * @param diag If puzzles that don't say have diagonal constraints
+     * @param threads The number of requests solved at once
+     * @param queue The number of requests that may wait for a solver
+     */
+    public SolveServer(Engine engine, int boxSize, boolean diag, int threads,
+            int queue)
+    {
+        if (threads < 1 || queue < 0)
+        {
+            throw new IllegalArgumentException("Need at least one thread and "
+                    + "no negative queue: " + threads + ", " + queue);
+        }
+        Geometry.of(boxSize);
+        this.engine = engine;
+        this.boxSize = boxSize;
+        this.diag = diag;
+        this.threads = threads;
+        this.queue = queue;
+        solvers = new Semaphore(threads, true);
+    }
+
+    /**
+     * Turns one of the deductions past singles on or off. This must be called
+     * before the server starts.
+     *
+     * @param technique The deduction
+     * @param use If it should be run when the singles stall
+     */
+    public void setTechnique(Technique technique, boolean use)
+    {
+        if (use)
+        {
+            techniques.add(technique);
+        }
+        else
+        {
+            techniques.remove(technique);
+        }
+    }
+
+    /**
+     * Shares a cache between all requests. This must be called before the
+     * server starts.
+     *
+     * @param cache The cache to use, or null to always solve
+     */
+    public void setCache(SolutionCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Looks puzzles up in a store of known solutions first. This must be
+     * called before the server starts.
+     *
+     * @param store The store to use, or null to always solve
+     */
+    public void setStore(SolutionStore store)
+    {
+        this.store = store;
+    }
+
+    /**
+     * Limits how long each puzzle may take. Requests can lower the limits but
+     * not raise them. This must be called before the server starts.
+     *
+     * @param millis How long each puzzle may take, or 0 for no limit
+     * @param nodes The most search nodes each puzzle may try, or 0 for no
+     * limit
+     */
+    public void setBudget(long millis, long nodes)
+    {
+        if (millis < 0 || nodes < 0)
+        {
+            throw new IllegalArgumentException("Limits can't be negative: "
+                    + millis + ", " + nodes);
+        }
+        timeout = millis;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Starts answering requests.
+     *
+     * @param address Where to listen
+     * @throws IOException if the server can't listen there
+     */
+    public synchronized void start(InetSocketAddress address)
+            throws IOException
+    {
+        if (server != null)
+        {
+            throw new IllegalStateException("Server is already running");
+        }
+        // answers are streamed in chunks, and without this the last chunk
+        // can sit waiting for a delayed ack
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(address, queue + threads);
+        server.createContext("/solve", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                solve(exchange);
+            }
+        });
+        server.createContext("/metrics", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    if (!isGet(exchange))
+                    {
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("Content-Type",
+                            "application/json");
+                    reply(exchange, 200, Metrics.toJson());
+                }
+                finally
+                {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/stats", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                stats(exchange);
+            }
+        });
+        // one handler for each solver and each waiting request, plus one to
+        // turn the rest away
+        handlers = new ThreadPoolExecutor(0, threads + queue + 1, 60,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    /**
+     * Stops the server, giving requests that are being solved a moment to
+     * finish.
+     *
+     * @param seconds How long to wait for them
+     */
+    public synchronized void stop(int seconds)
+    {
+        if (server == null)
+        {
+            return;
+        }
+        server.stop(seconds);
+        handlers.shutdownNow();
+        server = null;
+        handlers = null;
+    }
+
+    /**
+     * @return The port the server is listening on, which is useful if it was
+     * started on port 0
+     */
+    public synchronized int getPort()
+    {
+        if (server == null)
+        {
+            throw new IllegalStateException("Server is not running");
+        }
+        return server.getAddress().getPort();
+    }
+
+    private void solve(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!exchange.getRequestMethod().equals("POST"))
+            {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                reply(exchange, BAD_METHOD, "Puzzles must be POSTed\n");
+                return;
+            }
+
+            int size = boxSize;
+            boolean diagonal = diag;
+            long millis = timeout, limit = nodes;
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null)
+            {
+                for (String pair : query.split("&"))
+                {
+                    String[] parts = pair.split("=", 2);
+                    String value = parts.length > 1 ? parts[1] : "true";
+                    try
+                    {
+                        if (parts[0].equals("diag"))
+                        {
+                            diagonal = Boolean.parseBoolean(value);
+                        }
+                        else if (parts[0].equals("size"))
+                        {
+                            size = Geometry.ofSize(
+                                    Integer.parseInt(value)).boxSize;
+                        }
+                        else if (parts[0].equals("timeout"))
+                        {
+                            millis = lower(millis, Long.parseLong(value));
+                        }
+                        else if (parts[0].equals("nodes"))
+                        {
+                            limit = lower(limit, Long.parseLong(value));
+                        }
+                    }
+                    catch (IllegalArgumentException ex)
+                    {
+                        reply(exchange, BAD_REQUEST, ex.getMessage() + "\n");
+                        return;
+                    }
+                }
+            }
+
+            if (active.incrementAndGet() > threads + queue)
+            {
+                active.decrementAndGet();
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                reply(exchange, BUSY, "Too busy, try again later\n");
+                return;
+            }
+            try
+            {
+                solvers.acquire();
+                try
+                {
+                    run(exchange, size, diagonal, millis, limit);
+                }
+                finally
+                {
+                    solvers.release();
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                failed.incrementAndGet();
+            }
+            finally
+            {
+                active.decrementAndGet();
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Solves the puzzles in a request, streaming the solutions back as they
+     * are found.
+     */
+    private void run(HttpExchange exchange, int size, boolean diagonal,
+            long millis, long limit) throws IOException
+    {
+        BatchSolver solver = new BatchSolver(engine, size, diagonal, 1);
+        solver.setBudget(millis, TimeUnit.MILLISECONDS, limit);
+        for (Technique technique : techniques)
+        {
+            solver.setTechnique(technique, true);
+        }
+        solver.setCache(cache);
+        solver.setStore(store);
+
+        exchange.getResponseHeaders().set("Content-Type",
+                "text/plain; charset=us-ascii");
+        exchange.sendResponseHeaders(200, 0);
+        InputStream in = exchange.getRequestBody();
+        OutputStream out = exchange.getResponseBody();
+        try
+        {
+            solver.run(in, out);
+            served.incrementAndGet();
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            failed.incrementAndGet();
+            throw ex;
+        }
+        finally
+        {
+            puzzles.addAndGet(solver.getSolved() + solver.getUnsolvable()
+                    + solver.getInvalid() + solver.getExceeded());
+            exceeded.addAndGet(solver.getExceeded());
+        }
+    }
+
+    /**
+     * @param limit The server's limit, 0 for none
+     * @param asked The limit a request asked for, 0 for none
+     * @throws IllegalArgumentException if the asked limit is negative
+     * @return The tighter of the two
+     */
+    private static long lower(long limit, long asked)
+    {
+        if (asked < 0)
+        {
+            throw new IllegalArgumentException(
+                    "Limits can't be negative: " + asked);
+        }
+        if (asked == 0)
+        {
+            return limit;
+        }
+        return limit == 0 ? asked : Math.min(limit, asked);
+    }
+
+    private void stats(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!isGet(exchange))
+            {
+                return;
+            }
+            StringBuilder text = new StringBuilder();
+            text.append("served ").append(served.get()).append('\n');
+            text.append("rejected ").append(rejected.get()).append('\n');
+            text.append("failed ").append(failed.get()).append('\n');
+            text.append("puzzles ").append(puzzles.get()).append('\n');
+            text.append("exceeded ").append(exceeded.get()).append('\n');
+            text.append("active ").append(active.get()).append('\n');
+            if (cache != null)
+            {
+                text.append("cache hits ").append(cache.getHits())
+                        .append('\n');
+                text.append("cache misses ").append(cache.getMisses())
+                        .append('\n');
+                text.append("cache evictions ").append(cache.getEvictions())
+                        .append('\n');
+            }
+            if (store != null)
+            {
+                text.append("store hits ").append(store.getHits())
+                        .append('\n');
+                text.append("store misses ").append(store.getMisses())
+                        .append('\n');
+            }
+            reply(exchange, 200, text.toString());
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Turns away a request for a page that can only be read, with no body.
+     *
+     * @return If the request was a GET
+     */
+    private static boolean isGet(HttpExchange exchange) throws IOException
+    {
+        if (exchange.getRequestMethod().equals("GET"))
+        {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", "GET");
+        exchange.sendResponseHeaders(BAD_METHOD, -1);
+        return false;
+    }
+
+    private static void reply(HttpExchange exchange, int code, String text)
+            throws IOException
+    {
+        byte[] body = text.getBytes("US-ASCII");
+        if (!exchange.getResponseHeaders().containsKey("Content-Type"))
+        {
+            exchange.getResponseHeaders().set("Content-Type",
+                    "text/plain; charset=us-ascii");
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * @return The number of requests answered in full
+     */
+    public long getServed()
+    {
+        return served.get();
+    }
+
+    /**
+     * @return The number of requests turned away because the server was busy
+     */
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+}
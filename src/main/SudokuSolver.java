@@ -1,7 +1,16 @@
 package main;
 
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 import javax.swing.LookAndFeel;
 import javax.swing.UIManager;
 import ui.SudokuFrame;
@@ -13,51 +22,105 @@ import ui.SudokuFrame;
 public class SudokuSolver
 {
 
-    private static final int[][] EMPTY = 
-    {
-        {-1, -1, -1,   -1, -1, -1,   -1, -1, -1},
-        {-1, -1, -1,   -1, -1, -1,   -1, -1, -1},
-        {-1, -1, -1,   -1, -1, -1,   -1, -1, -1},
-        
-        {-1, -1, -1,   -1, -1, -1,   -1, -1, -1},
-        {-1, -1, -1,   -1, -1, -1,   -1, -1, -1},
-        {-1, -1, -1,   -1, -1, -1,   -1, -1, -1},
-        
-        {-1, -1, -1,   -1, -1, -1,   -1, -1, -1},
-        {-1, -1, -1,   -1, -1, -1,   -1, -1, -1},
-        {-1, -1, -1,   -1, -1, -1,   -1, -1, -1}
-    };
-    
     /**
+     * With no arguments this opens the window for a normal 9 by 9 puzzle, and
+     * -size n opens it for an n by n puzzle. To solve a file of puzzles
+     * without a window use
+     * <pre>
+     * -batch [-diag] [-size n]
+     *     [-engine PROPAGATION|DANCING_LINKS|BIT_PARALLEL|PARALLEL]
+     *     [-techniques all|NAME,NAME...] [-cache n] [-store file]
+     *     [-metrics text|json] [-timeout ms] [-nodes n] [-threads n]
+     *     [in [out]]
+     * </pre>
+     * where in and out default to standard in and out, and - also means the
+     * standard streams. By default every core is used. The PARALLEL engine
+     * spreads each hard puzzle over every core itself, so it goes best with
+     * -threads 1. With -cache the last n solutions are kept, so repeats and
+     * shuffled copies of a puzzle are not solved again, and with -store
+     * puzzles are looked up in a store of solutions first. With -metrics the
+     * solver {@link Metrics} are written to standard error at the end. With
+     * -timeout or -nodes each puzzle may only take so long or try so many
+     * search nodes, and puzzles that run out are written as exceeded. To
+     * build a store use
+     * <pre>
+     * -store [-diag] [-size n] [-threads n] in store
+     * </pre>
+     * which solves every puzzle in the in file. To convert text puzzles to
+     * the binary {@link PuzzleFile} format, which batch mode also reads, and
+     * back again use
+     * <pre>
+     * -pack [-diag] [-size n] [-solve] in out
+     * -unpack [-solutions] in [out]
+     * </pre>
+     * where -solve stores the solution of each puzzle as well, and
+     * -solutions writes them instead of the puzzles. To answer puzzles over
+     * HTTP without a window use
+     * <pre>
+     * -serve [-port p] [-diag] [-size n] [-engine E] [-techniques T]
+     *     [-cache n] [-store file] [-metrics] [-timeout ms] [-nodes n]
+     *     [-threads n] [-queue n]
+     * </pre>
+     * which solves on as many threads as there are cores and lets 4 requests
+     * per thread wait by default, and -metrics turns on the metrics it serves.
+     * The limits on each puzzle are the same as in batch mode.
+     * See {@link SolveServer} for the protocol. The size must be a
+     * square, like 4, 9, 16 or 25. To make new puzzles use
+     * <pre>
+     * -generate count [-diag] [-size n]
+     *     [-difficulty EASY|MEDIUM|HARD|FIENDISH] [-seed s] [-threads n]
+     *     [out]
+     * </pre>
+     * which writes one puzzle per line in the format batch mode reads. The
+     * same seed always gives the same puzzles.
+     *
      * @param args the command line arguments
-     * @throws java.io.FileNotFoundException
+     * @throws java.io.IOException if the batch files can't be read or written
      */
-    public static void main(String[] args) throws FileNotFoundException
+    public static void main(String[] args) throws IOException
     {
+        if (args.length > 0 && args[0].equals("-batch"))
+        {
+            batch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-serve"))
+        {
+            serve(args);
+            return;
+        }
+        if (args.length > 2 && args[0].equals("-store"))
+        {
+            store(args);
+            return;
+        }
+        if (args.length > 2 && args[0].equals("-pack"))
+        {
+            pack(args);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("-unpack"))
+        {
+            unpack(args);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("-generate"))
+        {
+            generate(args);
+            return;
+        }
+
+        int boxSize = Puzzle.DEFAULT_BOX_SIZE;
+        if (args.length == 2 && args[0].equals("-size"))
+        {
+            boxSize = boxSize(args[1]);
+        }
+
         setBestLAF();
         
-//        Scanner scanner = new Scanner(new File("puzzles.txt"));
-//        ArrayList<Puzzle> puzzles = new ArrayList(250);
-//        while(scanner.hasNext())
-//        {
-//            String s = scanner.next();
-//            int[][] data = new int[Puzzle.cols][Puzzle.rows];
-//            for(int i = 0; i < s.length(); i++)
-//            {
-//                int n = Integer.parseInt(s.charAt(i) + "");
-//                n = (n == 0 ? -1 : n);
-//                data[i / data.length][i % data.length] = n;
-//            }
-//            Puzzle p = new Puzzle(data);
-//            puzzles.add(p);
-//        }
-//        
 //        System.out.println("Starting");
 //        Puzzle p = new Puzzle(EXAMPLE);
         
-//        System.out.println("Timing ...");
-//        System.out.println(time(p) + " seconds");
-        
 //        Puzzle p = puzzles.get(0);
         
         
@@ -65,39 +128,504 @@ public class SudokuSolver
 //        p.solve();
 //        System.out.println(p);
         
-        SudokuFrame frame = new SudokuFrame(new Puzzle(EMPTY));
+        SudokuFrame frame = new SudokuFrame(new Puzzle(boxSize, false));
         frame.setVisible(true);
     }
+
+    /**
+     * Runs the batch solver using the command line arguments.
+     *
+     * @param args the command line arguments, starting with -batch
+     * @throws IOException if the files can't be read or written
+     */
+    private static void batch(String[] args) throws IOException
+    {
+        Engine engine = Engine.PROPAGATION;
+        boolean diag = false;
+        int boxSize = Puzzle.DEFAULT_BOX_SIZE;
+        EnumSet<Technique> techniques = EnumSet.noneOf(Technique.class);
+        int threads = Runtime.getRuntime().availableProcessors();
+        SolutionCache cache = null;
+        SolutionStore store = null;
+        String metrics = null;
+        long timeout = 0, nodes = 0;
+        String inName = "-", outName = "-";
+        int files = 0;
+        for (int i = 1; i < args.length; i++)
+        {
+            if (args[i].equals("-diag"))
+            {
+                diag = true;
+            }
+            else if (args[i].equals("-size") && i + 1 < args.length)
+            {
+                boxSize = boxSize(args[++i]);
+            }
+            else if (args[i].equals("-threads") && i + 1 < args.length)
+            {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-engine") && i + 1 < args.length)
+            {
+                engine = Engine.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            }
+            else if (args[i].equals("-techniques") && i + 1 < args.length)
+            {
+                techniques = techniques(args[++i]);
+            }
+            else if (args[i].equals("-cache") && i + 1 < args.length)
+            {
+                cache = new SolutionCache(Integer.parseInt(args[++i]));
+            }
+            else if (args[i].equals("-store") && i + 1 < args.length)
+            {
+                store = SolutionStore.open(new File(args[++i]));
+            }
+            else if (args[i].equals("-metrics") && i + 1 < args.length)
+            {
+                metrics = args[++i];
+                if (!metrics.equals("text") && !metrics.equals("json"))
+                {
+                    throw new IllegalArgumentException(
+                            "Metrics must be text or json: " + metrics);
+                }
+                Metrics.setEnabled(true);
+            }
+            else if (args[i].equals("-timeout") && i + 1 < args.length)
+            {
+                timeout = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("-nodes") && i + 1 < args.length)
+            {
+                nodes = Long.parseLong(args[++i]);
+            }
+            else if (files == 0)
+            {
+                inName = args[i];
+                files++;
+            }
+            else if (files == 1)
+            {
+                outName = args[i];
+                files++;
+            }
+            else
+            {
+                throw new IllegalArgumentException(
+                        "Unexpected argument: " + args[i]);
+            }
+        }
+
+        // a binary puzzle file says what shape its puzzles are
+        PuzzleFile binary = null;
+        if (!inName.equals("-") && PuzzleFile.isPuzzleFile(new File(inName)))
+        {
+            binary = PuzzleFile.open(new File(inName));
+            boxSize = binary.getBoxSize();
+            diag = binary.isDiagonal();
+        }
+        InputStream in = inName.equals("-") ? System.in
+                : binary != null ? null : new FileInputStream(inName);
+        OutputStream out = outName.equals("-") ? System.out
+                : new FileOutputStream(outName);
+        try
+        {
+            BatchSolver solver = new BatchSolver(engine, boxSize, diag,
+                    threads);
+            for (Technique technique : techniques)
+            {
+                solver.setTechnique(technique, true);
+            }
+            solver.setCache(cache);
+            solver.setStore(store);
+            solver.setBudget(timeout, TimeUnit.MILLISECONDS, nodes);
+            long start = System.nanoTime();
+            if (binary != null)
+            {
+                solver.run(binary, out);
+            }
+            else
+            {
+                solver.run(in, out);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.println(solver.getSolved() + " solved, "
+                    + solver.getUnsolvable() + " unsolvable, "
+                    + solver.getInvalid() + " invalid, "
+                    + solver.getExceeded() + " exceeded in " + seconds
+                    + " seconds");
+            if (cache != null)
+            {
+                System.err.println(cache.getHits() + " cache hits, "
+                        + cache.getMisses() + " misses, "
+                        + cache.getEvictions() + " evictions");
+            }
+            if (store != null)
+            {
+                System.err.println(store.getHits() + " found in the store, "
+                        + store.getMisses() + " not");
+            }
+            if (metrics != null)
+            {
+                System.err.print(metrics.equals("json")
+                        ? Metrics.toJson() + "\n" : Metrics.toText());
+            }
+        }
+        finally
+        {
+            if (store != null)
+            {
+                store.close();
+            }
+            if (binary != null)
+            {
+                binary.close();
+            }
+            if (in != null && in != System.in)
+            {
+                in.close();
+            }
+            if (out != System.out)
+            {
+                out.close();
+            }
+        }
+    }
     
-    public static double time(Puzzle p)
+    /**
+     * Runs the HTTP server using the command line arguments, until the
+     * process is stopped.
+     *
+     * @param args the command line arguments, starting with -serve
+     * @throws IOException if the server can't start or the store can't be
+     * read
+     */
+    private static void serve(String[] args) throws IOException
     {
-        int times = 1000;
-        
-        // let the program warm up
-        long end, mid, start = System.nanoTime();
-        while(System.nanoTime() - start < 1000000000) { }
-        
-        ArrayList<Puzzle> puzzles = new ArrayList<>(times);
-        // populate the array of puzzles
-        for(int i = 0; i < times; i++)
+        Engine engine = Engine.PROPAGATION;
+        boolean diag = false;
+        int boxSize = Puzzle.DEFAULT_BOX_SIZE;
+        EnumSet<Technique> techniques = EnumSet.noneOf(Technique.class);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queue = -1;
+        int port = 8080;
+        long timeout = 0, nodes = 0;
+        SolutionCache cache = null;
+        SolutionStore store = null;
+        for (int i = 1; i < args.length; i++)
+        {
+            if (args[i].equals("-diag"))
+            {
+                diag = true;
+            }
+            else if (args[i].equals("-metrics"))
+            {
+                Metrics.setEnabled(true);
+            }
+            else if (i + 1 == args.length)
+            {
+                throw new IllegalArgumentException(
+                        "Unexpected argument: " + args[i]);
+            }
+            else if (args[i].equals("-port"))
+            {
+                port = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-size"))
+            {
+                boxSize = boxSize(args[++i]);
+            }
+            else if (args[i].equals("-engine"))
+            {
+                engine = Engine.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            }
+            else if (args[i].equals("-techniques"))
+            {
+                techniques = techniques(args[++i]);
+            }
+            else if (args[i].equals("-cache"))
+            {
+                cache = new SolutionCache(Integer.parseInt(args[++i]));
+            }
+            else if (args[i].equals("-store"))
+            {
+                store = SolutionStore.open(new File(args[++i]));
+            }
+            else if (args[i].equals("-threads"))
+            {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-queue"))
+            {
+                queue = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-timeout"))
+            {
+                timeout = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("-nodes"))
+            {
+                nodes = Long.parseLong(args[++i]);
+            }
+            else
+            {
+                throw new IllegalArgumentException(
+                        "Unexpected argument: " + args[i]);
+            }
+        }
+
+        SolveServer server = new SolveServer(engine, boxSize, diag, threads,
+                queue < 0 ? 4 * threads : queue);
+        for (Technique technique : techniques)
         {
-            puzzles.add(p.deepCopy());
+            server.setTechnique(technique, true);
         }
-        
-        start = System.nanoTime();
-        
-        for(int i = 0; i < times; i++)
+        server.setCache(cache);
+        server.setStore(store);
+        server.setBudget(timeout, nodes);
+        server.start(new InetSocketAddress(port));
+        System.err.println("Solving on port " + server.getPort());
+    }
+
+    /**
+     * Builds a store of solutions using the command line arguments.
+     *
+     * @param args the command line arguments, starting with -store
+     * @throws IOException if the files can't be read or written
+     */
+    private static void store(String[] args) throws IOException
+    {
+        boolean diag = false;
+        int boxSize = Puzzle.DEFAULT_BOX_SIZE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 1;
+        for (; i < args.length - 2; i++)
         {
-            puzzles.get(i).solve();
+            if (args[i].equals("-diag"))
+            {
+                diag = true;
+            }
+            else if (args[i].equals("-size"))
+            {
+                boxSize = boxSize(args[++i]);
+            }
+            else if (args[i].equals("-threads"))
+            {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else
+            {
+                throw new IllegalArgumentException(
+                        "Unexpected argument: " + args[i]);
+            }
         }
-        
-        mid = System.nanoTime();
-        
-        for (int i = 0; i < times; i++) { }
-        
-        end = System.nanoTime();
-        
-        return (mid - start - (end - mid))/(double)times / 1e9;
+        if (i != args.length - 2)
+        {
+            throw new IllegalArgumentException(
+                    "Expected the puzzle file and the store file");
+        }
+
+        long start = System.nanoTime();
+        int stored = SolutionStore.build(new File(args[i]),
+                new File(args[i + 1]), boxSize, diag, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(stored + " solutions stored in " + seconds
+                + " seconds");
+    }
+
+    /**
+     * Converts a text file of puzzles to a binary puzzle file using the
+     * command line arguments.
+     *
+     * @param args the command line arguments, starting with -pack
+     * @throws IOException if the files can't be read or written
+     */
+    private static void pack(String[] args) throws IOException
+    {
+        boolean diag = false;
+        int boxSize = Puzzle.DEFAULT_BOX_SIZE;
+        Engine engine = null;
+        int i = 1;
+        for (; i < args.length - 2; i++)
+        {
+            if (args[i].equals("-diag"))
+            {
+                diag = true;
+            }
+            else if (args[i].equals("-size"))
+            {
+                boxSize = boxSize(args[++i]);
+            }
+            else if (args[i].equals("-solve"))
+            {
+                engine = Engine.PROPAGATION;
+            }
+            else
+            {
+                throw new IllegalArgumentException(
+                        "Unexpected argument: " + args[i]);
+            }
+        }
+        if (i != args.length - 2)
+        {
+            throw new IllegalArgumentException(
+                    "Expected the text file and the puzzle file");
+        }
+
+        long start = System.nanoTime();
+        int packed = PuzzleFile.fromText(new File(args[i]),
+                new File(args[i + 1]), boxSize, diag, engine);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(packed + " puzzles packed in " + seconds
+                + " seconds");
+    }
+
+    /**
+     * Converts a binary puzzle file back to text using the command line
+     * arguments.
+     *
+     * @param args the command line arguments, starting with -unpack
+     * @throws IOException if the files can't be read or written
+     */
+    private static void unpack(String[] args) throws IOException
+    {
+        boolean solutions = false;
+        int i = 1;
+        if (args[i].equals("-solutions"))
+        {
+            solutions = true;
+            i++;
+        }
+        if (i != args.length - 1 && i != args.length - 2)
+        {
+            throw new IllegalArgumentException(
+                    "Expected the puzzle file and maybe the text file");
+        }
+
+        String outName = i + 1 < args.length ? args[i + 1] : "-";
+        OutputStream out = outName.equals("-") ? System.out
+                : new FileOutputStream(outName);
+        try
+        {
+            PuzzleFile.toText(new File(args[i]), out, solutions);
+        }
+        finally
+        {
+            if (out != System.out)
+            {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the generator using the command line arguments.
+     *
+     * @param args the command line arguments, starting with -generate count
+     * @throws IOException if the file can't be written
+     */
+    private static void generate(String[] args) throws IOException
+    {
+        int count = Integer.parseInt(args[1]);
+        boolean diag = false;
+        int boxSize = Puzzle.DEFAULT_BOX_SIZE;
+        Difficulty target = null;
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        String outName = "-";
+        for (int i = 2; i < args.length; i++)
+        {
+            if (args[i].equals("-diag"))
+            {
+                diag = true;
+            }
+            else if (args[i].equals("-size") && i + 1 < args.length)
+            {
+                boxSize = boxSize(args[++i]);
+            }
+            else if (args[i].equals("-difficulty") && i + 1 < args.length)
+            {
+                target = Difficulty.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            }
+            else if (args[i].equals("-seed") && i + 1 < args.length)
+            {
+                seed = Long.parseLong(args[++i]);
+            }
+            else if (args[i].equals("-threads") && i + 1 < args.length)
+            {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (outName.equals("-"))
+            {
+                outName = args[i];
+            }
+            else
+            {
+                throw new IllegalArgumentException(
+                        "Unexpected argument: " + args[i]);
+            }
+        }
+
+        OutputStream out = outName.equals("-") ? System.out
+                : new FileOutputStream(outName);
+        try
+        {
+            Generator generator = new Generator(seed, boxSize, diag, threads);
+            long start = System.nanoTime();
+            List<Puzzle> puzzles = generator.generate(0, count, target);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            StringBuilder text = new StringBuilder();
+            for (Puzzle puzzle : puzzles)
+            {
+                text.append(puzzle.toText()).append('\n');
+            }
+            out.write(text.toString().getBytes());
+            out.flush();
+            System.err.println(count + " puzzles from seed " + seed + " in "
+                    + seconds + " seconds");
+        }
+        finally
+        {
+            if (out != System.out)
+            {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a list of techniques given on the command line.
+     *
+     * @param names all, or the names of the techniques separated by commas
+     * @throws IllegalArgumentException if a name is not a technique
+     * @return The techniques
+     */
+    private static EnumSet<Technique> techniques(String names)
+    {
+        if (names.equalsIgnoreCase("all"))
+        {
+            return EnumSet.allOf(Technique.class);
+        }
+        EnumSet<Technique> techniques = EnumSet.noneOf(Technique.class);
+        for (String name : names.split(","))
+        {
+            techniques.add(Technique.valueOf(
+                    name.trim().toUpperCase(Locale.ROOT)));
+        }
+        return techniques;
+    }
+
+    /**
+     * Works out the box size for a puzzle size given on the command line.
+     *
+     * @param size The number of rows in the puzzle
+     * @throws IllegalArgumentException if the size is not supported
+     * @return The box size
+     */
+    private static int boxSize(String size)
+    {
+        return Geometry.ofSize(Integer.parseInt(size)).boxSize;
     }
     
     /**
@@ -0,0 +1,49 @@
+package main;
+
+/**
+ * The deductions that can be run once the singles stall, cheapest first. They
+ * only ever take candidates away, and a puzzle only uses the ones turned on
+ * with {@link Puzzle#setTechnique(Technique, boolean)}.
+ *
+ * @author tobin
+ */
+public enum Technique
+{
+    /**
+     * Two cells in a unit that can only hold the same two numbers. No other
+     * cell in the unit can hold them.
+     */
+    NAKED_PAIRS,
+    /**
+     * Two numbers that can only go in the same two cells of a unit. Those
+     * cells can't hold anything else.
+     */
+    HIDDEN_PAIRS,
+    /**
+     * A number that can only go in one row or column of a box. It can't go
+     * anywhere else in that row or column.
+     */
+    POINTING,
+    /**
+     * A number that can only go in one box of a row or column. It can't go
+     * anywhere else in that box.
+     */
+    BOX_LINE,
+    /**
+     * Three cells in a unit that between them can only hold three numbers.
+     */
+    NAKED_TRIPLES,
+    /**
+     * Three numbers that between them can only go in three cells of a unit.
+     */
+    HIDDEN_TRIPLES,
+    /**
+     * A number that can only go in the same two columns of two rows (or the
+     * other way around). It can't go anywhere else in those columns.
+     */
+    X_WING,
+    /**
+     * The same as an X-Wing with three rows and three columns.
+     */
+    SWORDFISH
+}
@@ -1,7 +1,11 @@
 package ui;
 
 import java.awt.BorderLayout;
+import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
 import java.awt.GridLayout;
 import java.awt.HeadlessException;
 import java.awt.event.ActionEvent;
@@ -9,16 +13,28 @@ import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 import javax.swing.JButton;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JPanel;
 import javax.swing.JToggleButton;
+import javax.swing.SwingWorker;
+import main.Budget;
+import main.Engine;
+import main.Hint;
 import main.Position;
 import main.PositionSet;
+import main.Progress;
 import main.Puzzle;
+import main.SolveResult;
+import main.Technique;
 
 /**
  *
@@ -28,27 +44,70 @@ public class SudokuFrame extends JFrame
 {
 
     private final int boxSpace = 10, cellSpace = 2;
-    private JButton solve;
+    /**
+     * How often the board is redrawn while a solve is going on
+     */
+    private static final long REDRAW_NANOS = 50000000;
+    private static final Color CONFLICT = Color.RED,
+            HINTED = new Color(255, 236, 150);
+    private JButton solve, hint, cancel;
+    private JLabel status;
+    /**
+     * The solve going on, or null
+     */
+    private SolveWorker running;
     private ArrayList<BoxButton> board;
     private BoxButton pressed = null;
-
-    public SudokuFrame(Puzzle puzzle) throws HeadlessException
+    /**
+     * If empty cells show the numbers that could still go there
+     */
+    private boolean pencil;
+    /**
+     * The cells the last hint was about, until the board changes
+     */
+    private List<Position> hinted = Collections.emptyList();
+
+    public SudokuFrame(final Puzzle puzzle) throws HeadlessException
     {
         super("Sudoku");
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
 
         solve = new JButton("Solve");
         solve.addActionListener(new SolveHandler(puzzle));
+        hint = new JButton("Hint");
+        hint.addActionListener(new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                showHint(puzzle);
+            }
+        });
+        cancel = new JButton("Cancel");
+        cancel.setEnabled(false);
+        cancel.addActionListener(new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                if (running != null)
+                {
+                    running.budget.cancel();
+                }
+            }
+        });
+        status = new JLabel(" ");
 
-        board = new ArrayList<>(Puzzle.rows * Puzzle.cols);
+        int size = puzzle.getSize(), boxSize = puzzle.getBoxSize();
+        board = new ArrayList<>(size * size);
 
-        JPanel boardPanel = new JPanel(new GridLayout(3, 3, boxSpace, boxSpace));
-        for (int row = 1; row < Puzzle.rows; row += Puzzle.boxSize)
+        JPanel boardPanel = new JPanel(new GridLayout(boxSize, boxSize, boxSpace, boxSpace));
+        for (int row = 1; row < size; row += boxSize)
         {
-            for (int col = 1; col < Puzzle.cols; col += Puzzle.boxSize)
+            for (int col = 1; col < size; col += boxSize)
             {
-                PositionSet s = PositionSet.boxSet(row, col, Puzzle.boxSize);
-                JPanel thisBox = new JPanel(new GridLayout(Puzzle.boxSize, Puzzle.boxSize, cellSpace, cellSpace));
+                PositionSet s = PositionSet.boxSet(row, col, boxSize);
+                JPanel thisBox = new JPanel(new GridLayout(boxSize, boxSize, cellSpace, cellSpace));
                 for (Position p : s)
                 {
                     BoxButton b = new BoxButton(p, puzzle);
@@ -68,12 +127,55 @@ public class SudokuFrame extends JFrame
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                Puzzle.diag = ((JCheckBoxMenuItem)e.getSource()).isSelected();
+                puzzle.setDiagonal(((JCheckBoxMenuItem)e.getSource()).isSelected());
+                // the diagonals change both the conflicts and the candidates
+                hinted = Collections.emptyList();
+                markCells(puzzle);
+            }
+        });
+        JCheckBoxMenuItem usePencil = new JCheckBoxMenuItem("Pencil marks");
+        usePencil.addActionListener(new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                setPencil(((JCheckBoxMenuItem)e.getSource()).isSelected());
             }
         });
+        JCheckBoxMenuItem useSearch = new JCheckBoxMenuItem("Use search", puzzle.usesSearch());
+        useSearch.addActionListener(new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                puzzle.setSearch(((JCheckBoxMenuItem)e.getSource()).isSelected());
+            }
+        });
+        JMenu techniquesMenu = new JMenu("Techniques");
+        for (final Technique technique : Technique.values())
+        {
+            // NAKED_PAIRS shows as "Naked pairs"
+            String name = technique.name().replace('_', ' ')
+                    .toLowerCase(Locale.ROOT);
+            JCheckBoxMenuItem useTechnique = new JCheckBoxMenuItem(
+                    Character.toUpperCase(name.charAt(0)) + name.substring(1),
+                    puzzle.usesTechnique(technique));
+            useTechnique.addActionListener(new ActionListener()
+            {
+                @Override
+                public void actionPerformed(ActionEvent e)
+                {
+                    puzzle.setTechnique(technique, ((JCheckBoxMenuItem)e.getSource()).isSelected());
+                }
+            });
+            techniquesMenu.add(useTechnique);
+        }
         JMenuBar menuBar = new JMenuBar();
         JMenu optionsMenu = new JMenu("Options");
         optionsMenu.add(useDiagonals);
+        optionsMenu.add(usePencil);
+        optionsMenu.add(useSearch);
+        optionsMenu.add(techniquesMenu);
         menuBar.add(optionsMenu);
         setJMenuBar(menuBar);
         
@@ -81,8 +183,16 @@ public class SudokuFrame extends JFrame
         BorderLayout layout = new BorderLayout();
         setLayout(layout);
 
+        JPanel buttons = new JPanel(new GridLayout(1, 3));
+        buttons.add(hint);
+        buttons.add(solve);
+        buttons.add(cancel);
+        JPanel controls = new JPanel(new BorderLayout());
+        controls.add(status, BorderLayout.NORTH);
+        controls.add(buttons, BorderLayout.CENTER);
+
         add(boardPanel, BorderLayout.CENTER);
-        add(solve, BorderLayout.SOUTH);
+        add(controls, BorderLayout.SOUTH);
 
         pack();
 
@@ -96,6 +206,101 @@ public class SudokuFrame extends JFrame
         {
             b.setValue(p.get(b.position));
         }
+        hinted = Collections.emptyList();
+        markCells(p);
+    }
+
+    /**
+     * Colours the cells that repeat a number and the cells of the last hint,
+     * and redraws the pencil marks. The puzzle keeps its candidates up to
+     * date as cells are set, so this is cheap enough to do on every key.
+     */
+    private void markCells(Puzzle p)
+    {
+        boolean[] conflicts = cellsOf(p.getConflicts(), p.getSize());
+        boolean[] hints = cellsOf(hinted, p.getSize());
+        for (BoxButton b : board)
+        {
+            int i = index(b.position, p.getSize());
+            b.setForeground(conflicts[i] ? CONFLICT : b.normalForeground);
+            b.setBackground(hints[i] ? HINTED : b.normalBackground);
+        }
+        repaint();
+    }
+
+    private static boolean[] cellsOf(List<Position> positions, int size)
+    {
+        boolean[] cells = new boolean[size * size];
+        for (Position p : positions)
+        {
+            cells[index(p, size)] = true;
+        }
+        return cells;
+    }
+
+    private static int index(Position p, int size)
+    {
+        return (p.row - 1) * size + p.col - 1;
+    }
+
+    /**
+     * Puts the next step the solver would take in the status line and
+     * colours the cells it is about. A step that only rules candidates out is
+     * taken straight away, so the pencil marks and the next hint move on.
+     */
+    private void showHint(Puzzle p)
+    {
+        if (pressed != null)
+        {
+            pressed.setSelected(false);
+            pressed = null;
+        }
+        Position conflict = p.getConflict();
+        Hint next = conflict == null ? p.getHint() : null;
+        if (conflict != null)
+        {
+            status.setText(conflict + " repeats a number");
+            hinted = Collections.emptyList();
+        }
+        else if (next == null)
+        {
+            status.setText("Nothing left to deduce");
+            hinted = Collections.emptyList();
+        }
+        else
+        {
+            status.setText(next.toString());
+            hinted = next.getCells();
+            if (next.getNumber() == -1)
+            {
+                p.apply(next);
+            }
+        }
+        markCells(p);
+    }
+
+    /**
+     * Turns the pencil marks on or off. The cells grow to fit them.
+     */
+    private void setPencil(boolean on)
+    {
+        pencil = on;
+        for (BoxButton b : board)
+        {
+            b.setPreferredSize(on ? b.pencilSize() : b.normalSize);
+        }
+        pack();
+        repaint();
+    }
+
+    /**
+     * @return The character a number is shown as
+     */
+    private static String label(int n)
+    {
+        // numbers past 9 are letters
+        return Character.toUpperCase(
+                Character.forDigit(n, Character.MAX_RADIX)) + "";
     }
 
     private class BoxButton extends JToggleButton
@@ -103,6 +308,8 @@ public class SudokuFrame extends JFrame
 
         private final Position position;
         private Puzzle puzzle;
+        private final Color normalForeground, normalBackground;
+        private final Dimension normalSize;
 
         public BoxButton(Position position, Puzzle puzzle)
         {
@@ -114,18 +321,59 @@ public class SudokuFrame extends JFrame
             addKeyListener(h);
 
             // the default width for a single digit
-            setPreferredSize(new Dimension(41, 26));
+            normalSize = new Dimension(41, 26);
+            setPreferredSize(normalSize);
+            normalForeground = getForeground();
+            normalBackground = getBackground();
+        }
+
+        /**
+         * @return Room for a small number per candidate, in a grid like a box
+         */
+        Dimension pencilSize()
+        {
+            int side = Math.max(normalSize.width, puzzle.getBoxSize() * 14);
+            return new Dimension(side, side);
         }
 
         public void setValue(int n)
         {
             puzzle.set(position, n);
-            if (n == -1)
+            show(n);
+        }
+
+        /**
+         * Shows a number without putting it in the puzzle.
+         */
+        public void show(int n)
+        {
+            setText(n == -1 ? "" : label(n));
+        }
+
+        @Override
+        protected void paintComponent(Graphics g)
+        {
+            super.paintComponent(g);
+            // the candidates of the puzzle don't match the board mid solve
+            if (!pencil || running != null || !getText().isEmpty())
             {
-                setText("");
-            } else
+                return;
+            }
+            long candidates = puzzle.getCandidates(position);
+            int boxSize = puzzle.getBoxSize();
+            int w = getWidth() / boxSize, h = getHeight() / boxSize;
+            g.setColor(Color.GRAY);
+            g.setFont(getFont().deriveFont(Font.PLAIN,
+                    Math.max(7, Math.min(w, h) - 3)));
+            FontMetrics metrics = g.getFontMetrics();
+            for (; candidates != 0; candidates &= candidates - 1)
             {
-                setText(n + "");
+                // candidate n sits where n would be in a box
+                int at = Long.numberOfTrailingZeros(candidates);
+                String mark = label(at + 1);
+                int x = at % boxSize * w + (w - metrics.stringWidth(mark)) / 2;
+                int y = at / boxSize * h + (h + metrics.getAscent()) / 2 - 1;
+                g.drawString(mark, x, y);
             }
         }
 
@@ -166,10 +414,14 @@ public class SudokuFrame extends JFrame
             @Override
             public void keyTyped(KeyEvent e)
             {
-                char typed = e.getKeyChar();
-                if (isSelected() && typed >= '1' && typed <= '9')
+                // 1 to 9, then a letter for each number past 9
+                int typed = Character.digit(e.getKeyChar(),
+                        puzzle.getSize() + 1);
+                if (isSelected() && typed > 0)
                 {
-                    setValue((int) typed - 48);
+                    setValue(typed);
+                    hinted = Collections.emptyList();
+                    markCells(puzzle);
                     solve.setEnabled(true);
 //                    System.out.println(e.getKeyChar() + " typed");
                 }
@@ -182,6 +434,8 @@ public class SudokuFrame extends JFrame
                         || e.getKeyCode() == KeyEvent.VK_DELETE))
                 {
                     setValue(-1);
+                    hinted = Collections.emptyList();
+                    markCells(puzzle);
                     solve.setEnabled(true);
 //                    System.out.println("Remove typed");
                 }
@@ -214,17 +468,159 @@ public class SudokuFrame extends JFrame
                 pressed = null;
             }
 
+            // check what was typed in before trying to solve it
+            Position conflict = p.getConflict();
+            if (conflict != null)
+            {
+                status.setText(conflict + " repeats a number");
+                return;
+            }
+
+            // the copy is solved off the event thread, and p is only
+            // touched back on it once the solve is over
             Puzzle pCopy = p.deepCopy();
+            running = new SolveWorker(p, pCopy);
+            setSolving(true);
+            running.execute();
+        }
+    }
+
+    /**
+     * Turns the board and the solve button off while a solve is going on, and
+     * the cancel button on.
+     */
+    private void setSolving(boolean solving)
+    {
+        for (BoxButton b : board)
+        {
+            b.setEnabled(!solving);
+        }
+        solve.setEnabled(!solving);
+        hint.setEnabled(!solving);
+        cancel.setEnabled(solving);
+    }
+
+    /**
+     * What the board looked like at one point in a solve.
+     */
+    private static class Snapshot
+    {
+        final int[] values;
+        final int filled;
+        final long nodes;
+
+        Snapshot(int[] values, int filled, long nodes)
+        {
+            this.values = values;
+            this.filled = filled;
+            this.nodes = nodes;
+        }
+    }
+
+    /**
+     * Solves a copy of the puzzle in the background, showing the cells filled
+     * and nodes searched as it goes.
+     */
+    private class SolveWorker extends SwingWorker<SolveResult, Snapshot>
+            implements Progress
+    {
+
+        private final Puzzle p, pCopy;
+        private final Budget budget = new Budget();
+        private long lastDrawn = System.nanoTime();
+
+        public SolveWorker(Puzzle p, Puzzle pCopy)
+        {
+            this.p = p;
+            this.pCopy = pCopy;
+        }
+
+        @Override
+        protected SolveResult doInBackground()
+        {
+            pCopy.setProgress(this);
+            return pCopy.trySolve(Engine.PROPAGATION, budget);
+        }
+
+        @Override
+        public void update(Puzzle puzzle)
+        {
+            // called on the solving thread, so the copy can be read here
+            long now = System.nanoTime();
+            if (now - lastDrawn < REDRAW_NANOS)
+            {
+                return;
+            }
+            lastDrawn = now;
+            int[] values = new int[board.size()];
+            int filled = 0;
+            for (int i = 0; i < values.length; i++)
+            {
+                values[i] = puzzle.get(board.get(i).position);
+                if (values[i] != -1)
+                {
+                    filled++;
+                }
+            }
+            publish(new Snapshot(values, filled, puzzle.getNodes()));
+        }
+
+        @Override
+        protected void process(List<Snapshot> snapshots)
+        {
+            if (isDone())
+            {
+                // the answer is already up
+                return;
+            }
+            // only the newest one is worth drawing
+            Snapshot last = snapshots.get(snapshots.size() - 1);
+            for (int i = 0; i < last.values.length; i++)
+            {
+                board.get(i).show(last.values[i]);
+            }
+            status.setText(last.filled + " of " + last.values.length
+                    + " filled, " + last.nodes + " nodes");
+        }
+
+        @Override
+        protected void done()
+        {
+            running = null;
+            setSolving(false);
+            SolveResult result;
             try
             {
-                System.out.println("Solving\n"+pCopy);
-                pCopy.solve();
-                p.solve();
+                result = get();
+            }
+            catch (InterruptedException | ExecutionException ex)
+            {
                 updateBoard(p);
-            } catch (Exception ex)
+                // the solve threw, so say what it threw
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                status.setText("Solve failed: " + cause);
+                return;
+            }
+
+            status.setText(result.toString());
+            switch (result.getStatus())
             {
-                System.out.println(ex.getMessage()+"\n"+pCopy);
-                solve.setEnabled(false);
+                case SOLVED:
+                    // puts the solution into p as well as on the board
+                    updateBoard(pCopy);
+                    break;
+                case UNFINISHED:
+                    // the deductions are right, there just weren't enough
+                    updateBoard(pCopy);
+                    solve.setEnabled(false);
+                    break;
+                case EXCEEDED:
+                    // cancelled, so it can be tried again
+                    updateBoard(p);
+                    break;
+                default:
+                    updateBoard(p);
+                    solve.setEnabled(false);
             }
         }
     }
@@ -0,0 +1,87 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Checks that batch mode answers every line, in order, however many threads
+ * it solves on.
+ *
+ * @author tobin
+ */
+public class BatchSolverTest
+{
+    private static final String EASY = Puzzles.assertSolves(
+            Engine.PROPAGATION, Puzzles.EASY, false).toText();
+    private static final String HARD = Puzzles.assertSolves(
+            Engine.PROPAGATION, Puzzles.HARD, false).toText();
+
+    @Test
+    public void answersEachLineInTurn() throws IOException
+    {
+        String input = Puzzles.EASY + "\n"
+                + "\n"
+                + Puzzles.HARD + "\r\n"
+                + Puzzles.UNSOLVABLE + "\n"
+                + "12x\n"
+                + "11" + Puzzles.dots(79) + "\n"
+                // the last line has no newline
+                + Puzzles.HARD;
+        BatchSolver solver = new BatchSolver(Engine.PROPAGATION);
+
+        assertEquals(EASY + "\n"
+                + HARD + "\n"
+                + BatchSolver.UNSOLVABLE + "\n"
+                + BatchSolver.INVALID + "\n"
+                + BatchSolver.INVALID + "\n"
+                + HARD + "\n", run(solver, input));
+        assertEquals(3, solver.getSolved());
+        assertEquals(1, solver.getUnsolvable());
+        assertEquals(2, solver.getInvalid());
+    }
+
+    @Test
+    public void manyThreadsKeepTheOrder() throws IOException
+    {
+        StringBuilder input = new StringBuilder(), expected =
+                new StringBuilder();
+        // enough for many chunks
+        for (int i = 0; i < 3000; i++)
+        {
+            boolean easy = i % 3 != 0;
+            input.append(easy ? Puzzles.EASY : Puzzles.HARD).append('\n');
+            expected.append(easy ? EASY : HARD).append('\n');
+        }
+
+        for (Engine engine : Engine.values())
+        {
+            BatchSolver solver = new BatchSolver(engine, false, 4);
+            assertEquals(engine.toString(), expected.toString(),
+                    run(solver, input.toString()));
+        }
+    }
+
+    @Test
+    public void puzzlesThatRunOutAreExceeded() throws IOException
+    {
+        BatchSolver solver = new BatchSolver(Engine.PROPAGATION);
+        solver.setBudget(0, TimeUnit.SECONDS, 1);
+
+        assertEquals(BatchSolver.EXCEEDED + "\n",
+                run(solver, Puzzles.HARD + "\n"));
+        assertEquals(1, solver.getExceeded());
+    }
+
+    private static String run(BatchSolver solver, String input)
+            throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        solver.run(new ByteArrayInputStream(input.getBytes("US-ASCII")),
+                output);
+        return output.toString("US-ASCII");
+    }
+}
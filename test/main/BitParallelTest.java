@@ -0,0 +1,58 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Checks that the bitboard engine finds the same answers as the search, on
+ * grids that fit in one word of cells and ones that need several.
+ *
+ * @author tobin
+ */
+public class BitParallelTest
+{
+    @Test
+    public void solvesLikeTheSearch()
+    {
+        for (String text : new String[] {Puzzles.EASY, Puzzles.HARD})
+        {
+            Puzzle bits = Puzzles.assertSolves(Engine.BIT_PARALLEL, text,
+                    false);
+            Puzzle search = Puzzles.assertSolves(Engine.PROPAGATION, text,
+                    false);
+            // both puzzles have one solution
+            assertEquals(search.toText(), bits.toText());
+        }
+    }
+
+    @Test
+    public void solvesEverySize()
+    {
+        for (int size : new int[] {4, 9, 16, 25})
+        {
+            String empty = Puzzles.dots(size * size);
+            Puzzles.assertSolves(Engine.BIT_PARALLEL, empty, false);
+            Puzzles.assertSolves(Engine.BIT_PARALLEL, empty, true);
+        }
+    }
+
+    @Test
+    public void findsThereIsNoSolution()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.UNSOLVABLE, false);
+        SolveResult result = puzzle.trySolve(Engine.BIT_PARALLEL);
+        assertEquals(SolveResult.Status.UNSOLVABLE, result.getStatus());
+        assertEquals(Puzzles.UNSOLVABLE, puzzle.toText());
+    }
+
+    @Test
+    public void stopsWhenTheBudgetRunsOut()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        SolveResult result = puzzle.trySolve(Engine.BIT_PARALLEL,
+                new Budget(0, TimeUnit.SECONDS, 1));
+        assertEquals(SolveResult.Status.EXCEEDED, result.getStatus());
+        assertEquals(Puzzles.HARD, puzzle.toText());
+    }
+}
@@ -0,0 +1,111 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Checks that a budget stops a solve at its limits, and that the parts of a
+ * shared budget count against one total.
+ *
+ * @author tobin
+ */
+public class BudgetTest
+{
+    @Test
+    public void theNodeLimitIsTheLastNodeAllowed()
+    {
+        Budget budget = new Budget(0, TimeUnit.SECONDS, 10);
+        assertFalse(budget.exceeded(10));
+        assertTrue(budget.exceeded(11));
+        assertFalse(new Budget().exceeded(1000000));
+    }
+
+    @Test
+    public void cancellingStopsAtTheNextCheck()
+    {
+        Budget budget = new Budget();
+        budget.cancel();
+        assertTrue(budget.isCancelled());
+        assertTrue(budget.exceeded(0));
+    }
+
+    @Test
+    public void theDeadlineIsCheckedEveryFewCalls() throws InterruptedException
+    {
+        Budget budget = new Budget(1, TimeUnit.MILLISECONDS, 0);
+        Thread.sleep(10);
+        boolean stopped = false;
+        for (int i = 0; i < 64 && !stopped; i++)
+        {
+            stopped = budget.exceeded(0);
+        }
+        assertTrue(stopped);
+    }
+
+    @Test
+    public void sharedPartsCountAgainstOneTotal()
+    {
+        Budget whole = new Budget(new Budget(0, TimeUnit.SECONDS, 100), 40);
+        Budget a = whole.share(), b = whole.share();
+
+        assertFalse(a.exceeded(30));
+        assertFalse(b.exceeded(30));
+        assertTrue(b.exceeded(31));
+        // a has done nothing more, but the total is past the limit
+        assertTrue(a.exceeded(30));
+    }
+
+    @Test
+    public void cancellingTheWholeStopsEveryPart()
+    {
+        Budget outer = new Budget();
+        Budget whole = new Budget(outer, 0);
+        Budget part = whole.share();
+        assertFalse(part.exceeded(1));
+
+        outer.cancel();
+        assertTrue(whole.isCancelled());
+        assertTrue(part.exceeded(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void onlySharedBudgetsHaveParts()
+    {
+        new Budget().share();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void limitsCantBeNegative()
+    {
+        new Budget(-1, TimeUnit.SECONDS, 0);
+    }
+
+    @Test
+    public void aSolveThatRunsOutIsExceeded()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        SolveResult result = puzzle.trySolve(Engine.PROPAGATION,
+                new Budget(0, TimeUnit.SECONDS, 5));
+        assertEquals(SolveResult.Status.EXCEEDED, result.getStatus());
+        assertFalse(puzzle.isSolved());
+    }
+
+    @Test
+    public void solveThrowsWhenItRunsOut()
+    {
+        try
+        {
+            Puzzle.parse(Puzzles.HARD, false).solve(Engine.PROPAGATION,
+                    new Budget(0, TimeUnit.SECONDS, 5));
+            fail("the budget should have run out");
+        }
+        catch (BudgetExceededException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getNodes() > 5);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that the masks of the grid follow the cells as they are set and
+ * cleared.
+ *
+ * @author tobin
+ */
+public class CandidateGridTest
+{
+    private final Geometry geometry = Geometry.of(3);
+
+    @Test
+    public void placingTakesTheNumberFromEveryPeer()
+    {
+        CandidateGrid grid = new CandidateGrid(geometry, false);
+        grid.set(0, 5);
+
+        assertEquals(5, grid.get(0));
+        assertEquals(0, grid.candidates(0));
+        for (int peer : geometry.peerCells(0, false))
+        {
+            assertFalse("cell " + peer, isCandidate(grid, peer, 5));
+        }
+        // the middle cell shares no unit with the corner
+        assertTrue(isCandidate(grid, 40, 5));
+        assertEquals(9, Long.bitCount(grid.candidates(40)));
+    }
+
+    @Test
+    public void placingUpdatesTheUnits()
+    {
+        CandidateGrid grid = new CandidateGrid(geometry, false);
+        grid.set(0, 5);
+
+        for (int unit : grid.unitsOf(0))
+        {
+            assertEquals(CandidateGrid.bit(5), grid.placed(unit));
+            assertEquals(0, grid.places(unit, 5));
+            assertEquals(8, grid.places(unit, 1));
+        }
+    }
+
+    @Test
+    public void clearingPutsTheCandidatesBack()
+    {
+        CandidateGrid grid = new CandidateGrid(geometry, false);
+        CandidateGrid empty = new CandidateGrid(geometry, false);
+
+        grid.set(0, 5);
+        grid.set(0, -1);
+
+        assertSameGrid(empty, grid);
+    }
+
+    @Test
+    public void clearingMatchesAGridBuiltWithoutTheCell()
+    {
+        Puzzle solved = Puzzles.assertSolves(Engine.PROPAGATION,
+                Puzzles.HARD, false);
+        CandidateGrid grid = new CandidateGrid(geometry, false);
+        for (int cell = 0; cell < geometry.cells; cell += 2)
+        {
+            grid.set(cell, solved.getCell(cell));
+        }
+        // the deductions' eliminations are forgotten too
+        grid.eliminate(1, grid.candidates(1) & -grid.candidates(1));
+        grid.clearWork();
+
+        for (int cleared = 0; cleared < geometry.cells; cleared += 8)
+        {
+            grid.set(cleared, -1);
+            CandidateGrid fresh = new CandidateGrid(geometry, false);
+            for (int cell = 0; cell < geometry.cells; cell++)
+            {
+                if (grid.get(cell) != -1)
+                {
+                    fresh.set(cell, grid.get(cell));
+                }
+            }
+            assertSameGrid(fresh, grid);
+        }
+        // and what changed is on the lists
+        assertTrue(grid.nextCell() != -1);
+        assertTrue(grid.nextUnit() != -1);
+    }
+
+    @Test
+    public void restoreUndoesEveryChange()
+    {
+        CandidateGrid grid = new CandidateGrid(geometry, false);
+        grid.set(0, 1);
+        long[] before = new long[grid.stateSize()];
+        grid.save(before);
+
+        grid.set(10, 2);
+        grid.eliminate(40, CandidateGrid.bit(3));
+        grid.restore(before);
+
+        long[] after = new long[grid.stateSize()];
+        grid.save(after);
+        assertArrayEquals(before, after);
+        assertEquals(-1, grid.get(10));
+    }
+
+    @Test
+    public void eliminateOnlyTakesCandidatesAway()
+    {
+        CandidateGrid grid = new CandidateGrid(geometry, false);
+        assertTrue(grid.eliminate(40, CandidateGrid.bit(3)));
+        assertFalse(grid.eliminate(40, CandidateGrid.bit(3)));
+        assertFalse(isCandidate(grid, 40, 3));
+        assertEquals(8, Long.bitCount(grid.candidates(40)));
+    }
+
+    @Test
+    public void repeatsAreConflicts()
+    {
+        CandidateGrid grid = new CandidateGrid(geometry, false);
+        grid.set(0, 4);
+        grid.set(8, 4);
+        assertTrue(grid.hasConflict());
+        assertFalse(grid.isConsistent(0));
+
+        grid.set(8, -1);
+        assertFalse(grid.hasConflict());
+    }
+
+    @Test
+    public void diagonalsAreUnitsOnlyWhenAskedFor()
+    {
+        CandidateGrid plain = new CandidateGrid(geometry, false);
+        CandidateGrid diag = new CandidateGrid(geometry, true);
+        plain.set(0, 7);
+        diag.set(0, 7);
+
+        assertTrue(isCandidate(plain, 80, 7));
+        assertFalse(isCandidate(diag, 80, 7));
+    }
+
+    @Test
+    public void onlyWhatChangedIsListed()
+    {
+        CandidateGrid grid = new CandidateGrid(geometry, false);
+        grid.clearWork();
+        // the last cell of the first row is left with only 9
+        for (int cell = 0; cell < 8; cell++)
+        {
+            grid.set(cell, cell + 1);
+        }
+
+        assertEquals(8, grid.nextCell());
+        assertEquals(-1, grid.nextCell());
+        // and the first row only has one place left for 9
+        assertEquals(geometry.rowUnits, grid.nextUnit());
+        assertEquals(-1, grid.nextUnit());
+    }
+
+    @Test
+    public void restoringEmptiesTheLists()
+    {
+        CandidateGrid grid = new CandidateGrid(geometry, false);
+        long[] empty = new long[grid.stateSize()];
+        grid.save(empty);
+        grid.markAll();
+        grid.restore(empty);
+
+        assertEquals(-1, grid.nextCell());
+        assertEquals(-1, grid.nextUnit());
+    }
+
+    private static boolean isCandidate(CandidateGrid grid, int cell, int n)
+    {
+        return (grid.candidates(cell) & CandidateGrid.bit(n)) != 0;
+    }
+
+    /**
+     * Checks that two grids hold the same cells, candidates and unit counts.
+     */
+    private void assertSameGrid(CandidateGrid expected, CandidateGrid actual)
+    {
+        for (int cell = 0; cell < geometry.cells; cell++)
+        {
+            assertEquals(expected.get(cell), actual.get(cell));
+            assertEquals(expected.candidates(cell), actual.candidates(cell));
+        }
+        for (int unit = 0; unit < expected.unitCount(); unit++)
+        {
+            assertEquals(expected.placed(unit), actual.placed(unit));
+            for (int n = 1; n <= geometry.size; n++)
+            {
+                assertEquals(expected.places(unit, n), actual.places(unit, n));
+            }
+        }
+    }
+}
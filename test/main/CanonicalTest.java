@@ -0,0 +1,86 @@
+package main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that every shuffled copy of a puzzle has the same canonical form,
+ * and that solutions move back and forth with it.
+ *
+ * @author tobin
+ */
+public class CanonicalTest
+{
+    private final Geometry geometry = Geometry.of(3);
+
+    @Test
+    public void shuffledCopiesShareTheForm()
+    {
+        Random random = new Random(1);
+        for (String text : new String[] {Puzzles.EASY, Puzzles.HARD})
+        {
+            Puzzle puzzle = Puzzle.parse(text, false);
+            String key = form(puzzle).key();
+            for (int i = 0; i < 50; i++)
+            {
+                Puzzle copy = Puzzles.shuffle(puzzle, random);
+                assertEquals(key, form(copy).key());
+            }
+        }
+    }
+
+    @Test
+    public void differentPuzzlesHaveDifferentForms()
+    {
+        assertNotEquals(form(Puzzle.parse(Puzzles.EASY, false)).key(),
+                form(Puzzle.parse(Puzzles.HARD, false)).key());
+    }
+
+    @Test
+    public void solutionsMoveBothWays()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        Puzzle copy = Puzzles.shuffle(puzzle, new Random(2));
+        Canonical form = form(puzzle), copyForm = form(copy);
+
+        // the solution of one puzzle, moved through the form, solves the
+        // other
+        Puzzle solved = puzzle.deepCopy();
+        solved.solve();
+        int[] solution = Puzzles.cells(solved);
+        int[] moved = copyForm.fromCanonical(form.toCanonical(solution));
+        Puzzle answer = copy.deepCopy();
+        answer.fill(moved);
+        Puzzles.assertSolution(copy, answer);
+
+        assertArrayEquals(solution,
+                form.fromCanonical(form.toCanonical(solution)));
+    }
+
+    @Test
+    public void diagonalPuzzlesAreOnlyRelabelled()
+    {
+        Puzzle puzzle = Puzzles.assertSolves(Engine.PROPAGATION,
+                Puzzles.EMPTY, true);
+        int[] cells = Puzzles.cells(puzzle);
+        // keep a few givens, then swap two numbers
+        int[] givens = new int[cells.length], swapped = new int[cells.length];
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            int n = cell % 4 == 0 ? cells[cell] : -1;
+            givens[cell] = n;
+            swapped[cell] = n == 1 ? 2 : n == 2 ? 1 : n;
+        }
+        assertEquals(new Canonical(geometry, true, givens).key(),
+                new Canonical(geometry, true, swapped).key());
+    }
+
+    private Canonical form(Puzzle puzzle)
+    {
+        return new Canonical(geometry, puzzle.isDiagonal(),
+                Puzzles.cells(puzzle));
+    }
+}
@@ -0,0 +1,62 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that the exact cover engine finds the same answers as the search.
+ *
+ * @author tobin
+ */
+public class DancingLinksTest
+{
+    @Test
+    public void solvesLikeTheSearch()
+    {
+        for (String text : new String[] {Puzzles.EASY, Puzzles.HARD})
+        {
+            Puzzle links = Puzzles.assertSolves(Engine.DANCING_LINKS, text,
+                    false);
+            Puzzle search = Puzzles.assertSolves(Engine.PROPAGATION, text,
+                    false);
+            // both puzzles have one solution
+            assertEquals(search.toText(), links.toText());
+        }
+    }
+
+    @Test
+    public void solvesEmptyPuzzles()
+    {
+        Puzzles.assertSolves(Engine.DANCING_LINKS, Puzzles.EMPTY, false);
+        Puzzles.assertSolves(Engine.DANCING_LINKS, Puzzles.EMPTY, true);
+        Puzzles.assertSolves(Engine.DANCING_LINKS, Puzzles.dots(256), false);
+    }
+
+    @Test
+    public void findsThereIsNoSolution()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.UNSOLVABLE, false);
+        SolveResult result = puzzle.trySolve(Engine.DANCING_LINKS);
+        assertEquals(SolveResult.Status.UNSOLVABLE, result.getStatus());
+        assertEquals(Puzzles.UNSOLVABLE, puzzle.toText());
+    }
+
+    @Test
+    public void theMatrixCanBeUsedAgain()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        puzzle.solve(Engine.DANCING_LINKS);
+        String first = puzzle.toText();
+
+        // take the answer out again, leaving the givens
+        for (int cell = 0; cell < puzzle.getCells(); cell++)
+        {
+            if (Puzzles.HARD.charAt(cell) == '.')
+            {
+                puzzle.set(cell / 9 + 1, cell % 9 + 1, -1);
+            }
+        }
+        puzzle.solve(Engine.DANCING_LINKS);
+        assertEquals(first, puzzle.toText());
+    }
+}
@@ -0,0 +1,65 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that the deductions past singles make progress the singles can't,
+ * and never rule out the answer.
+ *
+ * @author tobin
+ */
+public class DeductionsTest
+{
+    @Test
+    public void techniquesGoFurtherThanSingles()
+    {
+        Puzzle singles = Puzzle.parse(Puzzles.HARD, false);
+        singles.setSearch(false);
+        assertEquals(SolveResult.Status.UNFINISHED,
+                singles.trySolve(Engine.PROPAGATION).getStatus());
+
+        Puzzle givens = Puzzle.parse(Puzzles.HARD, false);
+        Puzzle puzzle = givens.deepCopy();
+        puzzle.setSearch(false);
+        for (Technique technique : Technique.values())
+        {
+            puzzle.setTechnique(technique, true);
+        }
+        SolveResult result = puzzle.trySolve(Engine.PROPAGATION);
+        assertEquals(SolveResult.Status.SOLVED, result.getStatus());
+        assertEquals(0, result.getNodes());
+        Puzzles.assertSolution(givens, puzzle);
+        assertTrue(puzzle.getFired(Technique.NAKED_PAIRS) > 0);
+    }
+
+    @Test
+    public void noTechniqueChangesTheAnswer()
+    {
+        for (String text : new String[] {Puzzles.EASY, Puzzles.HARD})
+        {
+            String answer = Puzzles.assertSolves(Engine.PROPAGATION, text,
+                    false).toText();
+            for (Technique technique : Technique.values())
+            {
+                Puzzle puzzle = Puzzle.parse(text, false);
+                puzzle.setTechnique(technique, true);
+                assertTrue(technique.toString(), puzzle.solve());
+                assertEquals(technique.toString(), answer, puzzle.toText());
+            }
+        }
+    }
+
+    @Test
+    public void techniquesFindThereIsNoSolution()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.UNSOLVABLE, false);
+        for (Technique technique : Technique.values())
+        {
+            puzzle.setTechnique(technique, true);
+        }
+        assertEquals(SolveResult.Status.UNSOLVABLE,
+                puzzle.trySolve(Engine.PROPAGATION).getStatus());
+    }
+}
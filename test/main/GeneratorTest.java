@@ -0,0 +1,68 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Checks that generated puzzles have one solution, are as hard as asked,
+ * and only depend on the seed and their number.
+ *
+ * @author tobin
+ */
+public class GeneratorTest
+{
+    @Test
+    public void puzzlesHaveOneSolution()
+    {
+        Generator generator = new Generator(1);
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals(1, generator.generate(i, null).countSolutions(2));
+        }
+    }
+
+    @Test
+    public void puzzlesAreAsHardAsAsked()
+    {
+        Generator generator = new Generator(2);
+        for (Difficulty target : new Difficulty[] {Difficulty.EASY,
+            Difficulty.MEDIUM, Difficulty.HARD})
+        {
+            Puzzle puzzle = generator.generate(0, target);
+            assertEquals(1, puzzle.countSolutions(2));
+            assertEquals(target, Difficulty.rate(puzzle));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyAUniquePuzzleIsRated()
+    {
+        Difficulty.rate(Puzzle.parse(Puzzles.EMPTY, false));
+    }
+
+    @Test
+    public void theSeedDecides()
+    {
+        String first = new Generator(3).generate(7, null).toText();
+        assertEquals(first, new Generator(3).generate(7, null).toText());
+        assertNotEquals(first, new Generator(4).generate(7, null).toText());
+        assertNotEquals(first, new Generator(3).generate(8, null).toText());
+    }
+
+    @Test
+    public void threadsMakeTheSamePuzzles()
+    {
+        List<Puzzle> one = new Generator(5, 2, false, 1).generate(0, 20,
+                null);
+        List<Puzzle> many = new Generator(5, 2, false, 4).generate(0, 20,
+                null);
+        assertEquals(20, many.size());
+        for (int i = 0; i < one.size(); i++)
+        {
+            assertEquals(one.get(i).toText(), many.get(i).toText());
+            assertEquals(1, many.get(i).countSolutions(2));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that every supported size has a shape and a symbol for each of its
+ * numbers, and can be solved.
+ *
+ * @author tobin
+ */
+public class GeometryTest
+{
+    @Test
+    public void everySizeHasItsShape()
+    {
+        for (int box = Geometry.MIN_BOX; box <= Geometry.MAX_BOX; box++)
+        {
+            Geometry geometry = Geometry.ofSize(box * box);
+            assertEquals(box, geometry.boxSize);
+            assertEquals(box * box, geometry.size);
+            assertEquals(box * box * box * box, geometry.cells);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizesWithoutSymbolsAreRefused()
+    {
+        Geometry.of(Geometry.MAX_BOX + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizesMustBeSquares()
+    {
+        Geometry.ofSize(10);
+    }
+
+    @Test
+    public void symbolsRoundTrip()
+    {
+        int most = Geometry.MAX_BOX * Geometry.MAX_BOX;
+        for (int n = 1; n <= most; n++)
+        {
+            char symbol = Geometry.symbol(n);
+            assertEquals(n, Geometry.value(symbol));
+            assertEquals(n, Geometry.value(Character.toLowerCase(symbol)));
+        }
+        assertEquals('.', Geometry.symbol(-1));
+        assertEquals(-1, Geometry.value('.'));
+        assertEquals(-1, Geometry.value('0'));
+        assertEquals(0, Geometry.value('#'));
+    }
+
+    @Test
+    public void everySizeSolves()
+    {
+        for (int box = Geometry.MIN_BOX; box <= Geometry.MAX_BOX; box++)
+        {
+            String empty = Puzzles.dots(box * box * box * box);
+            Puzzle solved = Puzzles.assertSolves(Engine.PROPAGATION, empty,
+                    false);
+            // and the answer reads back in as the same puzzle
+            assertEquals(solved.toText(),
+                    Puzzle.parse(solved.toText(), false).toText());
+            assertEquals(box, solved.getBoxSize());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Checks that hints and candidates follow the puzzle as it is filled in, and
+ * that asking for them changes nothing.
+ *
+ * @author tobin
+ */
+public class HintTest
+{
+    @Test
+    public void aCellWithOneCandidateIsANakedSingle()
+    {
+        // the corner sees 2 to 9 in its row, column and box, but 1 still
+        // has other places in each of them
+        Puzzle puzzle = new Puzzle(3, false);
+        puzzle.set(1, 4, 2);
+        puzzle.set(1, 5, 3);
+        puzzle.set(1, 6, 4);
+        puzzle.set(4, 1, 5);
+        puzzle.set(5, 1, 6);
+        puzzle.set(6, 1, 7);
+        puzzle.set(2, 2, 8);
+        puzzle.set(3, 3, 9);
+        Hint hint = puzzle.getHint();
+
+        assertEquals("naked single", hint.getName());
+        assertEquals(1, hint.getNumber());
+        assertEquals(1, hint.getCells().size());
+        assertEquals(1, hint.getCells().get(0).row);
+        assertEquals(1, hint.getCells().get(0).col);
+    }
+
+    @Test
+    public void aNumberWithOnePlaceIsAHiddenSingle()
+    {
+        // the 1s in rows 2 and 3 and columns 2 and 3 leave only the corner
+        Puzzle puzzle = new Puzzle(3, false);
+        puzzle.set(2, 4, 1);
+        puzzle.set(3, 7, 1);
+        puzzle.set(4, 2, 1);
+        puzzle.set(7, 3, 1);
+        Hint hint = puzzle.getHint();
+
+        assertEquals("hidden single", hint.getName());
+        assertEquals(1, hint.getNumber());
+        assertEquals(1, hint.getCells().get(0).row);
+        assertEquals(1, hint.getCells().get(0).col);
+    }
+
+    @Test
+    public void followingTheHintsFollowsTheSolution()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.EASY, false);
+        Puzzle solved = puzzle.deepCopy();
+        solved.solve();
+
+        int followed = 0;
+        for (Hint hint = puzzle.getHint(); hint != null;
+                hint = puzzle.getHint())
+        {
+            Position p = hint.getCells().get(0);
+            assertEquals(hint.toString(), solved.get(p), hint.getNumber());
+            puzzle.set(p, hint.getNumber());
+            followed++;
+        }
+        assertTrue(followed > 0);
+        assertTrue(puzzle.getConflicts().isEmpty());
+    }
+
+    @Test
+    public void hiddenSinglesComeFirstLikeTheSolver()
+    {
+        // the last cell of the row is both
+        Puzzle puzzle = Puzzle.parse("12345678" + Puzzles.dots(73), false);
+        assertEquals("hidden single", puzzle.getHint().getName());
+    }
+
+    @Test
+    public void takingEveryHintSolvesWithoutGuessing()
+    {
+        Puzzle givens = Puzzle.parse(Puzzles.HARD, false);
+        Puzzle puzzle = givens.deepCopy();
+        for (Technique technique : Technique.values())
+        {
+            puzzle.setTechnique(technique, true);
+        }
+
+        // a hint that changed nothing would come back forever
+        boolean ruledOut = false;
+        int steps = 0;
+        for (Hint hint = puzzle.getHint(); hint != null;
+                hint = puzzle.getHint())
+        {
+            assertTrue(hint.toString(), ++steps < 1000);
+            Position p = hint.getCells().get(0);
+            long before = puzzle.getCandidates(p);
+            puzzle.apply(hint);
+            assertTrue(hint.toString(), puzzle.getCandidates(p) != before);
+            ruledOut |= hint.getNumber() == -1;
+        }
+        assertTrue(ruledOut);
+        Puzzles.assertSolution(givens, puzzle);
+    }
+
+    @Test
+    public void clearingACellBringsRuledOutCandidatesBack()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        for (Technique technique : Technique.values())
+        {
+            puzzle.setTechnique(technique, true);
+        }
+        Hint hint = puzzle.getHint();
+        while (hint.getNumber() != -1)
+        {
+            puzzle.apply(hint);
+            hint = puzzle.getHint();
+        }
+        Position p = hint.getCells().get(0);
+        long before = puzzle.getCandidates(p);
+        puzzle.apply(hint);
+        assertTrue(puzzle.getCandidates(p) != before);
+
+        // taking a number out and putting it back leaves only the singles
+        Position last = null;
+        for (int col = 1; col <= 9; col++)
+        {
+            if (puzzle.get(new Position(1, col)) != -1)
+            {
+                last = new Position(1, col);
+            }
+        }
+        int n = puzzle.get(last);
+        puzzle.set(last, -1);
+        puzzle.set(last, n);
+        assertEquals(before, puzzle.getCandidates(p));
+    }
+
+    @Test
+    public void askingChangesNothing()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        puzzle.getHint();
+        assertEquals(Puzzles.HARD, puzzle.toText());
+        assertFalse(puzzle.isSolved());
+    }
+
+    @Test
+    public void aConflictHasNoHint()
+    {
+        Puzzle puzzle = Puzzle.parse("1.1" + Puzzles.dots(78), false);
+        assertNull(puzzle.getHint());
+        assertEquals(2, puzzle.getConflicts().size());
+    }
+
+    @Test
+    public void candidatesFollowEachChange()
+    {
+        Puzzle puzzle = new Puzzle(3, false);
+        Position corner = new Position(1, 1), next = new Position(1, 2);
+        assertEquals(0x1ff, puzzle.getCandidates(next));
+
+        puzzle.set(corner, 5);
+        assertEquals(0, puzzle.getCandidates(corner));
+        assertEquals(0x1ff & ~(1 << 4), puzzle.getCandidates(next));
+
+        puzzle.set(corner, -1);
+        assertEquals(0x1ff, puzzle.getCandidates(next));
+        assertEquals(Collections.emptyList(), puzzle.getConflicts());
+    }
+}
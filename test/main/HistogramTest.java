@@ -0,0 +1,80 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that the histogram counts values and finds percentiles to within a
+ * bucket.
+ *
+ * @author tobin
+ */
+public class HistogramTest
+{
+    @Test
+    public void smallValuesAreExact()
+    {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 20; value++)
+        {
+            histogram.record(value);
+        }
+        assertEquals(20, histogram.count());
+        assertEquals(1, histogram.min());
+        assertEquals(20, histogram.max());
+        assertEquals(10.5, histogram.mean(), 0);
+        assertEquals(10, histogram.percentile(0.5));
+        assertEquals(18, histogram.percentile(0.9));
+        assertEquals(20, histogram.percentile(1));
+    }
+
+    @Test
+    public void bigValuesAreCloseAndNeverPastTheMax()
+    {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 100000; value++)
+        {
+            histogram.record(value * 1000);
+        }
+        for (double fraction : new double[] {0.5, 0.9, 0.99, 0.999})
+        {
+            long exact = (long) Math.ceil(fraction * 100000) * 1000;
+            long found = histogram.percentile(fraction);
+            assertTrue(fraction + ": " + found, found >= exact
+                    && found <= exact + exact / 32);
+        }
+        assertEquals(100000000, histogram.percentile(1));
+        assertEquals(Long.MAX_VALUE, recordOnly(Long.MAX_VALUE).max());
+    }
+
+    @Test
+    public void addingCombinesTheCounts()
+    {
+        Histogram low = recordOnly(5), high = recordOnly(5000);
+        low.add(high);
+        assertEquals(2, low.count());
+        assertEquals(5, low.min());
+        assertEquals(5000, low.max());
+        assertEquals(5, low.percentile(0.5));
+    }
+
+    @Test
+    public void anEmptyHistogramIsAllZeros()
+    {
+        Histogram histogram = recordOnly(7);
+        histogram.clear();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.min());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.mean(), 0);
+        assertEquals(0, histogram.percentile(0.5));
+    }
+
+    private static Histogram recordOnly(long value)
+    {
+        Histogram histogram = new Histogram();
+        histogram.record(value);
+        return histogram;
+    }
+}
@@ -0,0 +1,83 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that solves are counted while metrics are on, and only then.
+ *
+ * @author tobin
+ */
+public class MetricsTest
+{
+    @Before
+    public void enable()
+    {
+        Metrics.reset();
+        Metrics.setEnabled(true);
+    }
+
+    @After
+    public void disable()
+    {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void eachSolveIsCountedByHowItEnded()
+    {
+        Puzzle hard = Puzzle.parse(Puzzles.HARD, false);
+        hard.solve();
+        Puzzle.parse(Puzzles.EASY, false).solve();
+        Puzzle.parse(Puzzles.UNSOLVABLE, false).trySolve(Engine.PROPAGATION);
+
+        assertEquals(2, Metrics.count("solved"));
+        assertEquals(1, Metrics.count("unsolvable"));
+        assertTrue(Metrics.count("nodes") >= hard.getNodes());
+        assertEquals(3, Metrics.latency(3, false).count());
+        assertEquals(0, Metrics.latency(3, true).count());
+        assertTrue(Metrics.toJson(), Metrics.toJson().contains(
+                "\"solved\":2,\"unsolvable\":1"));
+    }
+
+    @Test
+    public void invalidLinesInABatchAreCounted() throws IOException
+    {
+        String input = Puzzles.EASY + "\n12x\n11" + Puzzles.dots(79) + "\n";
+        new BatchSolver(Engine.PROPAGATION).run(new ByteArrayInputStream(
+                input.getBytes("US-ASCII")), new ByteArrayOutputStream());
+
+        assertEquals(1, Metrics.count("solved"));
+        assertEquals(2, Metrics.count("invalid"));
+    }
+
+    @Test
+    public void nothingIsCountedWhileOff()
+    {
+        Metrics.setEnabled(false);
+        Puzzle.parse(Puzzles.EASY, false).solve();
+        assertEquals(0, Metrics.count("solved"));
+    }
+
+    @Test
+    public void resetForgetsEverything()
+    {
+        Puzzle.parse(Puzzles.EASY, false).solve();
+        Metrics.reset();
+        assertEquals(0, Metrics.count("solved"));
+        assertEquals(0, Metrics.latency(3, false).count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCountersAreRefused()
+    {
+        Metrics.count("solves");
+    }
+}
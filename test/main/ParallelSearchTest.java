@@ -0,0 +1,119 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Checks that a search split between threads finds what the search on one
+ * thread does, and stays inside one node limit.
+ *
+ * @author tobin
+ */
+public class ParallelSearchTest
+{
+    /**
+     * Seeds for 16 by 16 puzzles that take a few thousand nodes on one
+     * thread, so the search is split up partway through
+     */
+    private static final int[] SEEDS = {20, 41, 238};
+    /**
+     * A 16 by 16 puzzle with no solution, which takes over 5000 nodes to
+     * find that out, however the search is split
+     */
+    private static final String DEAD_END = ".2.4..7.9..CD...5.78..FG.2.49..."
+            + "...C...4..F....8DE..9.B.......34"
+            + "24....A.E........BCE..16.D.7.39A"
+            + "......2F83A16..585..3....G.9...E"
+            + "...265..B.G.A...C...B...3.8....6"
+            + ".G9A4...65....8....BA.G...2.4.1."
+            + "...1.3.BA7...D.9A..F.G.9C1.5...2"
+            + "...52D4A..9....1.9...7..4...C5..";
+
+    /**
+     * Makes a 16 by 16 puzzle by keeping about a third of the cells of a
+     * solved grid.
+     */
+    private static Puzzle puzzle(int seed)
+    {
+        Puzzle full = new Puzzle(4, false);
+        full.solve();
+        Random random = new Random(seed);
+        Puzzle puzzle = new Puzzle(4, false);
+        for (int cell = 0; cell < puzzle.getCells(); cell++)
+        {
+            if (random.nextDouble() < 0.33)
+            {
+                puzzle.setCell(cell, full.getCell(cell));
+            }
+        }
+        return puzzle;
+    }
+
+    @Test
+    public void smallSearchesAreNotSplit()
+    {
+        Puzzle one = Puzzles.assertSolves(Engine.PROPAGATION, Puzzles.HARD,
+                false);
+        Puzzle many = Puzzles.assertSolves(Engine.PARALLEL, Puzzles.HARD,
+                false);
+        assertEquals(one.toText(), many.toText());
+        assertEquals(one.getNodes(), many.getNodes());
+    }
+
+    @Test
+    public void splitSearchesFindASolution()
+    {
+        for (int seed : SEEDS)
+        {
+            Puzzle givens = puzzle(seed);
+            SolveResult one = givens.deepCopy().trySolve(Engine.PROPAGATION);
+            assertTrue("seed " + seed, one.getNodes() > 1024);
+
+            Puzzle puzzle = givens.deepCopy();
+            SolveResult many = puzzle.trySolve(Engine.PARALLEL);
+            assertEquals("seed " + seed, SolveResult.Status.SOLVED,
+                    many.getStatus());
+            Puzzles.assertSolution(givens, puzzle);
+        }
+    }
+
+    @Test
+    public void aSplitSearchFindsADeadEnd()
+    {
+        Puzzle puzzle = Puzzle.parse(DEAD_END, false);
+        assertTrue(puzzle.deepCopy().trySolve(Engine.PROPAGATION).getNodes()
+                > 1024);
+        assertEquals(SolveResult.Status.UNSOLVABLE, puzzle.trySolve(
+                Engine.PARALLEL).getStatus());
+    }
+
+    @Test
+    public void everyThreadCountsAgainstOneLimit()
+    {
+        long limit = 3000;
+        // each thread can go a node past the limit before it sees the total
+        long slack = Math.max(64,
+                2 * Runtime.getRuntime().availableProcessors());
+        Puzzle puzzle = Puzzle.parse(DEAD_END, false);
+        SolveResult result = puzzle.trySolve(Engine.PARALLEL,
+                new Budget(0, TimeUnit.SECONDS, limit));
+
+        assertEquals(SolveResult.Status.EXCEEDED, result.getStatus());
+        assertTrue(result.toString(), result.getNodes() > limit
+                && result.getNodes() <= limit + slack);
+        assertFalse(puzzle.isSolved());
+    }
+
+    @Test
+    public void aCancelledBudgetStopsEveryThread()
+    {
+        Budget budget = new Budget();
+        budget.cancel();
+        assertEquals(SolveResult.Status.EXCEEDED, Puzzle.parse(DEAD_END,
+                false).trySolve(Engine.PARALLEL, budget).getStatus());
+    }
+}
@@ -0,0 +1,79 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Checks the sets that come from the precomputed tables against the rules
+ * of the puzzle.
+ *
+ * @author tobin
+ */
+public class PositionSetTest
+{
+    @Test
+    public void unitsHoldTheRightCells()
+    {
+        PositionSet row = PositionSet.rowSet(4, 3);
+        PositionSet col = PositionSet.colSet(7, 3);
+        PositionSet box = PositionSet.boxSet(5, 8, 3);
+        assertEquals(9, row.size());
+        assertEquals(9, col.size());
+        assertEquals(9, box.size());
+        for (int i = 0; i < 9; i++)
+        {
+            assertEquals(4, row.get(i).row);
+            assertEquals(7, col.get(i).col);
+            // rows 4 to 6 and columns 7 to 9
+            assertEquals(1, (box.get(i).row - 1) / 3);
+            assertEquals(2, (box.get(i).col - 1) / 3);
+        }
+    }
+
+    @Test
+    public void diagonalsOnlyHoldTheirOwnCells()
+    {
+        assertEquals(9, PositionSet.fdiagSet(3, 3, 3).size());
+        assertEquals(9, PositionSet.bdiagSet(1, 9, 3).size());
+        assertNull(PositionSet.fdiagSet(3, 4, 3));
+        assertNull(PositionSet.bdiagSet(1, 1, 3));
+    }
+
+    @Test
+    public void peersShareAUnitButAreNotTheCell()
+    {
+        for (boolean diag : new boolean[] {false, true})
+        {
+            PositionSet peers = PositionSet.peerSet(1, 1, 3, diag);
+            Set<String> seen = new HashSet<>();
+            for (Position p : peers)
+            {
+                assertTrue(seen.add(p.toString()));
+                assertFalse(p.row == 1 && p.col == 1);
+                assertTrue(p + " shares nothing", p.row == 1 || p.col == 1
+                        || p.row <= 3 && p.col <= 3
+                        || diag && p.row == p.col);
+            }
+            // 8 in the row, 8 in the column, 4 more in the box, and 6 more
+            // on the diagonal
+            assertEquals(diag ? 26 : 20, peers.size());
+        }
+    }
+
+    @Test
+    public void theIteratorVisitsWhatGetDoes()
+    {
+        PositionSet box = PositionSet.boxSet(9, 9, 4);
+        int i = 0;
+        for (Position p : box)
+        {
+            assertEquals(box.get(i++).toString(), p.toString());
+        }
+        assertEquals(box.size(), i);
+    }
+}
@@ -0,0 +1,82 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that a solve tells its progress as it goes, and can be stopped from
+ * there.
+ *
+ * @author tobin
+ */
+public class ProgressTest
+{
+    /**
+     * Counts the updates, and checks they are about the right puzzle
+     */
+    private static final class Counter implements Progress
+    {
+        private final Puzzle expected;
+        long updates, lastNodes;
+
+        Counter(Puzzle expected)
+        {
+            this.expected = expected;
+        }
+
+        @Override
+        public void update(Puzzle puzzle)
+        {
+            assertSame(expected, puzzle);
+            assertTrue(puzzle.getNodes() >= lastNodes);
+            lastNodes = puzzle.getNodes();
+            updates++;
+        }
+    }
+
+    @Test
+    public void eachGuessIsTold()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        Counter counter = new Counter(puzzle);
+        puzzle.setProgress(counter);
+        SolveResult result = puzzle.trySolve(Engine.PROPAGATION);
+
+        assertTrue(result.isSolved());
+        assertTrue(counter.updates >= result.getNodes());
+    }
+
+    @Test
+    public void otherEnginesTellNothing()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        Counter counter = new Counter(puzzle);
+        puzzle.setProgress(counter);
+        puzzle.trySolve(Engine.DANCING_LINKS);
+        assertEquals(0, counter.updates);
+    }
+
+    @Test
+    public void aSolveCanBeCancelledFromItsProgress()
+    {
+        final Budget budget = new Budget();
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        puzzle.setProgress(new Progress()
+        {
+            @Override
+            public void update(Puzzle solving)
+            {
+                if (solving.getNodes() == 10)
+                {
+                    budget.cancel();
+                }
+            }
+        });
+        SolveResult result = puzzle.trySolve(Engine.PROPAGATION, budget);
+
+        assertEquals(SolveResult.Status.EXCEEDED, result.getStatus());
+        assertEquals(11, result.getNodes());
+    }
+}
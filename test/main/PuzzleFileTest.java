@@ -0,0 +1,164 @@
+package main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that puzzles and their solutions come back out of a puzzle file the
+ * way they went in, and that a failed conversion leaves nothing behind.
+ *
+ * @author tobin
+ */
+public class PuzzleFileTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File text(String lines) throws IOException
+    {
+        File file = folder.newFile();
+        Files.write(file.toPath(), lines.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    @Test
+    public void writtenPuzzlesReadBack() throws IOException
+    {
+        File file = new File(folder.getRoot(), "puzzles.bin");
+        PuzzleFile.Writer out = PuzzleFile.create(file, 3, false, false);
+        out.add(Puzzle.parse(Puzzles.EASY, false));
+        out.add(Puzzle.parse(Puzzles.HARD, false));
+        out.close();
+
+        assertTrue(PuzzleFile.isPuzzleFile(file));
+        try (PuzzleFile in = PuzzleFile.open(file))
+        {
+            assertEquals(2, in.size());
+            assertEquals(3, in.getBoxSize());
+            assertFalse(in.isDiagonal());
+            assertFalse(in.hasSolutions());
+
+            Puzzle puzzle = new Puzzle(3, false);
+            assertTrue(in.read(1, puzzle));
+            assertEquals(Puzzles.HARD, puzzle.toText());
+            assertFalse(in.readSolution(1, puzzle));
+        }
+    }
+
+    @Test
+    public void convertedTextKeepsItsSolutions() throws IOException
+    {
+        File file = new File(folder.getRoot(), "puzzles.bin");
+        assertEquals(3, PuzzleFile.fromText(text(Puzzles.EASY + "\n\n"
+                + Puzzles.UNSOLVABLE + "\n" + Puzzles.HARD + "\n"), file, 3,
+                false, Engine.PROPAGATION));
+
+        try (PuzzleFile in = PuzzleFile.open(file))
+        {
+            assertTrue(in.hasSolutions());
+            Puzzle givens = new Puzzle(3, false), solved = new Puzzle(3,
+                    false);
+            in.read(2, givens);
+            assertTrue(in.readSolution(2, solved));
+            Puzzles.assertSolution(givens, solved);
+            assertFalse(in.readSolution(1, solved));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, PuzzleFile.toText(file, out, true));
+        assertEquals(Puzzles.assertSolves(Engine.PROPAGATION, Puzzles.EASY,
+                false).toText() + "\n"
+                + BatchSolver.UNSOLVABLE + "\n"
+                + Puzzles.assertSolves(Engine.PROPAGATION, Puzzles.HARD,
+                false).toText() + "\n", out.toString("US-ASCII"));
+
+        out.reset();
+        PuzzleFile.toText(file, out, false);
+        assertEquals(Puzzle.parse(Puzzles.EASY, false).toText() + "\n"
+                + Puzzles.UNSOLVABLE + "\n" + Puzzles.HARD + "\n",
+                out.toString("US-ASCII"));
+    }
+
+    @Test
+    public void aBadLineLeavesTheOldFile() throws IOException
+    {
+        File file = new File(folder.getRoot(), "puzzles.bin");
+        PuzzleFile.fromText(text(Puzzles.HARD + "\n"), file, 3, false, null);
+        byte[] before = Files.readAllBytes(file.toPath());
+
+        try
+        {
+            PuzzleFile.fromText(text(Puzzles.EASY + "\n12x\n"), file, 3,
+                    false, null);
+            fail("the second line is not a puzzle");
+        }
+        catch (IOException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Line 2"));
+        }
+        assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+        for (String name : folder.getRoot().list())
+        {
+            assertFalse(name, name.endsWith(".part"));
+        }
+    }
+
+    @Test
+    public void batchModeReadsTheFileLikeText() throws IOException
+    {
+        String lines = Puzzles.EASY + "\n" + Puzzles.UNSOLVABLE + "\n"
+                + Puzzles.HARD + "\n";
+        File text = text(lines), file = new File(folder.getRoot(),
+                "puzzles.bin");
+        PuzzleFile.fromText(text, file, 3, false, null);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream(),
+                actual = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(text.toPath()))
+        {
+            new BatchSolver(Engine.PROPAGATION).run(in, expected);
+        }
+        try (PuzzleFile in = PuzzleFile.open(file))
+        {
+            new BatchSolver(Engine.PROPAGATION, 3, false, 2).run(in, actual);
+        }
+        assertEquals(expected.toString("US-ASCII"),
+                actual.toString("US-ASCII"));
+    }
+
+    @Test(expected = IOException.class)
+    public void solutionsMustBeInTheFile() throws IOException
+    {
+        File file = new File(folder.getRoot(), "puzzles.bin");
+        PuzzleFile.fromText(text(Puzzles.HARD + "\n"), file, 3, false, null);
+        PuzzleFile.toText(file, new ByteArrayOutputStream(), true);
+    }
+
+    @Test
+    public void textIsNotAPuzzleFile() throws IOException
+    {
+        File file = text(Puzzles.HARD + "\n");
+        assertFalse(PuzzleFile.isPuzzleFile(file));
+        try
+        {
+            PuzzleFile.open(file).close();
+            fail("opened a text file");
+        }
+        catch (IOException ex)
+        {
+            // expected
+        }
+    }
+}
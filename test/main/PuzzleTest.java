@@ -0,0 +1,103 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that the deductions and the search finish puzzles, and stop where
+ * they should.
+ *
+ * @author tobin
+ */
+public class PuzzleTest
+{
+    @Test
+    public void searchSolvesEveryValidPuzzle()
+    {
+        for (String text : new String[] {Puzzles.EASY, Puzzles.HARD,
+            Puzzles.EMPTY})
+        {
+            Puzzle givens = Puzzle.parse(text, false);
+            Puzzle puzzle = givens.deepCopy();
+            assertTrue(text, puzzle.solve());
+            assertTrue(puzzle.isSolved());
+            Puzzles.assertSolution(givens, puzzle);
+        }
+    }
+
+    @Test
+    public void withoutSearchTheDeductionsStopWhereTheyStall()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        puzzle.setSearch(false);
+        SolveResult result = puzzle.trySolve(Engine.PROPAGATION);
+
+        assertEquals(SolveResult.Status.UNFINISHED, result.getStatus());
+        assertFalse(puzzle.isSolved());
+        assertEquals(0, result.getNodes());
+    }
+
+    @Test
+    public void aPuzzleWithNoSolutionIsUnsolvable()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.UNSOLVABLE, false);
+        assertEquals(SolveResult.Status.UNSOLVABLE,
+                puzzle.trySolve(Engine.PROPAGATION).getStatus());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void solveThrowsWhenThereIsNoSolution()
+    {
+        Puzzle.parse(Puzzles.UNSOLVABLE, false).solve();
+    }
+
+    @Test
+    public void textRoundTrips()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        assertEquals(Puzzles.HARD, puzzle.toText());
+        assertEquals(Puzzles.HARD, Puzzle.parse(puzzle.toText(), false)
+                .toText());
+    }
+
+    @Test
+    public void aCopyIsSolvedOnItsOwn()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.EASY, false);
+        Puzzle copy = puzzle.deepCopy();
+        copy.solve();
+
+        assertEquals(Puzzles.EASY, puzzle.toText().replace('.', '0'));
+        assertFalse(puzzle.isSolved());
+    }
+
+    @Test
+    public void countingStopsAtTheLimit()
+    {
+        assertEquals(1, Puzzle.parse(Puzzles.EASY, false).countSolutions(2));
+        assertEquals(1, Puzzle.parse(Puzzles.HARD, false).countSolutions(2));
+        assertEquals(2, Puzzle.parse(Puzzles.EMPTY, false).countSolutions(2));
+        assertEquals(5, Puzzle.parse(Puzzles.EMPTY, false).countSolutions(5));
+        assertEquals(0, Puzzle.parse(Puzzles.UNSOLVABLE, false)
+                .countSolutions(2));
+        assertEquals(0, Puzzle.parse("11" + Puzzles.dots(79), false)
+                .countSolutions(2));
+    }
+
+    @Test
+    public void countingLeavesThePuzzleAlone()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        puzzle.countSolutions(2);
+        assertEquals(Puzzles.HARD, puzzle.toText());
+        assertFalse(puzzle.isSolved());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void theLimitMustBePositive()
+    {
+        Puzzle.parse(Puzzles.EASY, false).countSolutions(0);
+    }
+}
@@ -0,0 +1,161 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+
+/**
+ * Puzzles the tests share, and a check that a puzzle was solved properly.
+ *
+ * @author tobin
+ */
+final class Puzzles
+{
+    /**
+     * The first puzzle of puzzles.txt, which needs only a few guesses
+     */
+    static final String EASY = "200000060000075030048090100000300000300010009"
+            + "000008000001020570080730000090000004";
+    /**
+     * A puzzle with 17 givens, which needs a lot more searching
+     */
+    static final String HARD = "4.....8.5.3..........7......2.....6.....8.4."
+            + ".....1.......6.3.7.5..2.....1.4......";
+    /**
+     * Nothing repeats, but the 9 in the last column leaves nothing for the
+     * end of the first row
+     */
+    static final String UNSOLVABLE = "12345678.........9" + dots(63);
+    /**
+     * A puzzle with no givens, which has lots of solutions
+     */
+    static final String EMPTY = dots(81);
+
+    private Puzzles()
+    {
+    }
+
+    /**
+     * @return A row of n unknown cells
+     */
+    static String dots(int n)
+    {
+        StringBuilder out = new StringBuilder(n);
+        for (int i = 0; i < n; i++)
+        {
+            out.append('.');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Moves a puzzle around without changing what its solution looks like:
+     * bands and the rows in them, stacks and the columns in them, the
+     * transpose and the numbers are all shuffled.
+     *
+     * @param puzzle The puzzle to move, which is left alone
+     * @param random Where the shuffles come from
+     * @return The moved puzzle
+     */
+    static Puzzle shuffle(Puzzle puzzle, Random random)
+    {
+        int box = puzzle.getBoxSize(), size = puzzle.getSize();
+        int[] rows = lines(box, random), cols = lines(box, random);
+        int[] labels = permutation(size, random);
+        boolean transpose = random.nextBoolean();
+        Puzzle moved = new Puzzle(box, puzzle.isDiagonal());
+        for (int row = 0; row < size; row++)
+        {
+            for (int col = 0; col < size; col++)
+            {
+                int n = puzzle.getCell(rows[row] * size + cols[col]);
+                int cell = transpose ? col * size + row : row * size + col;
+                moved.setCell(cell, n == -1 ? -1 : labels[n - 1] + 1);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * @return An order of the rows (or columns) that keeps each band whole
+     */
+    private static int[] lines(int box, Random random)
+    {
+        int[] bands = permutation(box, random);
+        int[] lines = new int[box * box];
+        for (int band = 0; band < box; band++)
+        {
+            int[] inside = permutation(box, random);
+            for (int i = 0; i < box; i++)
+            {
+                lines[band * box + i] = bands[band] * box + inside[i];
+            }
+        }
+        return lines;
+    }
+
+    private static int[] permutation(int n, Random random)
+    {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        return order;
+    }
+
+    /**
+     * @return The value of each cell in row major order, -1 if unknown
+     */
+    static int[] cells(Puzzle puzzle)
+    {
+        int[] cells = new int[puzzle.getCells()];
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            cells[cell] = puzzle.getCell(cell);
+        }
+        return cells;
+    }
+
+    /**
+     * Solves a puzzle with an engine and checks the answer.
+     *
+     * @param engine The engine to solve with
+     * @param text The puzzle
+     * @param diag If the diagonals are constrained
+     * @return The solved puzzle
+     */
+    static Puzzle assertSolves(Engine engine, String text, boolean diag)
+    {
+        Puzzle givens = Puzzle.parse(text, diag);
+        Puzzle puzzle = givens.deepCopy();
+        SolveResult result = puzzle.trySolve(engine);
+        assertEquals(text, SolveResult.Status.SOLVED, result.getStatus());
+        assertSolution(givens, puzzle);
+        return puzzle;
+    }
+
+    /**
+     * Checks that a puzzle is a solution of some givens: every cell is
+     * filled, nothing repeats and every given is still there.
+     *
+     * @param givens The puzzle as it was before solving
+     * @param solved The puzzle once it was solved
+     */
+    static void assertSolution(Puzzle givens, Puzzle solved)
+    {
+        String before = givens.toText(), after = solved.toText();
+        assertEquals(before.length(), after.length());
+        assertTrue("not filled: " + after, after.indexOf('.') == -1);
+        assertTrue("repeats: " + after, solved.getConflicts().isEmpty());
+        for (int i = 0; i < before.length(); i++)
+        {
+            if (before.charAt(i) != '.')
+            {
+                assertEquals("given " + i, before.charAt(i), after.charAt(i));
+            }
+        }
+    }
+}
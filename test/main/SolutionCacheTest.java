@@ -0,0 +1,102 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that the cache answers copies of puzzles it has seen, and only
+ * holds as many as it was asked to.
+ *
+ * @author tobin
+ */
+public class SolutionCacheTest
+{
+    @Test
+    public void theSamePuzzleIsAHit()
+    {
+        SolutionCache cache = new SolutionCache(4);
+        assertTrue(cache.solve(Puzzle.parse(Puzzles.HARD, false),
+                Engine.PROPAGATION));
+
+        Puzzle givens = Puzzle.parse(Puzzles.HARD, false);
+        Puzzle again = givens.deepCopy();
+        SolveResult result = cache.trySolve(again, Engine.PROPAGATION, null);
+
+        assertEquals(SolveResult.Status.SOLVED, result.getStatus());
+        assertEquals(0, result.getNodes());
+        Puzzles.assertSolution(givens, again);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void aShuffledCopyIsAHit()
+    {
+        SolutionCache cache = new SolutionCache(4);
+        Puzzle hard = Puzzle.parse(Puzzles.HARD, false);
+        cache.solve(hard.deepCopy(), Engine.PROPAGATION);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 5; i++)
+        {
+            Puzzle givens = Puzzles.shuffle(hard, random);
+            Puzzle copy = givens.deepCopy();
+            assertTrue(cache.solve(copy, Engine.PROPAGATION));
+            Puzzles.assertSolution(givens, copy);
+        }
+        assertEquals(5, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void noSolutionIsRemembered()
+    {
+        SolutionCache cache = new SolutionCache(4);
+        for (int i = 0; i < 2; i++)
+        {
+            Puzzle puzzle = Puzzle.parse(Puzzles.UNSOLVABLE, false);
+            assertEquals(SolveResult.Status.UNSOLVABLE, cache.trySolve(
+                    puzzle, Engine.PROPAGATION, null).getStatus());
+        }
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void theLeastRecentlyUsedGoesFirst()
+    {
+        SolutionCache cache = new SolutionCache(2);
+        cache.solve(Puzzle.parse(Puzzles.EASY, false), Engine.PROPAGATION);
+        cache.solve(Puzzle.parse(Puzzles.HARD, false), Engine.PROPAGATION);
+        // using the easy one again leaves the hard one the oldest
+        cache.solve(Puzzle.parse(Puzzles.EASY, false), Engine.PROPAGATION);
+        cache.solve(Puzzle.parse(Puzzles.EMPTY, false), Engine.PROPAGATION);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        cache.solve(Puzzle.parse(Puzzles.EASY, false), Engine.PROPAGATION);
+        assertEquals(2, cache.getHits());
+        cache.solve(Puzzle.parse(Puzzles.HARD, false), Engine.PROPAGATION);
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void clearingEmptiesTheCache()
+    {
+        SolutionCache cache = new SolutionCache(2);
+        cache.solve(Puzzle.parse(Puzzles.EASY, false), Engine.PROPAGATION);
+        cache.clear();
+        assertEquals(0, cache.size());
+
+        cache.solve(Puzzle.parse(Puzzles.EASY, false), Engine.PROPAGATION);
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void theCacheMustHoldSomething()
+    {
+        new SolutionCache(0);
+    }
+}
@@ -0,0 +1,126 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a store built from a file of puzzles finds them again, moved
+ * around or not.
+ *
+ * @author tobin
+ */
+public class SolutionStoreTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Builds a store from the easy and hard puzzles, a shuffled copy of the
+     * hard one and one with no solution.
+     */
+    private File build() throws IOException
+    {
+        Puzzle copy = Puzzles.shuffle(Puzzle.parse(Puzzles.HARD, false),
+                new Random(3));
+        File puzzles = folder.newFile("puzzles.txt");
+        Files.write(puzzles.toPath(), (Puzzles.EASY + "\n" + Puzzles.HARD
+                + "\n" + copy.toText() + "\n" + Puzzles.UNSOLVABLE + "\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        File store = new File(folder.getRoot(), "puzzles.store");
+        // the copy is only stored once and the last has nothing to store
+        assertEquals(2, SolutionStore.build(puzzles, store, 3, false, 2));
+        return store;
+    }
+
+    @Test
+    public void storedPuzzlesAndTheirCopiesAreFound() throws IOException
+    {
+        try (SolutionStore store = SolutionStore.open(build()))
+        {
+            assertEquals(2, store.size());
+            Random random = new Random(11);
+            for (String text : new String[] {Puzzles.EASY, Puzzles.HARD})
+            {
+                Puzzle givens = Puzzles.shuffle(Puzzle.parse(text, false),
+                        random);
+                Puzzle puzzle = givens.deepCopy();
+                assertTrue(text, store.find(puzzle));
+                Puzzles.assertSolution(givens, puzzle);
+            }
+            assertEquals(2, store.getHits());
+        }
+    }
+
+    @Test
+    public void otherPuzzlesAreMissed() throws IOException
+    {
+        try (SolutionStore store = SolutionStore.open(build()))
+        {
+            Puzzle empty = Puzzle.parse(Puzzles.EMPTY, false);
+            assertFalse(store.find(empty));
+            assertEquals(-1, empty.getCell(0));
+            assertFalse(store.find(Puzzle.parse(Puzzles.HARD, true)));
+            assertFalse(store.find(new Puzzle(2, false)));
+            assertEquals(3, store.getMisses());
+
+            // a miss is solved the usual way
+            assertTrue(store.solve(empty, Engine.PROPAGATION));
+            assertTrue(empty.isSolved());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void aDamagedTableIsAMiss() throws IOException
+    {
+        File file = build();
+        // the two puzzles sit in a table of four slots after the header
+        for (int entry : new int[] {1, 3, -1})
+        {
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw"))
+            {
+                out.seek(24);
+                for (int slot = 0; slot < 4; slot++)
+                {
+                    out.writeInt(entry);
+                }
+            }
+            try (SolutionStore store = SolutionStore.open(file))
+            {
+                assertFalse(store.find(Puzzle.parse(Puzzles.EMPTY, false)));
+                assertEquals(1, store.getMisses());
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void aStoreMustHaveAnEmptySlot() throws IOException
+    {
+        File file = build();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw"))
+        {
+            // two slots for two puzzles leaves no empty one to stop at
+            out.seek(16);
+            out.writeInt(2);
+        }
+        SolutionStore.open(file).close();
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreNotStores() throws IOException
+    {
+        File file = folder.newFile("puzzles.txt");
+        Files.write(file.toPath(), (Puzzles.EASY + "\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        SolutionStore.open(file).close();
+    }
+}
@@ -0,0 +1,103 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+/**
+ * Checks that the stream of solutions finds each solution once, whether it
+ * is walked on one thread or split between many.
+ *
+ * @author tobin
+ */
+public class SolutionsTest
+{
+    /**
+     * The number of ways to fill an empty 4 by 4 grid
+     */
+    private static final int FOUR_BY_FOUR = 288;
+
+    @Test
+    public void everySolutionIsFoundOnce()
+    {
+        Puzzle empty = new Puzzle(2, false);
+        List<String> found = texts(empty.solutions().peek(solution ->
+                Puzzles.assertSolution(empty, solution)).collect(
+                Collectors.toList()));
+
+        assertEquals(FOUR_BY_FOUR, found.size());
+        assertEquals(FOUR_BY_FOUR, new HashSet<>(found).size());
+        assertEquals(FOUR_BY_FOUR, empty.countSolutions(1000));
+    }
+
+    @Test
+    public void aParallelStreamFindsTheSameSolutions()
+    {
+        Puzzle empty = new Puzzle(2, false);
+        Set<String> sequential = new HashSet<>(texts(empty.solutions()
+                .collect(Collectors.toList())));
+        List<String> parallel = texts(empty.solutions().parallel()
+                .collect(Collectors.toList()));
+
+        assertEquals(FOUR_BY_FOUR, parallel.size());
+        assertEquals(sequential, new HashSet<>(parallel));
+    }
+
+    @Test
+    public void onlyWhatIsAskedForIsFound()
+    {
+        Puzzle empty = Puzzle.parse(Puzzles.EMPTY, false);
+        List<String> first = texts(empty.solutions().limit(5)
+                .collect(Collectors.toList()));
+        assertEquals(5, new HashSet<>(first).size());
+
+        Iterator<Puzzle> it = empty.solutionIterator();
+        for (String text : first)
+        {
+            assertEquals(text, it.next().toText());
+        }
+        assertEquals(Puzzles.EMPTY, empty.toText());
+    }
+
+    @Test
+    public void aUniquePuzzleHasOneSolution()
+    {
+        Puzzle hard = Puzzle.parse(Puzzles.HARD, false);
+        List<Puzzle> all = hard.solutions().collect(Collectors.toList());
+
+        assertEquals(1, all.size());
+        assertEquals(Puzzles.assertSolves(Engine.PROPAGATION, Puzzles.HARD,
+                false).toText(), all.get(0).toText());
+        assertFalse(hard.isSolved());
+    }
+
+    @Test
+    public void filledGivensAreTheirOwnSolution()
+    {
+        String solved = Puzzles.assertSolves(Engine.PROPAGATION,
+                Puzzles.EASY, false).toText();
+        assertEquals(Collections.singletonList(solved), texts(Puzzle.parse(
+                solved, false).solutions().collect(Collectors.toList())));
+    }
+
+    @Test
+    public void deadEndsHaveNoSolutions()
+    {
+        assertEquals(0, Puzzle.parse(Puzzles.UNSOLVABLE, false).solutions()
+                .count());
+        assertEquals(0, Puzzle.parse("11" + Puzzles.dots(79), false)
+                .solutions().count());
+    }
+
+    private static List<String> texts(List<Puzzle> puzzles)
+    {
+        return puzzles.stream().map(Puzzle::toText)
+                .collect(Collectors.toList());
+    }
+}
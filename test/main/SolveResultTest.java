@@ -0,0 +1,79 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that a result says how a solve ended without throwing, and only
+ * throws when asked to.
+ *
+ * @author tobin
+ */
+public class SolveResultTest
+{
+    @Test
+    public void aRepeatIsInvalidAndSaysWhere()
+    {
+        Puzzle puzzle = Puzzle.parse("1.1" + Puzzles.dots(78), false);
+        SolveResult result = puzzle.trySolve(Engine.PROPAGATION);
+
+        assertEquals(SolveResult.Status.INVALID, result.getStatus());
+        // positions count from 1
+        assertEquals(1, result.getConflict().row);
+        assertEquals(1, result.getConflict().col);
+        assertEquals(0, result.getNodes());
+    }
+
+    @Test
+    public void aSolvedResultHasTheCounts()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        SolveResult result = puzzle.trySolve(Engine.PROPAGATION);
+
+        assertTrue(result.isSolved());
+        assertNull(result.getConflict());
+        assertEquals(puzzle.getNodes(), result.getNodes());
+        assertTrue(result.getNodes() > 0);
+        assertTrue(result.getDepth() > 0);
+        assertTrue(result.orThrow());
+    }
+
+    @Test
+    public void onlyTimedSolvesReadTheClock()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        assertFalse(puzzle.isTimed());
+        assertEquals(0, puzzle.deepCopy().trySolve(Engine.PROPAGATION)
+                .getNanos());
+
+        puzzle.setTimed(true);
+        Puzzle copy = puzzle.deepCopy();
+        assertTrue(copy.isTimed());
+        assertTrue(copy.trySolve(Engine.PROPAGATION).getNanos() > 0);
+    }
+
+    @Test
+    public void anUnfinishedSolveIsNotAnError()
+    {
+        Puzzle puzzle = Puzzle.parse(Puzzles.HARD, false);
+        puzzle.setSearch(false);
+        assertFalse(puzzle.trySolve(Engine.PROPAGATION).orThrow());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void orThrowThrowsForAnInvalidPuzzle()
+    {
+        Puzzle.parse("11" + Puzzles.dots(79), false)
+                .trySolve(Engine.PROPAGATION).orThrow();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void orThrowThrowsWhenThereIsNoSolution()
+    {
+        Puzzle.parse(Puzzles.UNSOLVABLE, false).trySolve(Engine.PROPAGATION)
+                .orThrow();
+    }
+}
@@ -0,0 +1,138 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the server answers posted puzzles like batch mode does, and
+ * turns away the wrong kind of request.
+ *
+ * @author tobin
+ */
+public class SolveServerTest
+{
+    private SolveServer server;
+
+    @Before
+    public void start() throws IOException
+    {
+        server = new SolveServer(Engine.PROPAGATION, 3, false, 2, 2);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                0));
+    }
+
+    @After
+    public void stop()
+    {
+        server.stop(0);
+    }
+
+    @Test
+    public void postedPuzzlesAreAnsweredInOrder() throws IOException
+    {
+        HttpURLConnection connection = post("/solve", Puzzles.EASY + "\n"
+                + Puzzles.UNSOLVABLE + "\n" + "12x\n");
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(Puzzles.assertSolves(Engine.PROPAGATION, Puzzles.EASY,
+                false).toText() + "\n"
+                + BatchSolver.UNSOLVABLE + "\n"
+                + BatchSolver.INVALID + "\n", read(connection));
+        assertEquals(1, server.getServed());
+    }
+
+    @Test
+    public void theQueryLimitsEachPuzzle() throws IOException
+    {
+        HttpURLConnection connection = post("/solve?nodes=1",
+                Puzzles.HARD + "\n");
+        assertEquals(BatchSolver.EXCEEDED + "\n", read(connection));
+    }
+
+    @Test
+    public void aBadQueryIsABadRequest() throws IOException
+    {
+        assertEquals(400, post("/solve?nodes=-1", Puzzles.EASY)
+                .getResponseCode());
+    }
+
+    @Test
+    public void puzzlesMustBePosted() throws IOException
+    {
+        HttpURLConnection connection = open("/solve");
+        assertEquals(405, connection.getResponseCode());
+        assertEquals("POST", connection.getHeaderField("Allow"));
+    }
+
+    @Test
+    public void metricsAndStatsCanOnlyBeRead() throws IOException
+    {
+        for (String page : new String[] {"/metrics", "/stats"})
+        {
+            HttpURLConnection connection = post(page, "");
+            assertEquals(page, 405, connection.getResponseCode());
+            assertEquals("GET", connection.getHeaderField("Allow"));
+            assertEquals(0, connection.getContentLength());
+        }
+
+        HttpURLConnection connection = open("/stats");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(read(connection).startsWith("served 0\n"));
+    }
+
+    private HttpURLConnection open(String path) throws IOException
+    {
+        URL url = new URL("http", InetAddress.getLoopbackAddress()
+                .getHostAddress(), server.getPort(), path);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private HttpURLConnection post(String path, String body)
+            throws IOException
+    {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        try
+        {
+            out.write(body.getBytes("US-ASCII"));
+        }
+        finally
+        {
+            out.close();
+        }
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection)
+            throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = connection.getInputStream();
+        try
+        {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1;)
+            {
+                body.write(buffer, 0, n);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return body.toString("US-ASCII");
+    }
+}